@@ -0,0 +1,90 @@
+package org.example.socketproject.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Outils communs aux benchmarks : serveur non démarré avec un historique temporaire
+final class BenchSupport {
+    private BenchSupport() {
+    }
+
+    // Serveur jamais démarré (aucune socket) ; présence diffusée sur le thread appelant
+    // (pas de thread planificateur concurrent), file des logs qui ne bloque pas l'appelant
+    static ChatServer createServer(Path historyDir) {
+        return new ChatServer(benchConfig(historyDir));
+    }
+
+    static ServerConfig benchConfig(Path historyDir) {
+        return new ServerConfig()
+                .setPresenceWindowMillis(0)
+                .setLogQueuePolicy(LogQueuePolicy.DROP)
+                .setHistoryDir(historyDir.toString())
+                .setInboxDir(historyDir.resolve("inbox").toString());
+    }
+
+    // Le serveur trace chaque message sur la console : inutile (et coûteux) pendant les mesures
+    static PrintStream silenceConsole() {
+        PrintStream previous = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return previous;
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Vider les fichiers de logs entre deux itérations : l'écrivain les ouvre en ajout, il continue en fin de fichier
+    static void truncateLogs() throws IOException {
+        for (String name : new String[] {"server.log", "messages.log"}) {
+            Path file = Paths.get("logs" + File.separator + name);
+            if (Files.exists(file)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                }
+            }
+        }
+    }
+
+    // Certificat de test généré par keytool dans directory : server.p12 (clé du serveur) et trust.p12 (certificat seul)
+    static void createKeyStores(Path directory, String password) throws IOException {
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Path server = directory.resolve("server.p12");
+        Path certificate = directory.resolve("server.pem");
+        run(Arrays.asList(keytool, "-genkeypair", "-alias", "chat", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-validity", "30", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-keystore", server.toString(), "-storetype", "PKCS12", "-storepass", password));
+        run(Arrays.asList(keytool, "-exportcert", "-alias", "chat", "-rfc", "-file", certificate.toString(),
+                "-keystore", server.toString(), "-storepass", password));
+        run(Arrays.asList(keytool, "-importcert", "-noprompt", "-alias", "chat", "-file", certificate.toString(),
+                "-keystore", directory.resolve("trust.p12").toString(), "-storetype", "PKCS12", "-storepass", password));
+    }
+
+    private static void run(List<String> command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException("Échec de " + String.join(" ", command));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("keytool interrompu", e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.FrameType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffusion dans le salon par défaut (journal, historique, encodage unique,
+ * mise en file pour chaque destinataire) et construction de la liste USERS
+ * envoyée à chaque arrivée, selon le nombre de membres.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000"})
+    public int recipients;
+
+    // Format des destinataires : lignes texte ou trames binaires
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private PrintStream console;
+    private Path historyDir;
+    private ChatServer server;
+    private InMemoryConnection sender;
+    private ChatRoom room;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        console = BenchSupport.silenceConsole();
+        historyDir = Files.createTempDirectory("bench-history");
+        server = BenchSupport.createServer(historyDir);
+        sender = new InMemoryConnection(server, 1, binary);
+        sender.login("sender");
+        for (int i = 0; i < recipients; i++) {
+            new InMemoryConnection(server, 2 + i, binary).login("user" + i);
+        }
+        room = server.getDefaultRoom();
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncateLogs() throws IOException {
+        BenchSupport.truncateLogs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        BenchSupport.deleteRecursively(historyDir);
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public void fanOut() {
+        server.broadcast("sender: salut tout le monde", sender);
+    }
+
+    @Benchmark
+    public int userListSnapshot() {
+        return room.presenceMessage(FrameType.USERS, "USERS", room.getMemberNames()).length(binary);
+    }
+}
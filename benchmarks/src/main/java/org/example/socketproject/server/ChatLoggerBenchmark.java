@@ -0,0 +1,52 @@
+package org.example.socketproject.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journalisation d'un message. Avec BLOCK, le débit mesuré est celui de
+ * l'écrivain (formatage et écriture disque) une fois la file pleine ; avec
+ * DROP, c'est le coût vu par l'appelant seul.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ChatLoggerBenchmark {
+    @Param({"BLOCK", "DROP"})
+    public LogQueuePolicy policy;
+
+    private ChatLogger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logger = ChatLogger.getInstance();
+        logger.configure(new ServerConfig().getLogQueueCapacity(), policy);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncateLogs() throws IOException {
+        BenchSupport.truncateLogs();
+    }
+
+    @Benchmark
+    public void logMessage() {
+        logger.logMessage("alice", "alice: salut tout le monde");
+    }
+}
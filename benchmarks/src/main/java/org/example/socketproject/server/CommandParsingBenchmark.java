@@ -0,0 +1,74 @@
+package org.example.socketproject.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traitement d'une ligne reçue d'un client connecté (le corps de la boucle de
+ * lecture) : reconnaissance de la commande puis son exécution, avec un seul
+ * autre membre dans les salons pour que la diffusion reste négligeable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CommandParsingBenchmark {
+    @Param({"salut tout le monde", "/msg peer salut", "/room bench salut", "/rooms", "   "})
+    public String line;
+
+    private PrintStream console;
+    private Path historyDir;
+    private ChatServer server;
+    private InMemoryConnection client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        console = BenchSupport.silenceConsole();
+        historyDir = Files.createTempDirectory("bench-history");
+        server = BenchSupport.createServer(historyDir);
+        client = new InMemoryConnection(server, 1, false);
+        client.login("alice");
+        InMemoryConnection peer = new InMemoryConnection(server, 2, false);
+        peer.login("peer");
+        client.receive("/join bench");
+        peer.receive("/join bench");
+        // Revenir au salon par défaut pour les messages ordinaires
+        client.receive("/join " + ChatRoom.DEFAULT_ROOM);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncateLogs() throws IOException {
+        BenchSupport.truncateLogs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        BenchSupport.deleteRecursively(historyDir);
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public boolean handleLine() {
+        return client.receive(line);
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.socketproject.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffusion d'un long message (trace de pile collée dans le chat) à des
+ * clients binaires, avec ou sans compression négociée : la compression est
+ * faite une fois par diffusion (encodeOnce), en échange de moins d'octets
+ * copiés puis envoyés pour chaque destinataire.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CompressionBenchmark {
+    @Param({"100"})
+    public int recipients;
+
+    // Taille approximative du message diffusé, en octets
+    @Param({"512", "4096"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private PrintStream console;
+    private Path historyDir;
+    private ChatServer server;
+    private InMemoryConnection sender;
+    private InMemoryConnection recipient;
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        console = BenchSupport.silenceConsole();
+        historyDir = Files.createTempDirectory("bench-history");
+        server = new ChatServer(BenchSupport.benchConfig(historyDir).setMaxLineLength(64 * 1024));
+        sender = new InMemoryConnection(server, 1, true, compression);
+        sender.login("sender");
+        for (int i = 0; i < recipients; i++) {
+            recipient = new InMemoryConnection(server, 2 + i, true, compression);
+            recipient.login("user" + i);
+        }
+        message = stackTrace(size);
+    }
+
+    // Texte répétitif comme une vraie trace de pile
+    private static String stackTrace(int size) {
+        StringBuilder text = new StringBuilder("sender: java.lang.IllegalStateException: connexion fermée");
+        int line = 0;
+        while (text.length() < size) {
+            text.append("\n\tat org.example.socketproject.server.NioConnection.flush(NioConnection.java:")
+                    .append(200 + line++ % 50).append(')');
+        }
+        return text.toString();
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncateLogs() throws IOException {
+        BenchSupport.truncateLogs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        BenchSupport.deleteRecursively(historyDir);
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public void fanOut() {
+        server.broadcast(message, sender);
+    }
+
+    // Encodage seul de la forme envoyée, compression comprise
+    @Benchmark
+    public int encodeOnce() {
+        return server.encode(message).length(true, compression);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.socketproject.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Connexion sans socket pour les benchmarks : l'écrivain vide la file d'envoi
+ * de façon synchrone dans un tampon mémoire réutilisé (un par thread, pour
+ * pouvoir créer des centaines de milliers de connexions), ce qui garde la
+ * copie des octets sans dépendre du réseau ni d'un thread d'écriture.
+ */
+public class InMemoryConnection extends ClientConnection {
+    private static final ThreadLocal<ByteBuffer> SINK = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
+    private final int port;
+    private long bytesWritten = 0;
+
+    public InMemoryConnection(ChatServer server, int port, boolean binary) {
+        this(server, port, binary, false);
+    }
+
+    // compression : client binaire qui a négocié les trames compressées
+    public InMemoryConnection(ChatServer server, int port, boolean binary, boolean compression) {
+        super(server);
+        this.port = port;
+        this.binary = binary;
+        this.compression = binary && compression;
+    }
+
+    // Connexion complète comme un vrai client : pseudo, historique, salon par défaut
+    public boolean login(String name) {
+        boolean accepted = handleLogin(name);
+        drain();
+        return accepted;
+    }
+
+    // Une ligne reçue du client, comme dans la boucle de lecture des vraies connexions
+    public boolean receive(String line) {
+        return handleLine(line);
+    }
+
+    // Vider la file d'envoi dans le tampon mémoire
+    public void drain() {
+        ByteBuffer sink = SINK.get();
+        OutboundMessage message;
+        while ((message = outbound.poll()) != null) {
+            ByteBuffer buffer = message.buffer(binary, compression);
+            if (sink.remaining() < buffer.remaining()) {
+                sink.clear();
+            }
+            bytesWritten += buffer.remaining();
+            if (buffer.remaining() <= sink.remaining()) {
+                sink.put(buffer);
+            }
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    protected void scheduleWrite() {
+        drain();
+    }
+
+    @Override
+    protected boolean hasPendingWrites() {
+        return false;
+    }
+
+    @Override
+    protected void abortSlowConsumer() {
+        // Jamais lente : la file est vidée à chaque envoi
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    protected int getRemotePort() {
+        return port;
+    }
+
+    @Override
+    protected void closeTransport() {
+        // Rien à fermer
+    }
+}
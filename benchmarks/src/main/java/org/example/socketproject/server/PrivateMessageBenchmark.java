@@ -0,0 +1,75 @@
+package org.example.socketproject.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routage d'un message privé : recherche du destinataire dans l'index des
+ * pseudos, encodage et mise en file. Le coût ne doit pas dépendre du nombre
+ * d'inscrits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class PrivateMessageBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int users;
+
+    private PrintStream console;
+    private Path historyDir;
+    private ChatServer server;
+    private String[] names;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        console = BenchSupport.silenceConsole();
+        historyDir = Files.createTempDirectory("bench-history");
+        server = BenchSupport.createServer(historyDir);
+        // Inscription directe dans l'index : le salon et l'historique n'interviennent pas ici
+        names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + i;
+            server.registerUsername(names[i], new InMemoryConnection(server, 1 + i, false));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        BenchSupport.deleteRecursively(historyDir);
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public PrivateDelivery lookupAndSend() {
+        String target = names[next];
+        next = next + 1 == names.length ? 0 : next + 1;
+        return server.sendPrivateMessage("user0", target, "salut");
+    }
+
+    @Benchmark
+    public PrivateDelivery unknownUser() {
+        return server.sendPrivateMessage("user0", "absent", "salut");
+    }
+}
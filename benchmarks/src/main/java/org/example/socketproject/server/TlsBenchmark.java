@@ -0,0 +1,186 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.server.tls.ServerTls;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût de TLS côté serveur, moteurs reliés en mémoire (sans réseau) avec un
+ * certificat EC généré par keytool : débit de poignées de main complètes ou
+ * reprises depuis le cache de sessions (reconnexions en masse), et surcoût
+ * d'un message chiffré puis déchiffré par rapport à la simple copie des
+ * octets en clair.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TlsBenchmark {
+    private static final String PASSWORD = "benchmark";
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // Contextes serveur (celui du chat) et client, partagés par toutes les mesures
+    @State(Scope.Benchmark)
+    public static class Contexts {
+        Path directory;
+        ServerTls server;
+        SSLContext client;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, GeneralSecurityException {
+            directory = Files.createTempDirectory("bench-tls");
+            BenchSupport.createKeyStores(directory, PASSWORD);
+            server = ServerTls.load(directory.resolve("server.p12"), PASSWORD.toCharArray(), 20_000, 3600);
+            KeyStore trust = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(directory.resolve("trust.p12"))) {
+                trust.load(in, PASSWORD.toCharArray());
+            }
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trust);
+            client = SSLContext.getInstance("TLS");
+            client.init(null, trustManagers.getTrustManagers(), null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            server.shutdown();
+            BenchSupport.deleteRecursively(directory);
+        }
+
+        // Sans hôte ni port, le client ne cherche pas de session à reprendre
+        SSLEngine clientEngine(boolean resume) {
+            SSLEngine engine = resume ? client.createSSLEngine("localhost", 55555) : client.createSSLEngine();
+            engine.setUseClientMode(true);
+            return engine;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Handshake {
+        @Param({"full", "resumed"})
+        public String session;
+
+        final ByteBuffer toServer = ByteBuffer.allocate(64 * 1024);
+        final ByteBuffer toClient = ByteBuffer.allocate(64 * 1024);
+        final ByteBuffer application = ByteBuffer.allocate(64 * 1024);
+    }
+
+    @State(Scope.Thread)
+    public static class Message {
+        // Taille d'une trame de chat (ligne courte, message long, message maximal)
+        @Param({"64", "1024", "8192"})
+        public int size;
+
+        @Param({"false", "true"})
+        public boolean tls;
+
+        SSLEngine server;
+        SSLEngine client;
+        ByteBuffer frame;
+        ByteBuffer network;
+        ByteBuffer received;
+
+        @Setup(Level.Trial)
+        public void setUp(Contexts contexts) throws SSLException {
+            byte[] bytes = new byte[size];
+            Arrays.fill(bytes, (byte) 'x');
+            frame = ByteBuffer.wrap(bytes);
+            network = ByteBuffer.allocate(64 * 1024);
+            received = ByteBuffer.allocate(64 * 1024);
+            server = contexts.server.newEngine();
+            client = contexts.clientEngine(false);
+            connect(client, server, ByteBuffer.allocate(64 * 1024), ByteBuffer.allocate(64 * 1024), received);
+        }
+    }
+
+    @Benchmark
+    public boolean handshake(Contexts contexts, Handshake state) throws SSLException {
+        SSLEngine client = contexts.clientEngine(state.session.equals("resumed"));
+        SSLEngine server = contexts.server.newEngine();
+        state.toServer.clear();
+        state.toClient.clear();
+        connect(client, server, state.toServer, state.toClient, state.application);
+        return server.getSession().isValid();
+    }
+
+    // Un message du serveur vers le client : chiffré puis déchiffré, ou copié tel quel
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int message(Message state) throws SSLException {
+        state.frame.clear();
+        state.network.clear();
+        state.received.clear();
+        if (!state.tls) {
+            state.network.put(state.frame).flip();
+            state.received.put(state.network);
+            return state.received.position();
+        }
+        state.server.wrap(state.frame, state.network);
+        state.network.flip();
+        state.client.unwrap(state.network, state.received);
+        return state.received.position();
+    }
+
+    // Poignée de main entre deux moteurs, jusqu'au ticket de session remis au client
+    static void connect(SSLEngine client, SSLEngine server, ByteBuffer toServer, ByteBuffer toClient,
+                        ByteBuffer application) throws SSLException {
+        client.beginHandshake();
+        server.beginHandshake();
+        while (handshaking(client) || handshaking(server) || toServer.position() > 0 || toClient.position() > 0) {
+            step(client, toClient, toServer, application);
+            step(server, toServer, toClient, application);
+        }
+    }
+
+    private static boolean handshaking(SSLEngine engine) {
+        return engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    // Tout ce qu'un moteur peut faire avec ce qu'il a reçu : tâches déléguées, lectures puis envois
+    private static void step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer application) throws SSLException {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+                progress = true;
+            }
+            in.flip();
+            if (in.hasRemaining()) {
+                progress |= engine.unwrap(in, application).bytesConsumed() > 0;
+            }
+            in.compact();
+            progress |= engine.wrap(EMPTY, out).bytesProduced() > 0;
+            application.clear();
+        }
+    }
+}
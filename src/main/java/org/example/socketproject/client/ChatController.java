@@ -6,13 +6,34 @@ import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
-import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
+import javafx.stage.FileChooser;
+import javafx.stage.Window;
 import org.example.socketproject.client.network.ClientSocket;
+import org.example.socketproject.client.network.FileTransferClient;
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ChatController {
+    private static final String DEFAULT_ROOM = "general";
+    // Messages privés envoyés dont on garde le texte pour afficher leurs accusés
+    private static final int TRACKED_PRIVATES = 256;
 
-    @FXML private TextArea chatArea;
+    @FXML private ListView<String> chatList;
+    @FXML private Label pendingLabel;
     @FXML private TextField messageField;
     @FXML private Label statusLabel;
     @FXML private TextField hostField;
@@ -21,10 +42,25 @@ public class ChatController {
     @FXML private ListView<String> usersListView;
 
     private ClientSocket client;
+    // Messages à afficher, ajoutés par lots à chaque impulsion JavaFX
+    private ChatFeed feed;
     private volatile boolean connected = false;
     private String username;
     private ObservableList<String> usersList = FXCollections.observableArrayList();
 
+    // Accusés des messages privés (thread FX) : reçus pas encore vus, envoyés en attente de leur numéro
+    // (numéro local du /msg -> texte ; aucun accusé ne vient pour un destinataire inconnu ou absent),
+    // puis numéro du serveur -> texte envoyé ; les plus anciens sont oubliés au-delà de TRACKED_PRIVATES
+    private final List<Long> unread = new ArrayList<>();
+    private boolean focusTracked = false;
+    private long lastPrivateId = 0;
+    private final Map<Long, String> awaitingSequence = trackedPrivates();
+    private final Map<Long, String> sentPrivates = trackedPrivates();
+
+    // Fichiers proposés au serveur, en attente de leur autorisation d'envoi : "destinataire\nnom" -> chemin
+    private final Map<String, Queue<Path>> pendingUploads = new ConcurrentHashMap<>();
+    private final FileTransferClient files = new FileTransferClient();
+
     @FXML
     public void initialize() {
         statusLabel.setText("● Hors ligne get the ip");
@@ -40,10 +76,19 @@ public class ChatController {
         if (usersListView != null) {
             usersListView.setItems(usersList);
         }
+
+        // Compteur de mises à jour en attente, affiché avec -Dchat.debug=true
+        boolean debug = Boolean.getBoolean("chat.debug");
+        pendingLabel.setVisible(debug);
+        pendingLabel.setManaged(debug);
+        feed = new ChatFeed(chatList, debug ? pendingLabel : null);
+        feed.start();
     }
 
 
     public void shutdown() {
+        feed.stop();
+        files.close();
         if (client != null) {
             try {
                 if (connected) {
@@ -60,7 +105,7 @@ public class ChatController {
     @FXML
     public void connectToServer() {
         if (connected) {
-            chatArea.appendText("🔁 Déjà connecté au serveur\n");
+            feed.post("🔁 Déjà connecté au serveur");
             return;
         }
 
@@ -73,7 +118,7 @@ public class ChatController {
             try {
                 port = Integer.parseInt(portField.getText().trim());
             } catch (NumberFormatException e) {
-                chatArea.appendText("⚠ Port invalide, utilisation de 55555\n");
+                feed.post("⚠ Port invalide, utilisation de 55555");
             }
         }
 
@@ -90,50 +135,95 @@ public class ChatController {
     private void connectAndListen(String host, int port, String username) {
         try {
             client = new ClientSocket();
+            // Connexion chiffrée avec -Dchat.tls=true
+            client.setTls(Boolean.getBoolean("chat.tls"));
+            client.setConnectionListener(new ClientSocket.ConnectionListener() {
+                @Override
+                public void connectionLost(long delayMillis) {
+                    connected = false;
+                    long seconds = (delayMillis + 999) / 1000;
+                    feed.post("⚠ Connexion perdue, reconnexion dans " + seconds + " s…");
+                    Platform.runLater(() -> {
+                        statusLabel.setText("● Reconnexion...");
+                        statusLabel.setStyle("-fx-text-fill: orange;");
+                    });
+                }
+
+                @Override
+                public void reconnected() {
+                    connected = true;
+                    feed.post("✅ Reconnecté au serveur " + host + ":" + port);
+                    Platform.runLater(() -> {
+                        statusLabel.setText("● Connecté (" + host + ":" + port + ")");
+                        statusLabel.setStyle("-fx-text-fill: green;");
+                    });
+                }
+            });
             client.connect(host, port);
-            client.sendMessage(username); // premier message = pseudo
+            client.login(username); // premier message = pseudo
 
             connected = true;
+            feed.post("✅ Connecté au serveur " + host + ":" + port + " en tant que " + username
+                    + (client.isTls() ? " (TLS)" : ""));
             Platform.runLater(() -> {
                 statusLabel.setText("● Connecté (" + host + ":" + port + ")");
                 statusLabel.setStyle("-fx-text-fill: green;");
-                chatArea.appendText("✅ Connecté au serveur " + host + ":" + port + " en tant que " + username + "\n");
             });
 
-            String msg;
-            while ((msg = client.receiveMessage()) != null) {
-                String finalMsg = msg;
-                
-                // Gérer les messages spéciaux du serveur
-                if (finalMsg.startsWith("USERS:")) {
-                    // Mettre à jour la liste des utilisateurs
-                    Platform.runLater(() -> updateUserList(finalMsg.substring(6)));
-                    continue;
-                }
-                
-                if (finalMsg.startsWith("PRIVATE:")) {
-                    // Message privé reçu
-                    String[] parts = finalMsg.substring(8).split(":", 2);
-                    if (parts.length == 2) {
-                        String fromUser = parts[0];
-                        String privateMsg = parts[1];
-                        Platform.runLater(() -> {
-                            chatArea.appendText("🔒 [PRIVÉ de " + fromUser + "] " + privateMsg + "\n");
-                        });
-                        continue;
+            Frame frame;
+            while ((frame = client.receive()) != null) {
+                String text = frame.getText();
+
+                // Gérer les messages spéciaux du serveur selon le type de trame
+                switch (frame.getType()) {
+                    case FrameType.USERS:
+                    case FrameType.JOIN:
+                    case FrameType.LEAVE:
+                        handlePresence(frame.getType(), text);
+                        break;
+                    case FrameType.PRIVATE: {
+                        // Message privé reçu : "expéditeur\nmessage"
+                        int separator = text.indexOf('\n');
+                        if (separator > 0) {
+                            String fromUser = text.substring(0, separator);
+                            String privateMsg = text.substring(separator + 1);
+                            feed.post("🔒 [PRIVÉ de " + fromUser + "] " + privateMsg);
+                            long sequence = frame.getSequence();
+                            Platform.runLater(() -> {
+                                unread.add(sequence);
+                                markReadIfFocused();
+                            });
+                        }
+                        break;
                     }
+                    case FrameType.RECEIPT:
+                        Platform.runLater(() -> handleReceipts(text));
+                        break;
+                    case FrameType.TRANSFER:
+                        handleTransfer(text);
+                        break;
+                    case FrameType.TEXT:
+                        // Message normal
+                        feed.post(text);
+                        break;
+                    default:
+                        // Type inconnu (serveur plus récent) : ignoré
+                        break;
                 }
-                
-                // Message normal
-                Platform.runLater(() -> chatArea.appendText(finalMsg + "\n"));
             }
+            // Connexion fermée par shutdown() ou pseudo refusé : plus de reconnexion
+            connected = false;
+            Platform.runLater(() -> {
+                statusLabel.setText("● Hors ligne");
+                statusLabel.setStyle("-fx-text-fill: red;");
+            });
 
         } catch (Exception e) {
             connected = false;
+            feed.post("❌ Impossible de se connecter au serveur (" + host + ":" + port + ")");
             Platform.runLater(() -> {
                 statusLabel.setText("● Hors ligne");
                 statusLabel.setStyle("-fx-text-fill: red;");
-                chatArea.appendText("❌ Impossible de se connecter au serveur (" + host + ":" + port + ")\n");
             });
         }
     }
@@ -141,59 +231,311 @@ public class ChatController {
     @FXML
     public void sendMessage() {
         if (!connected || client == null) {
-            chatArea.appendText("❌ Non connecté au serveur\n");
+            feed.post("❌ Non connecté au serveur");
             return;
         }
 
         String msg = messageField.getText().trim();
+        if (msg.startsWith("/send ")) {
+            // Fichier : /send destinataire chemin
+            String[] parts = msg.substring(6).trim().split(" ", 2);
+            if (parts.length < 2) {
+                feed.post("❌ Usage : /send <utilisateur> <fichier>");
+            } else {
+                offerFile(parts[0], Paths.get(parts[1].trim()));
+            }
+            messageField.clear();
+            return;
+        }
         if (!msg.isEmpty()) {
             // Afficher le message immédiatement dans le chat avec le format username: message
             String displayMessage = (username != null ? username : "Vous") + ": " + msg;
-            chatArea.appendText(displayMessage + "\n");
+            feed.post(displayMessage);
             
-            // Envoyer le message au serveur
-            client.sendMessage(msg);
+            // Envoyer le message au serveur ; un /msg tapé est numéroté comme ceux du bouton
+            String[] privateParts = msg.startsWith("/msg ") ? msg.substring(5).split(" ", 2) : null;
+            if (privateParts != null && privateParts.length == 2) {
+                sendPrivate(privateParts[0], privateParts[1]);
+            } else {
+                client.sendMessage(msg);
+            }
             messageField.clear();
         }
     }
     
+    @FXML
+    public void sendFile() {
+        if (!connected || client == null) {
+            feed.post("❌ Non connecté au serveur");
+            return;
+        }
+        String selectedUser = usersListView.getSelectionModel().getSelectedItem();
+        if (selectedUser == null || selectedUser.equals(username)) {
+            feed.post("⚠ Veuillez sélectionner un utilisateur différent de vous");
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Fichier à envoyer à " + selectedUser);
+        File file = chooser.showOpenDialog(chatList.getScene().getWindow());
+        if (file != null) {
+            offerFile(selectedUser, file.toPath());
+        }
+    }
+
+    // Annoncer le fichier au serveur, qui répond par une trame TRANSFER "upload" (ou un message d'erreur)
+    private void offerFile(String recipient, Path file) {
+        long size;
+        try {
+            size = Files.isRegularFile(file) ? Files.size(file) : -1;
+        } catch (IOException e) {
+            size = -1;
+        }
+        if (size < 0) {
+            feed.post("❌ Fichier introuvable : " + file);
+            return;
+        }
+        if (size == 0) {
+            feed.post("⚠ Fichier vide : " + file);
+            return;
+        }
+        String name = file.getFileName().toString();
+        pendingUploads.computeIfAbsent(recipient + "\n" + name, key -> new ConcurrentLinkedQueue<>()).add(file);
+        client.sendMessage("/send " + recipient + " " + size + " " + name);
+        feed.post("📎 Envoi de « " + name + " » à " + recipient + "…");
+    }
+
+    // "upload|download\nid\njeton\nport\ntaille\ncorrespondant\nnom" : le fichier passe par le port de données
+    private void handleTransfer(String payload) {
+        String[] parts = payload.split("\n", 7);
+        if (parts.length < 7) {
+            return;
+        }
+        int port;
+        long size;
+        try {
+            port = Integer.parseInt(parts[3]);
+            size = Long.parseLong(parts[4]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String id = parts[1];
+        String token = parts[2];
+        String peer = parts[5];
+        String name = parts[6];
+        if (parts[0].equals("upload")) {
+            Queue<Path> paths = pendingUploads.get(peer + "\n" + name);
+            Path file = paths != null ? paths.poll() : null;
+            if (file == null) {
+                return;
+            }
+            files.upload(client.getHost(), port, id, token, file, size, new FileTransferClient.Callback() {
+                @Override
+                public void done(Path path) {
+                    // Le serveur annonce lui-même la suite (en attente du destinataire, puis reçu)
+                }
+
+                @Override
+                public void failed(String reason) {
+                    feed.post("❌ Envoi de « " + name + " » à " + peer + " échoué : " + reason);
+                }
+            });
+        } else if (parts[0].equals("download")) {
+            Path target;
+            try {
+                target = downloadTarget(name);
+            } catch (IOException e) {
+                feed.post("❌ Impossible d'enregistrer « " + name + " » : " + e.getMessage());
+                return;
+            }
+            feed.post("📥 " + peer + " vous envoie « " + name + " » (" + formatSize(size) + ")…");
+            files.download(client.getHost(), port, id, token, target, size, new FileTransferClient.Callback() {
+                @Override
+                public void done(Path path) {
+                    feed.post("📥 « " + name + " » enregistré dans " + path);
+                }
+
+                @Override
+                public void failed(String reason) {
+                    feed.post("❌ Réception de « " + name + " » de " + peer + " échouée : " + reason);
+                }
+            });
+        }
+    }
+
+    // Dossier de réception : -Dchat.downloads, sinon ~/Downloads ; sans écraser un fichier existant
+    private static synchronized Path downloadTarget(String name) throws IOException {
+        Path directory = Paths.get(System.getProperty("chat.downloads",
+                Paths.get(System.getProperty("user.home"), "Downloads").toString()));
+        Files.createDirectories(directory);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        Path target = directory.resolve(name);
+        for (int i = 1; Files.exists(target) || Files.exists(target.resolveSibling(target.getFileName() + ".part")); i++) {
+            target = directory.resolve(base + " (" + i + ")" + extension);
+        }
+        return target;
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " o";
+        }
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " Ko";
+        }
+        return String.format("%.1f Mo", bytes / (1024.0 * 1024));
+    }
+
+    // Le message privé est lu une fois affiché dans la fenêtre active
+    private void markReadIfFocused() {
+        Window window = chatList.getScene() != null ? chatList.getScene().getWindow() : null;
+        if (window == null || client == null) {
+            return;
+        }
+        if (!focusTracked) {
+            focusTracked = true;
+            window.focusedProperty().addListener((observable, was, focused) -> {
+                if (focused) {
+                    markReadIfFocused();
+                }
+            });
+        }
+        if (window.isFocused()) {
+            for (long sequence : unread) {
+                client.markRead(sequence);
+            }
+            unread.clear();
+        }
+    }
+
+    private static Map<Long, String> trackedPrivates() {
+        return new LinkedHashMap<Long, String>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > TRACKED_PRIVATES;
+            }
+        };
+    }
+
+    // Envoyer un /msg numéroté, pour retrouver son texte dans l'accusé d'envoi
+    private void sendPrivate(String recipient, String text) {
+        long id = ++lastPrivateId;
+        awaitingSequence.put(id, text);
+        client.sendMessage("/msg " + recipient + " " + text, id);
+    }
+
+    // Accusés de nos messages privés : "sent[:numéro local]|delivered|read séquence destinataire" par ligne
+    private void handleReceipts(String payload) {
+        for (String line : payload.split("\n")) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length < 3) {
+                continue;
+            }
+            long sequence;
+            try {
+                sequence = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String recipient = parts[2];
+            if (parts[0].equals("sent") || parts[0].startsWith("sent:")) {
+                // Sans numéro local (message gardé pour un absent, remis plus tard) : accusés sans extrait
+                String text = null;
+                if (parts[0].length() > 5) {
+                    try {
+                        text = awaitingSequence.remove(Long.parseLong(parts[0].substring(5)));
+                    } catch (NumberFormatException e) {
+                        // Numéro illisible : accusés sans extrait
+                    }
+                }
+                sentPrivates.put(sequence, text != null ? text : "");
+            } else if (parts[0].equals("delivered")) {
+                feed.post("✓ Distribué à " + recipient + excerpt(sentPrivates.get(sequence)));
+            } else if (parts[0].equals("read")) {
+                feed.post("👁 Lu par " + recipient + excerpt(sentPrivates.remove(sequence)));
+            }
+        }
+    }
+
+    private static String excerpt(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        return " : « " + (text.length() > 40 ? text.substring(0, 40) + "…" : text) + " »";
+    }
+
+    // Présence : "salon\npseudos" ; la liste affichée est celle du salon par défaut
+    private void handlePresence(byte type, String payload) {
+        int separator = payload.indexOf('\n');
+        if (separator < 0 || !DEFAULT_ROOM.equals(payload.substring(0, separator))) {
+            return;
+        }
+        String users = payload.substring(separator + 1);
+        if (type == FrameType.USERS) {
+            // Liste complète, reçue une seule fois à la connexion
+            Platform.runLater(() -> updateUserList(users));
+        } else if (type == FrameType.JOIN) {
+            // Arrivées depuis la dernière mise à jour
+            Platform.runLater(() -> addUsers(users));
+        } else {
+            // Départs depuis la dernière mise à jour
+            Platform.runLater(() -> removeUsers(users));
+        }
+    }
+
     private void updateUserList(String usersStr) {
-        usersList.clear();
+        usersList.setAll(parseUsers(usersStr));
+    }
+
+    private void addUsers(String usersStr) {
+        for (String user : parseUsers(usersStr)) {
+            if (!usersList.contains(user)) {
+                usersList.add(user);
+            }
+        }
+    }
+
+    private void removeUsers(String usersStr) {
+        usersList.removeAll(parseUsers(usersStr));
+    }
+
+    private List<String> parseUsers(String usersStr) {
+        List<String> users = new ArrayList<>();
         if (usersStr != null && !usersStr.trim().isEmpty()) {
-            String[] users = usersStr.split(",");
-            for (String user : users) {
+            for (String user : usersStr.split(",")) {
                 if (user != null && !user.trim().isEmpty()) {
-                    usersList.add(user.trim());
+                    users.add(user.trim());
                 }
             }
         }
+        return users;
     }
     
     @FXML
     public void sendPrivateMessage() {
         if (!connected || client == null) {
-            chatArea.appendText("❌ Non connecté au serveur\n");
+            feed.post("❌ Non connecté au serveur");
             return;
         }
         
         String selectedUser = usersListView.getSelectionModel().getSelectedItem();
         if (selectedUser == null || selectedUser.equals(username)) {
-            chatArea.appendText("⚠ Veuillez sélectionner un utilisateur différent de vous\n");
+            feed.post("⚠ Veuillez sélectionner un utilisateur différent de vous");
             return;
         }
         
         String msg = messageField.getText().trim();
         if (msg.isEmpty()) {
-            chatArea.appendText("⚠ Veuillez entrer un message\n");
+            feed.post("⚠ Veuillez entrer un message");
             return;
         }
         
         // Envoyer le message privé
-        String privateCommand = "/msg " + selectedUser + " " + msg;
-        client.sendMessage(privateCommand);
+        sendPrivate(selectedUser, msg);
         
         // Afficher dans le chat local
-        chatArea.appendText("🔒 [PRIVÉ à " + selectedUser + "] " + msg + "\n");
+        feed.post("🔒 [PRIVÉ à " + selectedUser + "] " + msg);
         messageField.clear();
     }
 }
@@ -0,0 +1,109 @@
+package org.example.socketproject.client;
+
+import javafx.animation.AnimationTimer;
+import javafx.collections.ObservableList;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fil des messages affichés. Les lignes arrivent de n'importe quel thread et
+ * attendent la prochaine impulsion JavaFX, où elles sont ajoutées d'un seul
+ * bloc à une liste virtualisée (seules les cellules visibles sont dessinées).
+ * Seules les SCROLLBACK dernières lignes sont gardées.
+ */
+class ChatFeed extends AnimationTimer {
+    // Lignes gardées à l'écran, les plus anciennes sont retirées
+    static final int SCROLLBACK = 5000;
+    // Lignes ajoutées au plus par impulsion : une rafale s'étale sur quelques images au lieu d'en bloquer une
+    private static final int MAX_BATCH = 1000;
+
+    private final ListView<String> view;
+    private final ObservableList<String> lines;
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Lignes jamais affichées : elles seraient sorties de l'historique à l'écran dès leur ajout
+    private long skipped = 0;
+    // Compteur de débogage (null si masqué)
+    private final Label pendingLabel;
+    private int shownPending = -1;
+
+    ChatFeed(ListView<String> view, Label pendingLabel) {
+        this.view = view;
+        this.lines = view.getItems();
+        this.pendingLabel = pendingLabel;
+        // Retour à la ligne dans la largeur de la liste, comme l'ancienne zone de texte
+        view.setCellFactory(list -> new ListCell<String>() {
+            {
+                setWrapText(true);
+                prefWidthProperty().bind(list.widthProperty().subtract(20));
+                setMaxWidth(USE_PREF_SIZE);
+            }
+
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+            }
+        });
+    }
+
+    // Mettre une ligne (ou plusieurs, séparées par \n) en attente d'affichage, depuis n'importe quel thread
+    void post(String text) {
+        int count = 0;
+        for (String line : text.split("\n")) {
+            pending.add(line);
+            count++;
+        }
+        pendingCount.addAndGet(count);
+    }
+
+    // Mises à jour de l'affichage en attente
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    // Une fois par impulsion, sur le thread FX
+    @Override
+    public void handle(long now) {
+        if (pendingCount.get() > 0) {
+            flush();
+        }
+        if (pendingLabel != null) {
+            int count = pendingCount.get();
+            if (count != shownPending) {
+                shownPending = count;
+                pendingLabel.setText("⏳ " + count + " en attente, " + skipped + " non affichées");
+            }
+        }
+    }
+
+    private void flush() {
+        // Au-delà de ce que l'écran garde, les plus anciennes seraient retirées aussitôt ajoutées
+        while (pendingCount.get() > SCROLLBACK && pending.poll() != null) {
+            pendingCount.decrementAndGet();
+            skipped++;
+        }
+        List<String> batch = new ArrayList<>(Math.min(pendingCount.get(), MAX_BATCH));
+        String line;
+        while (batch.size() < MAX_BATCH && (line = pending.poll()) != null) {
+            batch.add(line);
+        }
+        pendingCount.addAndGet(-batch.size());
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Un seul changement de liste par impulsion, donc une seule mise en page
+        lines.addAll(batch);
+        int excess = lines.size() - SCROLLBACK;
+        if (excess > 0) {
+            lines.remove(0, excess);
+        }
+        view.scrollTo(lines.size() - 1);
+    }
+}
@@ -1,28 +1,337 @@
-package org.example.socketproject.client.network;
-
-import java.io.*;
-import java.net.Socket;
-
-public class ClientSocket {
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    public void connect(String ip, int port) throws IOException {
-        socket = new Socket(ip, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
-    }
-
-    public void sendMessage(String msg) {
-        out.println(msg);
-    }
-
-    public String receiveMessage() throws IOException {
-        return in.readLine();
-    }
-
-    public void close() throws IOException {
-        socket.close();
-    }
-}
-
+package org.example.socketproject.client.network;
+
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.protocol.SequenceRanges;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Connexion au serveur en protocole binaire : poignée de main puis trames préfixées par leur longueur,
+// compressées au-delà d'une certaine taille si le serveur le permet.
+// Une fois le pseudo accepté, une connexion perdue est rétablie automatiquement (délai croissant,
+// tiré au hasard) et le serveur ne renvoie que les messages manqués depuis le dernier reçu.
+// Les messages numérotés sont acquittés par lots (au plus un envoi par ACK_DELAY_MILLIS, ou joint
+// au prochain message envoyé) pour ne pas doubler le nombre de paquets.
+// En TLS (setTls), le certificat du serveur doit être reconnu par le truststore de la JVM
+// (-Djavax.net.ssl.trustStore=... pour un certificat de test) et correspondre à l'hôte ; les reconnexions
+// reprennent la session TLS précédente au lieu d'en négocier une nouvelle.
+public class ClientSocket {
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    // Numéros de séquence récents retenus pour écarter un message reçu deux fois à la reprise
+    private static final int RECENT_SEQUENCES = 256;
+    // Accusés regroupés : envoyés après ce délai, ou dès ACK_BATCH messages reçus
+    private static final long ACK_DELAY_MILLIS = 200;
+    private static final int ACK_BATCH = 256;
+
+    // Prévenu depuis le thread de réception
+    public interface ConnectionListener {
+        // Connexion perdue, nouvelle tentative dans delayMillis
+        void connectionLost(long delayMillis);
+
+        void reconnected();
+    }
+
+    private String host;
+    private int port;
+    private boolean tls = false;
+    private String username;
+    private volatile Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private boolean compression;
+    private volatile boolean closed = false;
+    private final Object closing = new Object();
+    private ConnectionListener listener;
+
+    // Reprise : époque et jeton remis par le serveur, dernier message reçu
+    private String epoch;
+    private String token;
+    private long lastSequence = 0;
+    private final Set<Long> recent = new HashSet<>();
+    private final ArrayDeque<Long> recentOrder = new ArrayDeque<>();
+    // Délai de reconnexion conseillé par le serveur qui s'arrête (-1 : aucun)
+    private long reconnectHint = -1;
+    private int attempts = 0;
+
+    // Accusés de réception et de lecture pas encore envoyés (protégés par this)
+    private boolean acknowledgements;
+    private final SequenceRanges acks = new SequenceRanges();
+    private final SequenceRanges reads = new SequenceRanges();
+    private ScheduledExecutorService ackTimer;
+
+    public void connect(String ip, int port) throws IOException {
+        this.host = ip;
+        this.port = port;
+        open();
+        ackTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ackTimer.scheduleWithFixedDelay(this::sendAcknowledgements, ACK_DELAY_MILLIS, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Envoyer le pseudo, retenu pour les reconnexions
+    public void login(String username) {
+        this.username = username;
+        sendMessage(username);
+    }
+
+    // Chiffrer la connexion (à choisir avant connect())
+    public void setTls(boolean tls) {
+        this.tls = tls;
+    }
+
+    public boolean isTls() {
+        return tls;
+    }
+
+    // Hôte du serveur, qui sert aussi les fichiers sur son port de données
+    public String getHost() {
+        return host;
+    }
+
+    public void setConnectionListener(ConnectionListener listener) {
+        this.listener = listener;
+    }
+
+    private synchronized void open() throws IOException {
+        Socket opened = tls ? openTls() : new Socket(host, port);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(opened.getInputStream()));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(opened.getOutputStream()));
+
+        output.write(FrameCodec.handshake());
+        output.flush();
+        byte[] answer = new byte[FrameCodec.HANDSHAKE_SIZE];
+        input.readFully(answer);
+        if (!FrameCodec.isHandshake(answer, 0)) {
+            opened.close();
+            throw new IOException("Le serveur ne parle pas le protocole binaire");
+        }
+        socket = opened;
+        in = input;
+        out = output;
+        compression = FrameCodec.version(answer, 0) >= FrameCodec.COMPRESSION_VERSION;
+        acknowledgements = FrameCodec.version(answer, 0) >= FrameCodec.ACK_VERSION;
+        // Les accusés en attente portaient sur l'ancienne connexion
+        acks.drain();
+        reads.drain();
+    }
+
+    // La fabrique par défaut garde les sessions par hôte et port : une reconnexion reprend la précédente
+    private Socket openTls() throws IOException {
+        SSLSocket secure = (SSLSocket) SSLSocketFactory.getDefault().createSocket(host, port);
+        try {
+            SSLParameters parameters = secure.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            secure.setSSLParameters(parameters);
+            secure.startHandshake();
+        } catch (IOException e) {
+            secure.close();
+            throw e;
+        }
+        return secure;
+    }
+
+    public void sendMessage(String msg) {
+        sendMessage(msg, 0);
+    }
+
+    // Ligne numérotée par l'appelant : le serveur rappelle ce numéro dans l'accusé d'envoi d'un /msg
+    public synchronized void sendMessage(String msg, long id) {
+        try {
+            writeAcknowledgements();
+            FrameCodec.write(out, FrameType.TEXT, id, msg, compression);
+            out.flush();
+        } catch (IOException e) {
+            // Connexion perdue : la boucle de réception le verra
+        }
+    }
+
+    // Prochaine trame du serveur, null une fois la connexion fermée par close() (ou refusée avant
+    // l'inscription) ; une coupure après l'inscription est rétablie sans que l'appelant la voie
+    public Frame receive() throws IOException {
+        while (true) {
+            Frame frame;
+            try {
+                frame = FrameCodec.read(in);
+            } catch (IOException e) {
+                if (!closed && token == null) {
+                    throw e;
+                }
+                frame = null;
+            }
+            if (frame == null) {
+                if (closed || token == null || !reconnect()) {
+                    return null;
+                }
+                continue;
+            }
+            frame = FrameCodec.inflate(frame, FrameCodec.MAX_PAYLOAD);
+            if (frame.getType() == FrameType.RESUME) {
+                // Pseudo accepté : jeton de cette session, et le compteur de tentatives repart de zéro
+                String[] parts = frame.getText().split("\n", 2);
+                if (parts.length == 2) {
+                    epoch = parts[0];
+                    token = parts[1];
+                }
+                attempts = 0;
+                continue;
+            }
+            if (frame.getType() == FrameType.RECONNECT) {
+                try {
+                    reconnectHint = Long.parseLong(frame.getText());
+                } catch (NumberFormatException e) {
+                    reconnectHint = -1;
+                }
+                continue;
+            }
+            if (frame.getSequence() > 0) {
+                // Un doublon est acquitté aussi : le serveur le compte en attente sur cette connexion
+                acknowledge(frame.getSequence());
+                if (!track(frame.getSequence())) {
+                    continue;
+                }
+            }
+            return frame;
+        }
+    }
+
+    private synchronized void acknowledge(long sequence) {
+        if (!acknowledgements) {
+            return;
+        }
+        acks.add(sequence);
+        if (acks.size() >= ACK_BATCH) {
+            sendAcknowledgements();
+        }
+    }
+
+    // Message privé affiché à l'utilisateur : accusé de lecture au prochain envoi
+    public synchronized void markRead(long sequence) {
+        if (acknowledgements && sequence > 0) {
+            reads.add(sequence);
+        }
+    }
+
+    private synchronized void sendAcknowledgements() {
+        if (acks.isEmpty() && reads.isEmpty()) {
+            return;
+        }
+        try {
+            writeAcknowledgements();
+            out.flush();
+        } catch (IOException e) {
+            // Connexion perdue : la boucle de réception le verra
+        }
+    }
+
+    // Écrire les lots en attente, réception avant lecture (sans vider le tampon)
+    private void writeAcknowledgements() throws IOException {
+        if (!acks.isEmpty()) {
+            FrameCodec.write(out, FrameType.ACK, acks.drain(), false);
+        }
+        if (!reads.isEmpty()) {
+            FrameCodec.write(out, FrameType.READ, reads.drain(), false);
+        }
+    }
+
+    // Retenir un numéro de séquence reçu, false si c'est un doublon
+    private boolean track(long sequence) {
+        if (!recent.add(sequence)) {
+            return false;
+        }
+        recentOrder.addLast(sequence);
+        if (recentOrder.size() > RECENT_SEQUENCES) {
+            recent.remove(recentOrder.removeFirst());
+        }
+        lastSequence = Math.max(lastSequence, sequence);
+        return true;
+    }
+
+    // Rétablir la connexion jusqu'à y parvenir, false si close() a été appelé entre-temps
+    private boolean reconnect() {
+        closeSocket();
+        long delay = reconnectHint >= 0 ? reconnectHint : backoff(attempts);
+        reconnectHint = -1;
+        while (!closed) {
+            if (listener != null) {
+                listener.connectionLost(delay);
+            }
+            synchronized (closing) {
+                try {
+                    if (!closed) {
+                        closing.wait(Math.max(1, delay));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (closed) {
+                break;
+            }
+            attempts++;
+            try {
+                open();
+                resume();
+                if (listener != null) {
+                    listener.reconnected();
+                }
+                return true;
+            } catch (IOException e) {
+                closeSocket();
+                delay = backoff(attempts);
+            }
+        }
+        return false;
+    }
+
+    // Présenter la session précédente puis le pseudo
+    private synchronized void resume() throws IOException {
+        FrameCodec.write(out, FrameType.RESUME, epoch + "\n" + token + "\n" + lastSequence, false);
+        FrameCodec.write(out, FrameType.TEXT, username, compression);
+        out.flush();
+    }
+
+    // Délai exponentiel plafonné, dont la moitié est tirée au hasard pour que les clients
+    // coupés en même temps ne reviennent pas tous ensemble
+    private static long backoff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private void closeSocket() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        if (ackTimer != null) {
+            ackTimer.shutdownNow();
+        }
+        synchronized (closing) {
+            closing.notifyAll();
+        }
+        closeSocket();
+    }
+}
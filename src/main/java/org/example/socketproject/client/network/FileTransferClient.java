@@ -0,0 +1,117 @@
+package org.example.socketproject.client.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Envoi et réception de fichiers sur le port de données du serveur, chacun sur sa propre connexion
+// et son propre thread : la connexion de chat n'attend jamais un fichier
+public class FileTransferClient {
+    private static final long CHUNK = 1024 * 1024;
+
+    // Prévenu depuis le thread du transfert
+    public interface Callback {
+        void done(Path file);
+
+        void failed(String reason);
+    }
+
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "chat-file");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Envoyer file (de la taille annoncée au serveur) sans le recopier en mémoire
+    public void upload(String host, int port, String id, String token, Path file, long size, Callback callback) {
+        workers.execute(() -> {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                 FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                writeLine(channel, "PUT " + id + " " + token);
+                long position = 0;
+                while (position < size) {
+                    long n = source.transferTo(position, Math.min(CHUNK, size - position), channel);
+                    if (n <= 0) {
+                        throw new IOException("fichier modifié pendant l'envoi");
+                    }
+                    position += n;
+                }
+                expectOk(channel);
+                callback.done(file);
+            } catch (IOException e) {
+                callback.failed(e.getMessage());
+            }
+        });
+    }
+
+    // Recevoir un fichier de size octets dans target (écrit à côté puis renommé une fois complet)
+    public void download(String host, int port, String id, String token, Path target, long size, Callback callback) {
+        workers.execute(() -> {
+            Path part = target.resolveSibling(target.getFileName() + ".part");
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+                writeLine(channel, "GET " + id + " " + token);
+                expectOk(channel);
+                try (FileChannel destination = FileChannel.open(part, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    long position = 0;
+                    while (position < size) {
+                        long n = destination.transferFrom(channel, position, Math.min(CHUNK, size - position));
+                        if (n <= 0) {
+                            throw new IOException("connexion interrompue");
+                        }
+                        position += n;
+                    }
+                }
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+                callback.done(target);
+            } catch (IOException e) {
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException ignored) {
+                    // Fichier partiel laissé sur place
+                }
+                callback.failed(e.getMessage());
+            }
+        });
+    }
+
+    private static void writeLine(SocketChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Réponse du serveur, lue octet par octet pour ne rien prendre du fichier qui suit
+    private static void expectOk(SocketChannel channel) throws IOException {
+        StringBuilder line = new StringBuilder();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (line.length() < 256) {
+            one.clear();
+            if (channel.read(one) < 0) {
+                throw new IOException("connexion fermée par le serveur");
+            }
+            char c = (char) one.get(0);
+            if (c == '\n') {
+                break;
+            }
+            line.append(c);
+        }
+        if (!line.toString().equals("OK")) {
+            throw new IOException(line.toString().startsWith("ERR ") ? line.substring(4) : "réponse inattendue du serveur");
+        }
+    }
+
+    public void close() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,170 @@
+package org.example.socketproject.loadtest;
+
+import org.example.socketproject.server.ChatServer;
+import org.example.socketproject.server.ServerMode;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test de charge "connexions inactives" : démarre un ChatServer dans ce processus
+ * avec le mode demandé, ouvre N clients qui s'inscrivent puis restent connectés,
+ * et mesure l'empreinte (RSS, heap, threads) ainsi que le nombre maximal de
+ * connexions simultanées atteint.
+ *
+ * Pour comparer les modes, lancer une JVM par mode (l'empreinte native des piles
+ * de threads n'apparaît que dans le RSS) :
+ *   ConnectionSoak threads 5000
+ *   ConnectionSoak virtual 5000
+ *   ConnectionSoak nio 5000
+ */
+public class ConnectionSoak {
+
+    public static void main(String[] args) throws Exception {
+        ServerMode mode = args.length > 0 ? ServerMode.parse(args[0]) : ServerMode.THREADS;
+        int target = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 56555;
+
+        ChatServer server = new ChatServer(port, mode);
+        Thread serverThread = new Thread(server::start, "soak-server");
+        serverThread.start();
+        Thread.sleep(500);
+
+        Snapshot before = Snapshot.take();
+
+        // Un seul thread côté clients : les réponses du serveur sont lues et jetées
+        // pour que ses écritures ne se bloquent pas sur des fenêtres TCP pleines
+        Selector selector = Selector.open();
+        List<SocketChannel> channels = new ArrayList<>();
+        Thread drainer = new Thread(() -> drain(selector), "soak-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+
+        Charset charset = Charset.defaultCharset();
+        String failure = null;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < target; i++) {
+            try {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                channel.write(ByteBuffer.wrap(("soak-" + i + "\n").getBytes(charset)));
+                channel.configureBlocking(false);
+                channels.add(channel);
+                selector.wakeup();
+                synchronized (selector) {
+                    channel.register(selector, SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                failure = e.getMessage();
+                break;
+            }
+        }
+        long connectMillis = (System.nanoTime() - startNanos) / 1_000_000;
+
+        // Laisser le serveur finir les inscriptions et diffusions de la liste
+        Thread.sleep(3000);
+        Snapshot after = Snapshot.take();
+
+        System.out.println();
+        System.out.println("=== ConnectionSoak mode=" + mode + " ===");
+        System.out.println("Connexions demandées   : " + target);
+        System.out.println("Connexions ouvertes    : " + channels.size()
+                + (failure != null ? " (arrêt : " + failure + ")" : ""));
+        System.out.println("Temps d'ouverture      : " + connectMillis + " ms");
+        System.out.println("Threads JVM            : " + before.threads + " -> " + after.threads
+                + " (pic " + after.peakThreads + ")");
+        System.out.println("Heap utilisée (Mo)     : " + before.heapMb() + " -> " + after.heapMb());
+        System.out.println("RSS processus (Mo)     : " + before.rssMb() + " -> " + after.rssMb());
+        if (!channels.isEmpty() && after.rssKb > 0) {
+            System.out.println("RSS par connexion (Ko) : " + (after.rssKb - before.rssKb) / channels.size());
+        }
+
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        selector.close();
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void drain(Selector selector) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (selector.isOpen()) {
+            try {
+                selector.select(100);
+                // Laisser passer les enregistrements en attente
+                synchronized (selector) {
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    buffer.clear();
+                    if (((SocketChannel) key.channel()).read(buffer) < 0) {
+                        key.cancel();
+                    }
+                }
+            } catch (Exception e) {
+                return;
+            }
+        }
+    }
+
+    // Mesures de la JVM à un instant donné
+    private static final class Snapshot {
+        long heapBytes;
+        long rssKb;
+        int threads;
+        int peakThreads;
+
+        static Snapshot take() {
+            System.gc();
+            Snapshot s = new Snapshot();
+            Runtime rt = Runtime.getRuntime();
+            s.heapBytes = rt.totalMemory() - rt.freeMemory();
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            s.threads = threadBean.getThreadCount();
+            s.peakThreads = threadBean.getPeakThreadCount();
+            s.rssKb = readRssKb();
+            return s;
+        }
+
+        long heapMb() {
+            return heapBytes / (1024 * 1024);
+        }
+
+        long rssMb() {
+            return rssKb / 1024;
+        }
+
+        // VmRSS de /proc (Linux uniquement, 0 ailleurs)
+        private static long readRssKb() {
+            Path status = Paths.get("/proc/self/status");
+            if (!Files.exists(status)) {
+                return 0;
+            }
+            try {
+                for (String line : Files.readAllLines(status)) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Mesure indisponible
+            }
+            return 0;
+        }
+    }
+}
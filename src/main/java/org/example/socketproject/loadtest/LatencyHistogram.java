@@ -0,0 +1,91 @@
+package org.example.socketproject.loadtest;
+
+/**
+ * Histogramme de durées (en nanosecondes) à précision relative fixe : chaque
+ * puissance de deux est découpée en 64 intervalles, soit environ 1,5 %
+ * d'erreur sur un centile quelle que soit l'échelle. Pas de synchronisation :
+ * un histogramme par thread, fusionnés à la fin.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Décalage maximal 62 - SUB_BITS pour une valeur < 2^63, plus les 64 intervalles de sa puissance de deux
+    private static final int BUCKETS = (62 - SUB_BITS) * SUB_COUNT + 2 * SUB_COUNT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // Valeur sous laquelle se trouve la fraction demandée des mesures (0.99 pour p99)
+    public long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    // Valeurs < 128 : un intervalle par valeur ; au-delà, 64 intervalles par puissance de deux
+    private static int index(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index - shift * SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
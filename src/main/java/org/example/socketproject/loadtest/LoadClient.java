@@ -0,0 +1,218 @@
+package org.example.socketproject.loadtest;
+
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.protocol.SequenceRanges;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Un client simulé, piloté par son LoadWorker : envoie ses messages sans
+ * bloquer et décode les réponses du serveur (lignes ou trames) pour en tirer
+ * l'inscription et les latences.
+ */
+class LoadClient {
+    // Marqueur de l'instant d'envoi (System.nanoTime) dans le texte des messages
+    static final String TIMESTAMP_MARKER = "~t=";
+
+    private static final Charset TEXT_CHARSET = Charset.defaultCharset();
+    // Accusés de réception regroupés comme le fait le client : au plus un lot par délai, ou dès ACK_BATCH messages
+    private static final int ACK_BATCH = 256;
+    private static final long ACK_DELAY_NANOS = 200_000_000L;
+
+    final int index;
+    final String username;
+    private final SocketChannel channel;
+    private final boolean binary;
+    private final long connectStart;
+    private SelectionKey key;
+
+    private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+    private byte[] input = new byte[1024];
+    private int inputLength = 0;
+    private boolean handshakeDone;
+    // Le serveur suit les accusés de réception (version négociée suffisante)
+    private boolean acknowledgements = false;
+    private boolean registered = false;
+    private boolean closed = false;
+    private final SequenceRanges acks = new SequenceRanges();
+    private long lastAck = System.nanoTime();
+
+    LoadClient(int index, String username, SocketChannel channel, boolean binary, long connectStart) {
+        this.index = index;
+        this.username = username;
+        this.channel = channel;
+        this.binary = binary;
+        this.connectStart = connectStart;
+        this.handshakeDone = !binary;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    boolean isRegistered() {
+        return registered;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // Ligne envoyée au serveur, dans le format de la connexion
+    long send(String text) throws IOException {
+        ByteBuffer data = binary
+                ? FrameCodec.encode(FrameType.TEXT, (byte) 0, 0, text.getBytes(StandardCharsets.UTF_8), false)
+                : ByteBuffer.wrap((text + "\n").getBytes(TEXT_CHARSET));
+        long length = data.remaining();
+        pending.addLast(data);
+        flush();
+        return length;
+    }
+
+    // Écrire ce qui peut l'être sans bloquer, le reste attendra OP_WRITE
+    void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            ByteBuffer head = pending.peekFirst();
+            channel.write(head);
+            if (head.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            pending.pollFirst();
+        }
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    // Lire ce qui est disponible ; retourne le nombre d'octets lus, -1 en fin de flux
+    int read(ByteBuffer buffer, LoadWorker worker) throws IOException {
+        buffer.clear();
+        int n = channel.read(buffer);
+        if (n <= 0) {
+            return n;
+        }
+        buffer.flip();
+        if (inputLength + n > input.length) {
+            input = Arrays.copyOf(input, Math.max(inputLength + n, input.length * 2));
+        }
+        buffer.get(input, inputLength, n);
+        inputLength += n;
+
+        int consumed = 0;
+        if (!handshakeDone) {
+            if (inputLength < FrameCodec.HANDSHAKE_SIZE) {
+                return n;
+            }
+            if (!FrameCodec.isHandshake(input, 0)) {
+                throw new IOException("Poignée de main refusée");
+            }
+            handshakeDone = true;
+            acknowledgements = FrameCodec.version(input, 0) >= FrameCodec.ACK_VERSION;
+            consumed = FrameCodec.HANDSHAKE_SIZE;
+        }
+
+        if (binary) {
+            int length;
+            while ((length = FrameCodec.frameLength(input, consumed, inputLength - consumed)) > 0) {
+                Frame frame = FrameCodec.inflate(FrameCodec.decode(input, consumed), FrameCodec.MAX_PAYLOAD);
+                consumed += length;
+                if (acknowledgements && frame.getSequence() > 0) {
+                    acks.add(frame.getSequence());
+                }
+                onMessage(frame.getType(), frame.getText(), worker);
+            }
+            acknowledge();
+        } else {
+            for (int i = consumed; i < inputLength; i++) {
+                if (input[i] == '\n') {
+                    onMessage(FrameType.TEXT, new String(input, consumed, i - consumed, TEXT_CHARSET), worker);
+                    consumed = i + 1;
+                }
+            }
+        }
+        System.arraycopy(input, consumed, input, 0, inputLength - consumed);
+        inputLength -= consumed;
+        return n;
+    }
+
+    private void acknowledge() throws IOException {
+        long now = System.nanoTime();
+        if (acks.isEmpty() || (acks.size() < ACK_BATCH && now - lastAck < ACK_DELAY_NANOS)) {
+            return;
+        }
+        lastAck = now;
+        pending.addLast(FrameCodec.encode(FrameType.ACK, (byte) 0, 0, acks.drain().getBytes(StandardCharsets.UTF_8), false));
+        flush();
+    }
+
+    // Les lignes texte portent leur type en préfixe, les trames dans leur en-tête
+    private void onMessage(byte type, String text, LoadWorker worker) {
+        if (type == FrameType.TEXT) {
+            if (text.startsWith("USERS:")) {
+                type = FrameType.USERS;
+            } else if (text.startsWith("PRIVATE:")) {
+                type = FrameType.PRIVATE;
+            }
+        }
+
+        if (!registered) {
+            if (type == FrameType.USERS) {
+                // L'instantané de présence arrive une fois l'inscription terminée
+                registered = true;
+                worker.onRegistered(this, System.nanoTime() - connectStart);
+            } else if (text.startsWith("❌")) {
+                worker.onRefused(this);
+            }
+            return;
+        }
+
+        int marker = text.lastIndexOf(TIMESTAMP_MARKER);
+        if (marker >= 0) {
+            long sentAt = parseLong(text, marker + TIMESTAMP_MARKER.length());
+            worker.onDelivered(type == FrameType.PRIVATE, sentAt);
+        } else if (text.startsWith("❌")) {
+            worker.onServerError();
+        }
+    }
+
+    // System.nanoTime() peut être négatif
+    private static long parseLong(String text, int from) {
+        boolean negative = from < text.length() && text.charAt(from) == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    void close() {
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+}
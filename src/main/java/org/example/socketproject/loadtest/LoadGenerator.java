@@ -0,0 +1,230 @@
+package org.example.socketproject.loadtest;
+
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.server.ChatServer;
+import org.example.socketproject.server.ServerConfig;
+import org.example.socketproject.server.ServerMode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Générateur de charge sans interface : ouvre N connexions avec des pseudos
+ * uniques, envoie des messages publics et des /msg au débit demandé pendant
+ * la durée voulue, puis affiche les latences de bout en bout (p50/p99/p999),
+ * les débits, le temps de connexion et les erreurs.
+ *
+ * Chaque message porte son instant d'envoi ; la latence est mesurée à chaque
+ * remise à un client simulé (une diffusion compte autant de fois qu'elle a de
+ * destinataires). Exemples, serveur déjà lancé ou démarré dans ce processus :
+ *   LoadGenerator --clients=1000 --rate=200 --duration=30
+ *   LoadGenerator --embedded=nio --clients=2000 --rate=500 --private=0.5 --protocol=text
+ * Avec plusieurs ports (nœuds d'un cluster), les clients sont répartis en tourniquet :
+ *   LoadGenerator --port=55555,55556,55557 --clients=900
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        // Usage : LoadGenerator [--host=adresse] [--port=port[,port...]] [--clients=n] [--rate=messages/s] [--duration=s]
+        // [--private=proportion] [--size=octets] [--protocol=binary|text] [--threads=n]
+        // [--embedded=threads|virtual|nio]
+        String host = "127.0.0.1";
+        int[] ports = {55555};
+        int clients = 100;
+        double rate = 100;
+        int duration = 10;
+        double privateRatio = 0.2;
+        int size = 32;
+        boolean binary = true;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        ServerMode embedded = null;
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            try {
+                if (arg.startsWith("--host=")) {
+                    host = value;
+                } else if (arg.startsWith("--port=")) {
+                    String[] list = value.split(",");
+                    ports = new int[list.length];
+                    for (int i = 0; i < list.length; i++) {
+                        ports[i] = Integer.parseInt(list[i].trim());
+                    }
+                } else if (arg.startsWith("--clients=")) {
+                    clients = Integer.parseInt(value);
+                } else if (arg.startsWith("--rate=")) {
+                    rate = Double.parseDouble(value);
+                } else if (arg.startsWith("--duration=")) {
+                    duration = Integer.parseInt(value);
+                } else if (arg.startsWith("--private=")) {
+                    privateRatio = Double.parseDouble(value);
+                } else if (arg.startsWith("--size=")) {
+                    size = Integer.parseInt(value);
+                } else if (arg.startsWith("--protocol=")) {
+                    if (!value.equalsIgnoreCase("binary") && !value.equalsIgnoreCase("text")) {
+                        throw new IllegalArgumentException(value);
+                    }
+                    binary = value.equalsIgnoreCase("binary");
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--embedded=")) {
+                    embedded = ServerMode.parse(value);
+                } else {
+                    System.err.println("Option inconnue : " + arg);
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Valeur invalide pour " + arg);
+                return;
+            }
+        }
+
+        ChatServer server = null;
+        if (embedded != null) {
+            server = new ChatServer(new ServerConfig().setPort(ports[0]).setMode(embedded));
+            Thread serverThread = new Thread(server::start, "load-server");
+            serverThread.start();
+            Thread.sleep(500);
+        }
+
+        AtomicInteger registered = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        LoadWorker[] workers = new LoadWorker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new LoadWorker(i, registered, failed);
+            workers[i].start();
+        }
+
+        // Connexions : pseudos uniques pour ce lancement (un serveur externe peut avoir gardé les précédents)
+        String prefix = "load" + Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36 * 36), 36) + "_";
+        String[] usernames = new String[clients];
+        int opened = 0;
+        int connectErrors = 0;
+        String lastConnectError = null;
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            usernames[i] = prefix + i;
+            long start = System.nanoTime();
+            try {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, ports[i % ports.length]));
+                channel.write(loginData(usernames[i], binary));
+                channel.configureBlocking(false);
+                workers[i % threads].add(new LoadClient(i, usernames[i], channel, binary, start));
+                opened++;
+            } catch (IOException e) {
+                connectErrors++;
+                lastConnectError = e.getMessage();
+            }
+        }
+
+        // Attendre la fin des inscriptions (instantané USERS reçu ou refus)
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (registered.get() + failed.get() < opened && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+        int registeredCount = registered.get();
+
+        // Trafic mesuré
+        long trafficStart = System.nanoTime();
+        for (LoadWorker worker : workers) {
+            worker.startTraffic(usernames, rate / threads, privateRatio, size, trafficStart);
+        }
+        Thread.sleep(duration * 1000L);
+        for (LoadWorker worker : workers) {
+            worker.stopSending();
+        }
+        long sendNanos = System.nanoTime() - trafficStart;
+        // Laisser arriver les messages encore en route
+        Thread.sleep(2000);
+        for (LoadWorker worker : workers) {
+            worker.stopMeasuring();
+            worker.shutdown();
+        }
+        for (LoadWorker worker : workers) {
+            worker.join();
+        }
+        if (server != null) {
+            server.stop();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram connectTime = new LatencyHistogram();
+        long publicSent = 0, privateSent = 0, publicDelivered = 0, privateDelivered = 0;
+        long bytesSent = 0, bytesReceived = 0, refused = 0, ioErrors = 0, serverErrors = 0;
+        for (LoadWorker worker : workers) {
+            latency.merge(worker.latency);
+            connectTime.merge(worker.connectTime);
+            publicSent += worker.publicSent;
+            privateSent += worker.privateSent;
+            publicDelivered += worker.publicDelivered;
+            privateDelivered += worker.privateDelivered;
+            bytesSent += worker.bytesSent;
+            bytesReceived += worker.bytesReceived;
+            refused += worker.refused;
+            ioErrors += worker.ioErrors;
+            serverErrors += worker.serverErrors;
+        }
+        double seconds = sendNanos / 1e9;
+        // Tous les clients sont dans le salon par défaut : un message public est remis à tous sauf l'expéditeur
+        long expected = publicSent * Math.max(0, registeredCount - 1) + privateSent;
+        long delivered = publicDelivered + privateDelivered;
+
+        System.out.println();
+        System.out.println("=== LoadGenerator " + host + ":" + portList(ports) + " protocole=" + (binary ? "binary" : "text")
+                + (embedded != null ? " serveur intégré=" + embedded : "") + " ===");
+        System.out.println("Clients demandés       : " + clients);
+        System.out.println("Connexions ouvertes    : " + opened
+                + (connectErrors > 0 ? " (" + connectErrors + " échecs, dernier : " + lastConnectError + ")" : ""));
+        System.out.println("Clients inscrits       : " + registeredCount + " (refusés : " + refused + ")");
+        System.out.println("Temps de connexion     : " + connectMillis + " ms au total, par client p50 "
+                + millis(connectTime.percentile(0.50)) + " / p99 " + millis(connectTime.percentile(0.99))
+                + " / max " + millis(connectTime.getMax()) + " ms");
+        System.out.println(String.format(Locale.ROOT, "Trafic                 : %.1f s à %.0f messages/s demandés (%.0f%% privés, %d octets)",
+                seconds, rate, privateRatio * 100, size));
+        System.out.println(String.format(Locale.ROOT, "Messages envoyés       : %d publics + %d privés (%.1f messages/s, %.1f Ko/s)",
+                publicSent, privateSent, (publicSent + privateSent) / seconds, bytesSent / 1024.0 / seconds));
+        System.out.println(String.format(Locale.ROOT, "Remises reçues         : %d sur %d attendues (%d privées) (%.1f remises/s, %.1f Ko/s)",
+                delivered, expected, privateDelivered, delivered / seconds, bytesReceived / 1024.0 / seconds));
+        System.out.println("Latence (ms)           : p50 " + millis(latency.percentile(0.50))
+                + " / p99 " + millis(latency.percentile(0.99))
+                + " / p999 " + millis(latency.percentile(0.999))
+                + " / max " + millis(latency.getMax())
+                + " (moyenne " + millis((long) latency.getMean()) + ")");
+        System.out.println("Erreurs                : connexion " + connectErrors + ", refus " + refused
+                + ", entrées-sorties " + ioErrors + ", réponses d'erreur du serveur " + serverErrors);
+        System.exit(0);
+    }
+
+    // Pseudo (et poignée de main en binaire), envoyés dès l'ouverture de la connexion
+    private static ByteBuffer loginData(String username, boolean binary) {
+        if (!binary) {
+            return ByteBuffer.wrap((username + "\n").getBytes(Charset.defaultCharset()));
+        }
+        byte[] handshake = FrameCodec.handshake();
+        ByteBuffer frame = FrameCodec.encode(FrameType.TEXT, (byte) 0, 0, username.getBytes(StandardCharsets.UTF_8), false);
+        ByteBuffer data = ByteBuffer.allocate(handshake.length + frame.remaining());
+        data.put(handshake).put(frame).flip();
+        return data;
+    }
+
+    private static String portList(int[] ports) {
+        StringBuilder list = new StringBuilder();
+        for (int port : ports) {
+            list.append(list.length() > 0 ? "," : "").append(port);
+        }
+        return list.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
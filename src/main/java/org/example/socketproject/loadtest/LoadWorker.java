@@ -0,0 +1,230 @@
+package org.example.socketproject.loadtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread d'entrées-sorties du générateur de charge : un Selector pour sa part
+ * des clients simulés, l'envoi au débit demandé et les mesures de cette part.
+ * Les compteurs ne sont lus par le thread principal qu'après join().
+ */
+class LoadWorker extends Thread {
+    private final Selector selector;
+    private final Queue<LoadClient> registrations = new ConcurrentLinkedQueue<>();
+    private final List<LoadClient> ready = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private final AtomicInteger registeredTotal;
+    private final AtomicInteger failedTotal;
+    private final Random random;
+
+    // Trafic : fixés par le thread principal avant le début des envois
+    private volatile String[] usernames;
+    private volatile double ratePerSecond;
+    private volatile double privateRatio;
+    private volatile String padding = "";
+    private volatile long trafficStart;
+    private volatile boolean sending = false;
+    private volatile boolean measuring = false;
+    private volatile boolean running = true;
+    private long sent = 0;
+    private int nextSender = 0;
+
+    // Mesures de ce thread
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram connectTime = new LatencyHistogram();
+    long publicSent;
+    long privateSent;
+    long publicDelivered;
+    long privateDelivered;
+    long bytesSent;
+    long bytesReceived;
+    long refused;
+    long ioErrors;
+    long serverErrors;
+
+    LoadWorker(int index, AtomicInteger registeredTotal, AtomicInteger failedTotal) throws IOException {
+        super("load-worker-" + index);
+        setDaemon(true);
+        this.selector = Selector.open();
+        this.registeredTotal = registeredTotal;
+        this.failedTotal = failedTotal;
+        this.random = new Random(index);
+    }
+
+    // Confier une connexion ouverte (non bloquante) à ce thread
+    void add(LoadClient client) {
+        registrations.add(client);
+        selector.wakeup();
+    }
+
+    void startTraffic(String[] usernames, double ratePerSecond, double privateRatio, int messageSize, long start) {
+        this.usernames = usernames;
+        this.ratePerSecond = ratePerSecond;
+        this.privateRatio = privateRatio;
+        StringBuilder pad = new StringBuilder();
+        while (pad.length() < messageSize) {
+            pad.append('x');
+        }
+        this.padding = pad.toString();
+        this.trafficStart = start;
+        this.measuring = true;
+        this.sending = true;
+    }
+
+    void stopSending() {
+        sending = false;
+    }
+
+    void stopMeasuring() {
+        measuring = false;
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // Réveil au moins toutes les millisecondes pour tenir le débit d'envoi
+                selector.select(1);
+                LoadClient client;
+                while ((client = registrations.poll()) != null) {
+                    client.attach(client.getChannel().register(selector, SelectionKey.OP_READ, client));
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                if (sending) {
+                    sendDue();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur du thread " + getName() + " : " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((LoadClient) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignoré
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        LoadClient client = (LoadClient) key.attachment();
+        try {
+            if (key.isValid() && key.isWritable()) {
+                client.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                int n = client.read(readBuffer, this);
+                if (n < 0) {
+                    lost(client);
+                } else {
+                    bytesReceived += n;
+                }
+            }
+        } catch (IOException e) {
+            lost(client);
+        }
+    }
+
+    // Connexion fermée par le serveur ou cassée
+    private void lost(LoadClient client) {
+        if (client.isClosed()) {
+            return;
+        }
+        if (!client.isRegistered()) {
+            // Fermée avant la fin de l'inscription : pseudo refusé
+            onRefused(client);
+            return;
+        }
+        if (running) {
+            ioErrors++;
+        }
+        ready.remove(client);
+        client.close();
+    }
+
+    // Envoyer les messages dus depuis le début du trafic, répartis en tourniquet sur les clients inscrits
+    private void sendDue() {
+        if (ready.isEmpty()) {
+            return;
+        }
+        long due = (long) ((System.nanoTime() - trafficStart) * ratePerSecond / 1_000_000_000L);
+        String[] names = usernames;
+        while (sent < due) {
+            sent++;
+            LoadClient client = ready.get(nextSender);
+            nextSender = (nextSender + 1) % ready.size();
+            String text = LoadClient.TIMESTAMP_MARKER + System.nanoTime() + " " + padding;
+            try {
+                if (names.length > 1 && random.nextDouble() < privateRatio) {
+                    // Un autre client que l'expéditeur, au hasard
+                    int target = random.nextInt(names.length - 1);
+                    if (target >= client.index) {
+                        target++;
+                    }
+                    bytesSent += client.send("/msg " + names[target] + " " + text);
+                    privateSent++;
+                } else {
+                    bytesSent += client.send(text);
+                    publicSent++;
+                }
+            } catch (IOException e) {
+                lost(client);
+                if (ready.isEmpty()) {
+                    return;
+                }
+                nextSender = nextSender % ready.size();
+            }
+        }
+    }
+
+    void onRegistered(LoadClient client, long connectNanos) {
+        connectTime.record(connectNanos);
+        ready.add(client);
+        registeredTotal.incrementAndGet();
+    }
+
+    void onRefused(LoadClient client) {
+        refused++;
+        failedTotal.incrementAndGet();
+        client.close();
+    }
+
+    void onDelivered(boolean privateMessage, long sentAt) {
+        if (!measuring || sentAt < trafficStart) {
+            return;
+        }
+        latency.record(System.nanoTime() - sentAt);
+        if (privateMessage) {
+            privateDelivered++;
+        } else {
+            publicDelivered++;
+        }
+    }
+
+    void onServerError() {
+        if (measuring) {
+            serverErrors++;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.socketproject.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+// Trame décodée : type, drapeaux, séquence et charge utile
+public final class Frame {
+    private final byte type;
+    private final byte flags;
+    private final long sequence;
+    private final byte[] payload;
+
+    public Frame(byte type, byte flags, long sequence, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.sequence = sequence;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Charge utile encore compressée (voir FrameCodec.inflate)
+    public boolean isCompressed() {
+        return (flags & FrameCodec.FLAG_DEFLATE) != 0;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getText() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,233 @@
+package org.example.socketproject.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Protocole binaire versionné. Le client ouvre la connexion par la poignée de
+ * main MAGIC + version (le 0x00 initial ne peut pas commencer un pseudo, ce qui
+ * permet au serveur de reconnaître les clients texte) et le serveur répond de
+ * même avec la version retenue. Ensuite chaque trame est :
+ * longueur charge utile (int) | type (byte) | drapeaux (byte) | séquence (long) | charge utile.
+ *
+ * Depuis la version 2, une charge utile peut être compressée (deflate brut,
+ * drapeau FLAG_DEFLATE) ; chaque côté n'en envoie que si l'autre a annoncé
+ * au moins cette version.
+ *
+ * Depuis la version 3, le client acquitte par lots les messages numérotés
+ * (trames ACK et READ) et reçoit les accusés de ses messages privés (RECEIPT).
+ * Depuis la version 4, il échange des fichiers sur le port de données du
+ * serveur (trames TRANSFER).
+ */
+public final class FrameCodec {
+    public static final byte VERSION = 4;
+    // Première version qui sait lire les trames compressées
+    public static final byte COMPRESSION_VERSION = 2;
+    // Première version qui acquitte les messages reçus
+    public static final byte ACK_VERSION = 3;
+    // Première version qui sait envoyer et recevoir des fichiers (trames TRANSFER)
+    public static final byte TRANSFER_VERSION = 4;
+    public static final int HANDSHAKE_SIZE = 5;
+    public static final int HEADER_SIZE = 4 + 1 + 1 + 8;
+    public static final int MAX_PAYLOAD = 1024 * 1024;
+    // Drapeaux d'une trame
+    public static final byte FLAG_DEFLATE = 0x01;
+    // En dessous, la compression coûte plus qu'elle ne rapporte
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    private static final byte[] MAGIC = {0, 'C', 'H', 'T'};
+
+    // Compresseurs réutilisés par thread (un Deflater alloue de la mémoire native à sa création)
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private FrameCodec() {
+    }
+
+    public static byte[] handshake() {
+        return handshake(VERSION);
+    }
+
+    // Réponse du serveur : la version retenue, la plus petite des deux
+    public static byte[] handshake(byte version) {
+        return new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], MAGIC[3], version};
+    }
+
+    // Version annoncée par une poignée de main valide (isHandshake() doit avoir été vérifié)
+    public static byte version(byte[] bytes, int offset) {
+        return bytes[offset + 4];
+    }
+
+    // Vérifie une poignée de main reçue (version comprise entre 1 et la nôtre)
+    public static boolean isHandshake(byte[] bytes, int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[offset + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return bytes[offset + 4] >= 1;
+    }
+
+    public static ByteBuffer encode(byte type, byte flags, long sequence, byte[] payload, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(HEADER_SIZE + payload.length)
+                : ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).put(type).put(flags).putLong(sequence).put(payload).flip();
+        return buffer;
+    }
+
+    public static void write(OutputStream out, byte type, String text) throws IOException {
+        write(out, type, text, false);
+    }
+
+    // Idem, compressée si l'autre côté le permet et que la charge utile dépasse le seuil par défaut
+    public static void write(OutputStream out, byte type, String text, boolean compress) throws IOException {
+        write(out, type, 0, text, compress);
+    }
+
+    // Idem, avec un numéro de séquence
+    public static void write(OutputStream out, byte type, long sequence, String text, boolean compress) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = compress && payload.length >= DEFAULT_COMPRESSION_THRESHOLD ? deflate(payload) : null;
+        ByteBuffer frame = compressed != null ? encode(type, FLAG_DEFLATE, sequence, compressed, false)
+                : encode(type, (byte) 0, sequence, payload, false);
+        out.write(frame.array(), 0, frame.limit());
+    }
+
+    // Charge utile compressée, ou null si elle n'est pas plus petite que l'originale
+    public static byte[] deflate(byte[] payload) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] output = new byte[payload.length];
+        int length = 0;
+        while (!deflater.finished() && length < output.length) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return deflater.finished() && length < payload.length ? Arrays.copyOf(output, length) : null;
+    }
+
+    // Trame avec sa charge utile décompressée (la même trame si elle ne l'était pas) ;
+    // OversizedMessageException si le texte décompressé dépasse maxPayload
+    public static Frame inflate(Frame frame, int maxPayload) throws IOException {
+        if (!frame.isCompressed()) {
+            return frame;
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(frame.getPayload());
+        byte[] output = new byte[Math.min(Math.max(frame.getPayload().length * 4, 256), maxPayload + 1)];
+        int length = 0;
+        long total = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    if (length > maxPayload) {
+                        // Trop long : on continue à décompresser sans garder le texte, pour connaître sa taille
+                        length = 0;
+                    } else {
+                        output = Arrays.copyOf(output, Math.min(output.length * 2, maxPayload + 1));
+                    }
+                }
+                int n = inflater.inflate(output, length, output.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Trame compressée tronquée");
+                }
+                length += n;
+                total += n;
+                if (total > MAX_PAYLOAD) {
+                    throw new IOException("Trame invalide (plus de " + MAX_PAYLOAD + " octets une fois décompressée)");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Trame compressée invalide : " + e.getMessage());
+        }
+        if (total > maxPayload) {
+            throw new OversizedMessageException(total, maxPayload);
+        }
+        return new Frame(frame.getType(), (byte) (frame.getFlags() & ~FLAG_DEFLATE), frame.getSequence(),
+                Arrays.copyOf(output, length));
+    }
+
+    // Lire une trame complète, null si le flux se termine proprement entre deux trames
+    public static Frame read(DataInputStream in) throws IOException {
+        return read(in, MAX_PAYLOAD);
+    }
+
+    // Idem avec une limite plus basse : une trame plus grande est sautée sans être chargée en mémoire
+    public static Frame read(DataInputStream in, int maxPayload) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        if (length > maxPayload) {
+            skipFully(in, HEADER_SIZE - 4 + length);
+            throw new OversizedMessageException(length, maxPayload);
+        }
+        byte type = in.readByte();
+        byte flags = in.readByte();
+        long sequence = in.readLong();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, flags, sequence, payload);
+    }
+
+    // Taille totale de la trame qui commence à offset, ou -1 si elle n'est pas encore complète
+    public static int frameLength(byte[] bytes, int offset, int available) throws IOException {
+        if (available < HEADER_SIZE) {
+            return -1;
+        }
+        int length = ByteBuffer.wrap(bytes, offset, 4).getInt();
+        checkLength(length);
+        return available >= HEADER_SIZE + length ? HEADER_SIZE + length : -1;
+    }
+
+    // Longueur de charge utile annoncée par la trame qui commence à offset, ou -1 si l'en-tête n'est pas arrivé
+    public static int payloadLength(byte[] bytes, int offset, int available) throws IOException {
+        if (available < 4) {
+            return -1;
+        }
+        int length = ByteBuffer.wrap(bytes, offset, 4).getInt();
+        checkLength(length);
+        return length;
+    }
+
+    // Décoder une trame complète (frameLength() doit avoir été vérifié)
+    public static Frame decode(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+        int length = buffer.getInt();
+        byte type = buffer.get();
+        byte flags = buffer.get();
+        long sequence = buffer.getLong();
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        return new Frame(type, flags, sequence, payload);
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Trame invalide (" + length + " octets)");
+        }
+    }
+}
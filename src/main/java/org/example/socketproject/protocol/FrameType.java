@@ -0,0 +1,31 @@
+package org.example.socketproject.protocol;
+
+// Types de trames du protocole binaire
+public final class FrameType {
+    // Ligne de chat ou commande (/msg, /join...) ; le premier TEXT du client est son pseudo
+    public static final byte TEXT = 1;
+    // Présence d'un salon, charge utile "salon\npseudo1,pseudo2"
+    public static final byte USERS = 2;
+    public static final byte JOIN = 3;
+    public static final byte LEAVE = 4;
+    // Message privé reçu, charge utile "expediteur\nmessage"
+    public static final byte PRIVATE = 5;
+    // Le serveur s'arrête : se reconnecter dans le délai indiqué, charge utile "millisecondes"
+    public static final byte RECONNECT = 6;
+    // Reprise de session. Serveur -> client après l'inscription : "epoque\njeton" ;
+    // client -> serveur avant son pseudo, en se reconnectant : "epoque\njeton\ndernière séquence reçue"
+    public static final byte RESUME = 7;
+    // Client -> serveur, par lots : messages numérotés bien reçus (ACK) ou messages privés lus (READ),
+    // charge utile de SequenceRanges
+    public static final byte ACK = 8;
+    public static final byte READ = 9;
+    // Serveur -> expéditeur d'un message privé, une ligne par évènement :
+    // "sent|delivered|read séquence destinataire" ; "sent:n" si le client a numéroté n la trame TEXT de son /msg
+    public static final byte RECEIPT = 10;
+    // Serveur -> client, transfert de fichier à faire sur le port de données :
+    // "upload|download\nid\njeton\nport\ntaille\nautre utilisateur\nnom du fichier"
+    public static final byte TRANSFER = 11;
+
+    private FrameType() {
+    }
+}
@@ -0,0 +1,22 @@
+package org.example.socketproject.protocol;
+
+import java.io.IOException;
+
+/**
+ * Ligne ou trame plus longue que la limite autorisée. Elle a été lue jusqu'au
+ * bout sans être conservée : le flux est positionné sur le message suivant.
+ */
+public class OversizedMessageException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long length;
+
+    public OversizedMessageException(long length, int limit) {
+        super("Message trop long (" + length + " octets, maximum " + limit + ")");
+        this.length = length;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
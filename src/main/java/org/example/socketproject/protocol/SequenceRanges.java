@@ -0,0 +1,84 @@
+package org.example.socketproject.protocol;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Lot de numéros de séquence pour les trames ACK et READ : une ligne
+ * "début bits" par tranche de 64 séquences, où le bit i (en hexadécimal)
+ * désigne la séquence début + i. Les séquences reçues d'un même salon sont
+ * à peu près croissantes et voisines, une ligne en couvre souvent plusieurs.
+ */
+public final class SequenceRanges {
+    private final StringBuilder lines = new StringBuilder();
+    private long start = -1;
+    private long bits = 0;
+    private int count = 0;
+
+    public void add(long sequence) {
+        if (start >= 0 && sequence >= start && sequence < start + 64) {
+            bits |= 1L << (sequence - start);
+        } else {
+            closeLine();
+            start = sequence;
+            bits = 1;
+        }
+        count++;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Séquences ajoutées depuis la dernière remise à zéro (doublons compris)
+    public int size() {
+        return count;
+    }
+
+    // Charge utile de la trame, puis remise à zéro du lot
+    public String drain() {
+        closeLine();
+        String payload = lines.toString();
+        lines.setLength(0);
+        start = -1;
+        count = 0;
+        return payload;
+    }
+
+    private void closeLine() {
+        if (start < 0) {
+            return;
+        }
+        if (lines.length() > 0) {
+            lines.append('\n');
+        }
+        lines.append(start).append(' ').append(Long.toHexString(bits));
+        start = -1;
+        bits = 0;
+    }
+
+    // Séquences d'une charge utile ; les lignes mal formées sont ignorées
+    public static void decode(String payload, LongConsumer consumer) {
+        for (String line : payload.split("\n")) {
+            int separator = line.indexOf(' ');
+            if (separator <= 0) {
+                continue;
+            }
+            long start;
+            long bits;
+            try {
+                start = Long.parseLong(line.substring(0, separator));
+                bits = Long.parseUnsignedLong(line.substring(separator + 1), 16);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (start <= 0) {
+                continue;
+            }
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                consumer.accept(start + bit);
+                bits &= bits - 1;
+            }
+        }
+    }
+}
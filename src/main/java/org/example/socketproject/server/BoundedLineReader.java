@@ -0,0 +1,82 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.OversizedMessageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Lecture de lignes à longueur bornée pour les clients texte bloquants : au
+ * contraire de BufferedReader.readLine(), une ligne trop longue n'est jamais
+ * gardée en entier, ses octets sont jetés au fil de la lecture.
+ */
+class BoundedLineReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final Charset charset;
+    private final int maxLength;
+    // Octets lus d'un bloc, de position à limit pas encore consommés (suite de la ligne suivante)
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private byte[] line = new byte[256];
+    private int lastLength;
+
+    BoundedLineReader(InputStream in, Charset charset, int maxLength) {
+        this.in = in;
+        this.charset = charset;
+        this.maxLength = maxLength;
+    }
+
+    // Prochaine ligne sans son '\n' (ni '\r'), null en fin de flux
+    String readLine() throws IOException {
+        int length = 0;
+        long dropped = 0;
+        boolean endOfLine = false;
+        while (!endOfLine) {
+            if (position == limit) {
+                int n = in.read(buffer, 0, buffer.length);
+                if (n < 0) {
+                    break;
+                }
+                position = 0;
+                limit = n;
+            }
+            int end = position;
+            while (end < limit && buffer[end] != '\n') {
+                end++;
+            }
+            int chunk = end - position;
+            int kept = Math.min(chunk, maxLength - length);
+            if (kept > 0) {
+                if (length + kept > line.length) {
+                    line = Arrays.copyOf(line, Math.min(Math.max(line.length * 2, length + kept), maxLength));
+                }
+                System.arraycopy(buffer, position, line, length, kept);
+                length += kept;
+            }
+            dropped += chunk - kept;
+            endOfLine = end < limit;
+            position = endOfLine ? end + 1 : end;
+        }
+        if (!endOfLine && length == 0 && dropped == 0) {
+            return null;
+        }
+        if (dropped > 0) {
+            throw new OversizedMessageException(length + dropped, maxLength);
+        }
+        lastLength = length;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, charset);
+    }
+
+    // Taille en octets de la dernière ligne renvoyée
+    int getLastLength() {
+        return lastLength;
+    }
+}
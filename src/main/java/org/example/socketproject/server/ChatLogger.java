@@ -1,112 +1,286 @@
-package org.example.socketproject.server;
-
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-
-public class ChatLogger {
-    private static final String LOGS_DIR = "logs";
-    private static final String SERVER_LOG_FILE = LOGS_DIR + File.separator + "server.log";
-    private static final String MESSAGES_LOG_FILE = LOGS_DIR + File.separator + "messages.log";
-    
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    
-    private static ChatLogger instance;
-    private PrintWriter serverLogWriter;
-    private PrintWriter messagesLogWriter;
-    
-    private ChatLogger() {
-        try {
-            File logsDir = new File(LOGS_DIR);
-            if (!logsDir.exists()) {logsDir.mkdirs();
-            }
-            
-            // Initialiser les writers avec append=true pour ajouter aux fichiers existants
-            serverLogWriter = new PrintWriter(new FileWriter(SERVER_LOG_FILE, true), true);
-            messagesLogWriter = new PrintWriter(new FileWriter(MESSAGES_LOG_FILE, true), true);
-            
-        } catch (IOException e) {
-            System.err.println(" Erreur lors de l'initialisation du système de logs : " + e.getMessage());
-        }
-    }
-    
-    public static synchronized ChatLogger getInstance() {
-        if (instance == null) {
-            instance = new ChatLogger();
-        }
-        return instance;
-    }
-    
-
-    public void logServerEvent(String event) {
-        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-        String logEntry = String.format("[%s] %s", timestamp, event);
-        
-        // Afficher dans la console
-        System.out.println(logEntry);
-        
-        // Enregistrer dans le fichier
-        if (serverLogWriter != null) {
-            serverLogWriter.println(logEntry);
-        }
-    }
-    
-    /**
-     * Enregistre un message échangé entre utilisateurs
-     */
-    public void logMessage(String username, String message) {
-        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-        String logEntry = String.format("[%s] [%s] %s", timestamp, username, message);
-        
-        // Enregistrer dans le fichier messages.log
-        if (messagesLogWriter != null) {
-            messagesLogWriter.println(logEntry);
-        }
-    }
-    
-    /**
-     * Enregistre une erreur
-     */
-    public void logError(String error) {
-        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-        String logEntry = String.format("[%s] [ERROR] %s", timestamp, error);
-        
-        // Afficher dans la console
-        System.err.println(logEntry);
-        
-        // Enregistrer dans le fichier
-        if (serverLogWriter != null) {
-            serverLogWriter.println(logEntry);
-        }
-    }
-    
-
-    public void logConnection(String username, String ipAddress) {logServerEvent(String.format("Connexion : %s depuis %s", username, ipAddress));
-    }
-
-    public void logDisconnection(String username) {logServerEvent(String.format("Déconnexion : %s", username));
-    }
-
-    public void logServerStart(int port) {
-        logServerEvent(String.format("Serveur démarré sur le port %d", port));
-    }
-
-    public void logServerStop() {
-        logServerEvent("Serveur arrêté");
-    }
-
-    public void close() {
-        if (serverLogWriter != null) {serverLogWriter.close();
-        }
-        if (messagesLogWriter != null) {messagesLogWriter.close();
-        }
-    }
-}
-
-
-
-
-
+package org.example.socketproject.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal du serveur, asynchrone : les appelants déposent une entrée brute
+ * dans une file sans verrou et repartent aussitôt ; un unique thread écrivain
+ * formate, écrit par lots et vide les fichiers par taille ou par délai.
+ */
+public class ChatLogger {
+    private static final String LOGS_DIR = "logs";
+    private static final String SERVER_LOG_FILE = LOGS_DIR + File.separator + "server.log";
+    private static final String MESSAGES_LOG_FILE = LOGS_DIR + File.separator + "messages.log";
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Vider les fichiers tous les BATCH_SIZE entrées ou au plus tard après FLUSH_INTERVAL
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int KIND_EVENT = 0;
+    private static final int KIND_MESSAGE = 1;
+    private static final int KIND_ERROR = 2;
+
+    private static volatile ChatLogger instance;
+    private Writer serverLogWriter;
+    private Writer messagesLogWriter;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int capacity = 65536;
+    private volatile LogQueuePolicy policy = LogQueuePolicy.BLOCK;
+    private volatile boolean closed = false;
+    private final Thread writerThread;
+
+    // Cache du dernier horodatage formaté (utilisé uniquement par l'écrivain)
+    private long cachedSecond = -1;
+    private String cachedTimestamp;
+
+    private ChatLogger() {
+        try {
+            File logsDir = new File(LOGS_DIR);
+            if (!logsDir.exists()) {logsDir.mkdirs();
+            }
+
+            // Initialiser les writers avec append=true pour ajouter aux fichiers existants
+            serverLogWriter = new BufferedWriter(new FileWriter(SERVER_LOG_FILE, true));
+            messagesLogWriter = new BufferedWriter(new FileWriter(MESSAGES_LOG_FILE, true));
+
+        } catch (IOException e) {
+            System.err.println(" Erreur lors de l'initialisation du système de logs : " + e.getMessage());
+        }
+        writerThread = new Thread(this::writeLoop, "chat-logger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public static ChatLogger getInstance() {
+        ChatLogger logger = instance;
+        if (logger == null) {
+            synchronized (ChatLogger.class) {
+                logger = instance;
+                if (logger == null) {
+                    logger = new ChatLogger();
+                    instance = logger;
+                }
+            }
+        }
+        return logger;
+    }
+
+    // Taille de la file et politique quand elle est pleine
+    public void configure(int capacity, LogQueuePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Taille de file de logs invalide : " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+
+    public void logServerEvent(String event) {
+        enqueue(new Entry(KIND_EVENT, null, event));
+    }
+
+    /**
+     * Enregistre un message échangé entre utilisateurs
+     */
+    public void logMessage(String username, String message) {
+        enqueue(new Entry(KIND_MESSAGE, username, message));
+    }
+
+    /**
+     * Enregistre une erreur
+     */
+    public void logError(String error) {
+        enqueue(new Entry(KIND_ERROR, null, error));
+    }
+
+
+    public void logConnection(String username, String ipAddress) {logServerEvent(String.format("Connexion : %s depuis %s", username, ipAddress));
+    }
+
+    public void logDisconnection(String username) {logServerEvent(String.format("Déconnexion : %s", username));
+    }
+
+    public void logServerStart(int port) {
+        logServerEvent(String.format("Serveur démarré sur le port %d", port));
+    }
+
+    public void logServerStop() {
+        logServerEvent("Serveur arrêté");
+    }
+
+    // Nombre d'entrées en attente d'écriture
+    public int getQueueDepth() {
+        return queueSize.get();
+    }
+
+    // Nombre d'entrées abandonnées car la file était pleine (politique DROP)
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void enqueue(Entry entry) {
+        if (closed) {
+            // Plus d'écrivain : ne garder que la console
+            System.out.println(entry.text);
+            return;
+        }
+        while (queueSize.incrementAndGet() > capacity) {
+            queueSize.decrementAndGet();
+            if (policy == LogQueuePolicy.DROP || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(100_000);
+        }
+        queue.add(entry);
+        if (closed && queue.remove(entry)) {
+            // Ajoutée après la dernière vidange de close() : elle ne serait jamais écrite
+            queueSize.decrementAndGet();
+            System.out.println(entry.text);
+            return;
+        }
+        // Réveiller l'écrivain dès qu'un lot complet est prêt, sinon il se réveille par délai
+        if (queueSize.get() == BATCH_SIZE) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    // Boucle de l'écrivain : vider la file, écrire par lots, flush par taille ou délai
+    private void writeLoop() {
+        int sinceFlush = 0;
+        long lastFlush = System.nanoTime();
+        while (true) {
+            boolean closing = closed;
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                queueSize.decrementAndGet();
+                write(entry);
+                if (++sinceFlush >= BATCH_SIZE) {
+                    flushFiles();
+                    sinceFlush = 0;
+                    lastFlush = System.nanoTime();
+                }
+            }
+            if (sinceFlush > 0 && (closing || System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS)) {
+                flushFiles();
+                sinceFlush = 0;
+                lastFlush = System.nanoTime();
+            }
+            if (closing) {
+                return;
+            }
+            LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+        }
+    }
+
+    private void write(Entry entry) {
+        String timestamp = formatTimestamp(entry.time);
+        try {
+            switch (entry.kind) {
+                case KIND_MESSAGE:
+                    if (messagesLogWriter != null) {
+                        messagesLogWriter.write("[" + timestamp + "] [" + entry.username + "] " + entry.text + System.lineSeparator());
+                    }
+                    break;
+                case KIND_ERROR: {
+                    String logEntry = "[" + timestamp + "] [ERROR] " + entry.text;
+                    System.err.println(logEntry);
+                    if (serverLogWriter != null) {
+                        serverLogWriter.write(logEntry + System.lineSeparator());
+                    }
+                    break;
+                }
+                default: {
+                    String logEntry = "[" + timestamp + "] " + entry.text;
+                    System.out.println(logEntry);
+                    if (serverLogWriter != null) {
+                        serverLogWriter.write(logEntry + System.lineSeparator());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(" Erreur d'écriture dans les logs : " + e.getMessage());
+        }
+    }
+
+    private String formatTimestamp(long millis) {
+        long second = millis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(DATE_FORMATTER);
+        }
+        return cachedTimestamp;
+    }
+
+    private void flushFiles() {
+        try {
+            if (serverLogWriter != null) serverLogWriter.flush();
+            if (messagesLogWriter != null) messagesLogWriter.flush();
+        } catch (IOException e) {
+            System.err.println(" Erreur d'écriture dans les logs : " + e.getMessage());
+        }
+    }
+
+    // Vider toute la file sur disque puis fermer les fichiers
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Entrées ajoutées par un appelant qui a vu closed à false juste avant que l'écrivain ne s'arrête
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            write(entry);
+        }
+        flushFiles();
+        try {
+            if (serverLogWriter != null) {serverLogWriter.close();
+            }
+            if (messagesLogWriter != null) {messagesLogWriter.close();
+            }
+        } catch (IOException e) {
+            System.err.println(" Erreur lors de la fermeture des logs : " + e.getMessage());
+        }
+    }
+
+    // Entrée brute : le formatage est fait par l'écrivain, pas par l'appelant
+    private static final class Entry {
+        final long time = System.currentTimeMillis();
+        final int kind;
+        final String username;
+        final String text;
+
+        Entry(int kind, String username, String text) {
+            this.kind = kind;
+            this.username = username;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.socketproject.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+
+/**
+ * Salon de discussion : son propre ensemble de membres, une diffusion dont
+ * le coût ne dépend que de sa taille, et sa propre liste de présence.
+ */
+public class ChatRoom {
+    public static final String DEFAULT_ROOM = "general";
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final String name;
+    private final ChatServer server;
+    private final Set<ClientConnection> members = ConcurrentHashMap.newKeySet();
+    private final PresenceTracker presence;
+
+    public ChatRoom(String name, ChatServer server, ScheduledExecutorService scheduler, long presenceWindowMillis) {
+        this.name = name;
+        this.server = server;
+        this.presence = new PresenceTracker(this, scheduler, presenceWindowMillis);
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && VALID_NAME.matcher(name).matches();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDefault() {
+        return DEFAULT_ROOM.equals(name);
+    }
+
+    // Nom affiché dans les messages (#salon)
+    public String getDisplayName() {
+        return "#" + name;
+    }
+
+    // Ajout brut au set des membres (appelé par ChatServer sous le verrou de la table des salons)
+    boolean addMember(ClientConnection client) {
+        return members.add(client);
+    }
+
+    boolean removeMember(ClientConnection client) {
+        return members.remove(client);
+    }
+
+    public boolean isMember(ClientConnection client) {
+        return members.contains(client);
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    // Pseudos des membres inscrits, y compris ceux connectés sur les autres nœuds du cluster
+    public Collection<String> getMemberNames() {
+        Collection<String> remote = server.remoteMembers(this);
+        List<String> names = new ArrayList<>(members.size() + remote.size());
+        for (ClientConnection member : members) {
+            if (member.getUsername() != null) {
+                names.add(member.getUsername());
+            }
+        }
+        names.addAll(remote);
+        return names;
+    }
+
+    // Diffuser un message déjà encodé à tous les membres sauf l'expéditeur
+    public void broadcast(OutboundMessage message, ClientConnection sender) {
+        long start = System.nanoTime();
+        for (ClientConnection member : members) {
+            if (member != sender) {
+                member.send(message);
+            }
+        }
+        server.getMetrics().broadcastFanOut(System.nanoTime() - start);
+    }
+
+    // Message de présence. Forme texte : USERS:/JOIN:/LEAVE: pour le salon par défaut (clients existants),
+    // USERS#salon: etc. pour les autres ; forme binaire : "salon\npseudos"
+    OutboundMessage presenceMessage(byte type, String kind, Collection<String> names) {
+        String list = String.join(",", names);
+        String prefix = isDefault() ? kind + ":" : kind + "#" + name + ":";
+        return server.encode(type, prefix + list, name + "\n" + list);
+    }
+
+    PresenceTracker getPresence() {
+        return presence;
+    }
+}
@@ -1,161 +1,1088 @@
 package org.example.socketproject.server;
 
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.server.cluster.ClusterListener;
+import org.example.socketproject.server.cluster.ClusterNode;
+import org.example.socketproject.server.metrics.MetricsHttpServer;
+import org.example.socketproject.server.metrics.ServerMetrics;
+import org.example.socketproject.server.search.SearchIndex;
+import org.example.socketproject.server.tls.ServerTls;
+import org.example.socketproject.server.transfer.FileTransferServer;
+import org.example.socketproject.server.transfer.Transfer;
+import org.example.socketproject.server.transfer.TransferListener;
+import org.example.socketproject.server.store.MessageStore;
+import org.example.socketproject.server.store.OfflineInbox;
+import org.example.socketproject.server.store.StoredMessage;
+
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class ChatServer {
+    private static final DateTimeFormatter HISTORY_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final SecureRandom TOKENS = new SecureRandom();
+    // Résultats renvoyés au plus par /search
+    private static final int SEARCH_LIMIT = 20;
+    // Sessions fermées dont on retient les salons pour une reprise
+    private static final int RESUMABLE_SESSIONS = 10_000;
+
+    private final ServerConfig config;
     private int port;
+    private ServerMode mode;
     private ServerSocket serverSocket;
-    private Set<ClientHandler> clients;
-    private Set<String> usernames;
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] eventLoops;
+    private Set<ClientConnection> clients;
+    private ConcurrentHashMap<String, ClientConnection> usersByName;
     private ExecutorService threadPool;
+    private ConcurrentHashMap<String, ChatRoom> rooms;
+    private ChatRoom defaultRoom;
+    // Délais de présence et calcul des débits des métriques
+    private ScheduledExecutorService scheduler;
+    private MessageStore history;
+    // Index de recherche de l'historique (null si l'historique ou l'index est indisponible)
+    private final SearchIndex search;
+    private final ServerMetrics metrics;
+    // Messages privés gardés pour les absents (null si désactivés) ; seuls les pseudos déjà connectés ici
+    // sont acceptés, pour qu'une faute de frappe ne remplisse pas une boîte
+    private final OfflineInbox inbox;
+    // Compression des trames sortantes (null si désactivée)
+    private final PayloadCompressor compressor;
+    // Nœud de cluster (null si ce serveur est seul)
+    private final ClusterNode cluster;
+    // Chemin de données des fichiers (null si les transferts sont désactivés)
+    private final FileTransferServer transfers;
+    // TLS des connexions clientes (null : en clair), chargé au démarrage
+    private ServerTls tls;
+    // Messages de salon numérotés pour la reprise de session (null si désactivée) ;
+    // l'époque distingue les numéros de ce processus de ceux d'un redémarrage précédent
+    private final ReplayBuffer replay;
+    private final String epoch = randomToken();
+    // Jeton d'une session fermée -> ses salons hors salon par défaut, rendus si elle reprend
+    private final Map<String, List<String>> sessionRooms = Collections.synchronizedMap(
+            new LinkedHashMap<String, List<String>>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                    return size() > RESUMABLE_SESSIONS;
+                }
+            });
+    private MetricsHttpServer metricsHttp;
+    private ObjectName metricsName;
     private volatile boolean running;
+    private volatile boolean draining = false;
+    private boolean stopped = false;
 
     public ChatServer(int port) {
-        this.port = port;
+        this(port, ServerMode.THREADS);
+    }
+
+    public ChatServer(int port, ServerMode mode) {
+        this(new ServerConfig().setPort(port).setMode(mode));
+    }
+
+    public ChatServer(ServerConfig config) {
+        this.config = config;
+        this.port = config.getPort();
+        this.mode = config.getMode();
+        ChatLogger.getInstance().configure(config.getLogQueueCapacity(), config.getLogQueuePolicy());
         this.clients = ConcurrentHashMap.newKeySet(); // Thread-safe
-        this.usernames = ConcurrentHashMap.newKeySet(); // Pseudos uniques
-        this.threadPool = Executors.newCachedThreadPool();
+        this.usersByName = new ConcurrentHashMap<>(); // Pseudo -> connexion, garantit l'unicité
+        this.threadPool = createThreadPool(mode);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rooms = new ConcurrentHashMap<>();
+        this.defaultRoom = new ChatRoom(ChatRoom.DEFAULT_ROOM, this, scheduler, config.getPresenceWindowMillis());
+        rooms.put(ChatRoom.DEFAULT_ROOM, defaultRoom);
+        this.history = openHistory(config);
+        this.search = openSearchIndex(history, config);
+        this.inbox = openInbox(config);
+        this.metrics = new ServerMetrics(clients::size, this::getOutboundBacklog);
+        if (inbox != null) {
+            metrics.watchInbox(inbox::getMemoryBytes, inbox::getFileBytes, inbox::getSpilledMessages);
+        }
+        scheduler.scheduleAtFixedRate(metrics::tick, 1, 1, TimeUnit.SECONDS);
+        this.compressor = config.getCompressionThreshold() > 0
+                ? new PayloadCompressor(config.getCompressionThreshold(), metrics) : null;
+        this.replay = config.getReplayBufferSize() > 0 ? new ReplayBuffer(config.getReplayBufferSize()) : null;
+        this.cluster = config.getClusterPort() > 0
+                ? new ClusterNode(config.getNodeId(), config.getClusterHost(), config.getClusterPort(),
+                        config.getClusterSecret(), config.getPeers(), new ClusterEvents()) : null;
+        this.transfers = config.getFilePort() > 0
+                ? new FileTransferServer(config.getFilePort(), Paths.get(config.getSpoolDir()), config.getMaxFileBytes(),
+                        config.getFileBytesPerSecond(), new TransferEvents(), scheduler) : null;
         this.running = false;
     }
 
+    // Ouvrir l'historique persistant ; en cas d'échec le chat fonctionne sans
+    private static MessageStore openHistory(ServerConfig config) {
+        try {
+            return new MessageStore(Paths.get(config.getHistoryDir()),
+                    config.getHistorySegmentBytes(), config.getHistoryRetentionSegments());
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Historique indisponible : " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Ouvrir l'index de recherche à côté de l'historique et y rattraper les messages pas encore indexés
+    private static SearchIndex openSearchIndex(MessageStore history, ServerConfig config) {
+        if (history == null) {
+            return null;
+        }
+        try {
+            SearchIndex index = new SearchIndex(Paths.get(config.getHistoryDir(), "search"), history::getFirstSequence);
+            index.catchUp(history, history.getLastSequence());
+            return index;
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Index de recherche indisponible : " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Ouvrir les boîtes des absents ; en cas d'échec un message privé pour un absent est refusé comme avant
+    private static OfflineInbox openInbox(ServerConfig config) {
+        if (config.getInboxMaxMessages() <= 0) {
+            return null;
+        }
+        try {
+            OfflineInbox opened = new OfflineInbox(Paths.get(config.getInboxDir()), config.getInboxMemoryBytes(),
+                    config.getInboxTailMessages(), config.getInboxMaxMessages(), config.getInboxMaxFileBytes(),
+                    config.getInboxKnownUsers());
+            if (opened.getRecipients() > 0) {
+                ChatLogger.getInstance().logServerEvent("Boîtes des absents reprises : " + opened.getRecipients()
+                        + " destinataire(s) en attente");
+            }
+            return opened;
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Boîtes des absents indisponibles : " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Pool d'exécution des ClientHandler selon le mode choisi
+    private static ExecutorService createThreadPool(ServerMode mode) {
+        if (mode == ServerMode.VIRTUAL) {
+            // Appel par réflexion pour rester compilable en Java 11 : l'API n'existe qu'à partir de Java 21
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                ChatLogger.getInstance().logError("Threads virtuels indisponibles (Java 21+ requis), utilisation d'un pool classique");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
     public void start() {
         ChatLogger logger = ChatLogger.getInstance();
         try {
-            serverSocket = new ServerSocket(port);
-            running = true;
-            logger.logServerStart(port);
-            System.out.println(" Adresses IP disponibles pour la connexion :");
-            System.out.println("   - localhost / 127.0.0.1 (même machine)");
-            printLocalIPAddresses();
-            System.out.println(" En attente de connexions...\n");
+            startMetrics(logger);
+            if (config.getTlsKeyStore() != null) {
+                tls = loadTls();
+            }
+            if (cluster != null) {
+                cluster.start(config.isReusePort());
+            }
+            if (transfers != null) {
+                transfers.start();
+            }
+            if (mode == ServerMode.NIO) {
+                runNio(logger);
+            } else {
+                runBlocking(logger);
+            }
+        } catch (IOException e) {
+            logger.logError("Impossible de démarrer le serveur : " + e.getMessage());
+        } finally {
+            stop();
+        }
+    }
 
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
+    // Un keystore illisible empêche le démarrage plutôt que de passer en clair
+    private ServerTls loadTls() throws IOException {
+        try {
+            return ServerTls.load(Paths.get(config.getTlsKeyStore()), config.getTlsPassword().toCharArray(),
+                    config.getTlsSessionCacheSize(), config.getTlsSessionTimeoutSeconds());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("keystore TLS inutilisable (" + e.getMessage() + ")", e);
+        }
+    }
 
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                    clients.add(clientHandler);
-                    threadPool.execute(clientHandler);
+    // Exposer les métriques par JMX et, si un port est configuré, en HTTP
+    private void startMetrics(ChatLogger logger) throws IOException {
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            metricsName = new ObjectName("org.example.socketproject:type=ChatServer,port=" + port);
+            mbeans.registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            metricsName = null;
+            logger.logError("Métriques JMX indisponibles : " + e.getMessage());
+        }
+        if (config.getMetricsPort() > 0) {
+            metricsHttp = new MetricsHttpServer(config.getMetricsHost(), config.getMetricsPort(), metrics);
+            metricsHttp.start();
+            logger.logServerEvent("Métriques disponibles sur http://" + config.getMetricsHost() + ":"
+                    + metricsHttp.getPort() + "/metrics");
+        }
+    }
 
-                    String clientIP = clientSocket.getInetAddress().getHostAddress();
-                    logger.logServerEvent("Nouvelle connexion depuis " + clientIP + " (Clients connectés : " + clients.size() + ")");
+    private void stopMetrics() {
+        if (metricsHttp != null) {
+            metricsHttp.stop();
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // Déjà retiré
+            }
+        }
+    }
 
-                } catch (IOException e) {
-                    if (running) {
-                        logger.logError("Erreur lors de l'acceptation d'un client : " + e.getMessage());
-                    }
+    private void printStartBanner(ChatLogger logger) {
+        logger.logServerStart(port);
+        System.out.println(" Mode d'exécution : " + mode);
+        System.out.println(" Adresses IP disponibles pour la connexion :");
+        System.out.println("   - localhost / 127.0.0.1 (même machine)");
+        printLocalIPAddresses();
+        System.out.println(" En attente de connexions...\n");
+    }
+
+    // Mode classique : accept() bloquant et un thread par client
+    private void runBlocking(ChatLogger logger) throws IOException {
+        serverSocket = new ServerSocket();
+        if (config.isReusePort()) {
+            enableReusePort(() -> serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true), logger);
+        }
+        if (config.getReceiveBufferSize() > 0) {
+            // Avant bind() pour que les sockets acceptées en héritent (fenêtre TCP au-delà de 64 Ko)
+            serverSocket.setReceiveBufferSize(config.getReceiveBufferSize());
+        }
+        serverSocket.bind(new InetSocketAddress(port));
+        running = true;
+        printStartBanner(logger);
+
+        while (running) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                metrics.connectionAccepted();
+                configureSocket(clientSocket);
+
+                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+                clients.add(clientHandler);
+                threadPool.execute(clientHandler);
+
+                String clientIP = clientSocket.getInetAddress().getHostAddress();
+                logger.logServerEvent("Nouvelle connexion depuis " + clientIP + " (Clients connectés : " + clients.size() + ")");
+
+            } catch (IOException e) {
+                if (running) {
+                    logger.logError("Erreur lors de l'acceptation d'un client : " + e.getMessage());
                 }
             }
+        }
+    }
+
+    // Mode NIO : accept() sur ce thread, puis répartition des canaux entre les boucles Selector
+    private void runNio(ChatLogger logger) throws IOException {
+        int loopCount = Runtime.getRuntime().availableProcessors();
+        eventLoops = new NioEventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            eventLoops[i] = new NioEventLoop("chat-nio-" + i);
+            eventLoops[i].start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        if (config.isReusePort()) {
+            enableReusePort(() -> serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true), logger);
+        }
+        if (config.getReceiveBufferSize() > 0) {
+            serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+        printStartBanner(logger);
+
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                metrics.connectionAccepted();
+                channel.configureBlocking(false);
+                configureSocket(channel.socket());
+
+                NioEventLoop loop = eventLoops[next];
+                next = (next + 1) % eventLoops.length;
 
+                NioConnection connection = new NioConnection(channel, loop, this);
+                clients.add(connection);
+                loop.register(channel, connection);
+
+                logger.logServerEvent("Nouvelle connexion depuis " + connection.getRemoteAddress() + " (Clients connectés : " + clients.size() + ")");
+
+            } catch (IOException e) {
+                if (running) {
+                    logger.logError("Erreur lors de l'acceptation d'un client : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Options d'une socket cliente acceptée ; en cas d'échec la connexion garde celles du système
+    private void configureSocket(Socket socket) {
+        try {
+            socket.setTcpNoDelay(config.isTcpNoDelay());
+            if (config.getSendBufferSize() > 0) {
+                socket.setSendBufferSize(config.getSendBufferSize());
+            }
+            if (config.getReceiveBufferSize() > 0) {
+                socket.setReceiveBufferSize(config.getReceiveBufferSize());
+            }
         } catch (IOException e) {
-            logger.logError("Impossible de démarrer le serveur : " + e.getMessage());
-        } finally {
-            stop();
+            ChatLogger.getInstance().logError("Options de socket non appliquées : " + e.getMessage());
         }
     }
 
-    public void stop() {
+    private interface SocketOption {
+        void apply() throws IOException;
+    }
+
+    // SO_REUSEPORT : le nouveau processus écoute sur le même port pendant que l'ancien se vide
+    private static void enableReusePort(SocketOption option, ChatLogger logger) {
+        try {
+            option.apply();
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.logError("SO_REUSEPORT indisponible sur ce système, le port sera libéré à l'arrêt seulement");
+        }
+    }
+
+    /**
+     * Arrêt progressif : plus aucune connexion acceptée, chaque client reçoit
+     * un délai de reconnexion étalé sur config.getReconnectSpreadMillis() (pour
+     * que les reconnexions arrivent à débit constant sur le serveur suivant),
+     * puis il est déconnecté dès que sa file d'envoi est vide. Les clients
+     * encore en retard après config.getDrainTimeoutMillis() sont coupés par stop().
+     */
+    public synchronized void drain() {
+        if (stopped || draining) {
+            return;
+        }
+        draining = true;
+        running = false;
+        ChatLogger logger = ChatLogger.getInstance();
+        // La boucle d'acceptation se termine (son stop() attendra la fin de celui-ci)
+        closeListener(logger);
+
+        List<ClientConnection> remaining = new ArrayList<>(clients);
+        logger.logServerEvent("Arrêt progressif : " + remaining.size() + " clients, reconnexions étalées sur "
+                + config.getReconnectSpreadMillis() + " ms");
+        Collections.shuffle(remaining);
+        long spread = config.getReconnectSpreadMillis();
+        for (int i = 0; i < remaining.size(); i++) {
+            // Jitter stratifié : un délai au hasard dans la i-ème tranche, donc autant de reconnexions par tranche
+            long delay = (long) ((i + ThreadLocalRandom.current().nextDouble()) * spread / remaining.size());
+            ClientConnection client = remaining.get(i);
+            client.sendMessage("⚠ Le serveur redémarre, reconnexion dans " + (delay + 999) / 1000 + " s");
+            client.send(encode(FrameType.RECONNECT, "RECONNECT:" + delay, Long.toString(delay)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getDrainTimeoutMillis());
+        while (!remaining.isEmpty() && System.nanoTime() < deadline) {
+            Iterator<ClientConnection> it = remaining.iterator();
+            while (it.hasNext()) {
+                ClientConnection client = it.next();
+                if (client.isClosed()) {
+                    it.remove();
+                } else if (!client.hasPendingWrites()) {
+                    client.disconnect();
+                    it.remove();
+                }
+            }
+            if (!remaining.isEmpty()) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (!remaining.isEmpty()) {
+            logger.logError("Arrêt progressif : " + remaining.size() + " clients n'ont pas tout reçu à temps");
+        }
+        stop();
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
         running = false;
         ChatLogger logger = ChatLogger.getInstance();
 
         System.out.println("\n Arrêt du serveur...");
 
         // Fermer tous les clients
-        for (ClientHandler client : clients) {
+        for (ClientConnection client : clients) {
             client.disconnect();
         }
 
-        // Arrêter le pool de threads
+        if (cluster != null) {
+            cluster.stop();
+        }
+        if (transfers != null) {
+            transfers.stop();
+        }
+        closeListener(logger);
+
+        // Arrêter le pool de threads et les boucles NIO avant de fermer les stockages qu'ils utilisent
         threadPool.shutdown();
         try {
             if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                // Gestionnaires encore bloqués : les interrompre et leur laisser le temps de sortir
                 threadPool.shutdownNow();
+                threadPool.awaitTermination(1, TimeUnit.SECONDS);
             }
         } catch (InterruptedException e) {
             threadPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (eventLoops != null) {
+            for (NioEventLoop loop : eventLoops) {
+                loop.shutdown();
+            }
+        }
+        scheduler.shutdownNow();
+        stopMetrics();
+
+        if (search != null) {
+            search.close();
+        }
+        if (history != null) {
+            try {
+                history.close();
+            } catch (IOException e) {
+                logger.logError("Erreur lors de la fermeture de l'historique : " + e.getMessage());
+            }
+        }
+        if (inbox != null) {
+            try {
+                inbox.close();
+            } catch (IOException e) {
+                logger.logError("Erreur lors de la fermeture des boîtes des absents : " + e.getMessage());
+            }
         }
 
-        // Fermer le ServerSocket
+        if (tls != null) {
+            tls.shutdown();
+        }
+
+        logger.logServerEvent(OutboundMessage.statsSummary());
+        logger.logServerStop();
+        logger.close();
+    }
+
+    // Fermer le ServerSocket
+    private void closeListener(ChatLogger logger) {
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
         } catch (IOException e) {
             logger.logError("Erreur lors de la fermeture du serveur : " + e.getMessage());
         }
+    }
 
-        logger.logServerStop();
-        logger.close();
+    // Diffuser un message dans le salon par défaut, sauf à l'expéditeur
+    public void broadcast(String message, ClientConnection sender) {
+        broadcast(defaultRoom, message, sender);
     }
 
-    // Diffuser un message à tous les clients sauf l'expéditeur
-    public void broadcast(String message, ClientHandler sender) {
+    // Diffuser un message aux membres d'un salon, sauf à l'expéditeur
+    public void broadcast(ChatRoom room, String message, ClientConnection sender) {
         // Enregistrer le message dans les logs si c'est un message utilisateur (pas un message système)
         if (sender != null && sender.getUsername() != null && message.contains(": ")) {
             ChatLogger.getInstance().logMessage(sender.getUsername(), message);
+            // L'historique rejoué à l'arrivée est celui du salon par défaut
+            if (room.isDefault()) {
+                appendHistory(sender.getUsername(), message);
+            }
+        }
+
+        // Encodé une seule fois, le même tampon est partagé par tous les destinataires
+        room.broadcast(sequenced(room, sender != null ? sender.getUsername() : null, message), sender);
+        if (cluster != null) {
+            cluster.broadcast(room.getName(), sender != null ? sender.getUsername() : null, message);
         }
-        
-        for (ClientHandler client : clients) {
-            if (client != sender) {
-                client.sendMessage(message);
+    }
+
+    public ChatRoom getDefaultRoom() {
+        return defaultRoom;
+    }
+
+    public ChatRoom findRoom(String name) {
+        return rooms.get(name);
+    }
+
+    public Collection<ChatRoom> getRooms() {
+        return rooms.values();
+    }
+
+    // Faire entrer un client dans un salon (créé au besoin) ; false s'il y était déjà
+    public boolean joinRoom(ClientConnection client, String name) {
+        boolean[] added = new boolean[1];
+        // compute() sérialise avec la suppression des salons vides
+        ChatRoom room = rooms.compute(name, (key, existing) -> {
+            ChatRoom target = existing != null ? existing
+                    : new ChatRoom(key, this, scheduler, config.getPresenceWindowMillis());
+            added[0] = target.addMember(client);
+            return target;
+        });
+        if (added[0]) {
+            client.addRoom(room);
+            // Liste complète pour ce client, simple delta JOIN pour les autres membres
+            room.getPresence().sendSnapshot(client);
+            room.getPresence().userJoined(client.getUsername());
+            if (cluster != null) {
+                cluster.joined(name, client.getUsername());
             }
         }
+        return added[0];
+    }
+
+    // Faire sortir un client d'un salon ; un salon vide (hors salon par défaut) disparaît
+    public boolean leaveRoom(ClientConnection client, ChatRoom room) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(room.getName(), (key, existing) -> {
+            removed[0] = existing.removeMember(client);
+            return existing.isEmpty() && !existing.isDefault() ? null : existing;
+        });
+        if (removed[0]) {
+            client.removeRoom(room);
+            // Delta LEAVE, regroupé avec les autres changements proches
+            room.getPresence().userLeft(client.getUsername());
+            if (cluster != null) {
+                cluster.left(room.getName(), client.getUsername());
+            }
+        }
+        return removed[0];
     }
     
-    // Envoyer la liste des utilisateurs connectés à tous les clients
-    public void broadcastUserList() {
-        StringBuilder userList = new StringBuilder("USERS:");
-        for (ClientHandler client : clients) {
-            if (client.getUsername() != null) {
-                if (userList.length() > 6) {
-                    userList.append(",");
+    // Conserver un message public dans l'historique persistant
+    private void appendHistory(String sender, String message) {
+        if (history == null) {
+            return;
+        }
+        try {
+            long sequence = history.append(System.currentTimeMillis(), sender, message);
+            if (search != null) {
+                search.add(sequence, message);
+            }
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur d'écriture dans l'historique : " + e.getMessage());
+        }
+    }
+
+    // Rejouer les derniers messages à un client qui vient de s'inscrire
+    public void sendHistory(ClientConnection client) {
+        int count = config.getHistoryReplayCount();
+        if (history == null || count <= 0) {
+            return;
+        }
+        try {
+            List<StoredMessage> messages = history.lastMessages(count);
+            if (messages.isEmpty()) {
+                return;
+            }
+            // Un seul message pour tout le rejeu : une trame compressée d'un bloc pour les clients binaires
+            List<String> lines = new ArrayList<>(messages.size() + 1);
+            lines.add("📜 Derniers messages :");
+            for (StoredMessage stored : messages) {
+                lines.add(formatHistory(stored));
+            }
+            client.send(OutboundMessage.encodeLines(lines, mode == ServerMode.NIO, compressor));
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur de lecture de l'historique : " + e.getMessage());
+        }
+    }
+
+    // Rechercher dans l'historique les messages contenant tous les mots de la requête, hors de la boucle NIO
+    void search(ClientConnection client, String query) {
+        if (search == null) {
+            client.sendMessage("❌ Recherche indisponible");
+            return;
+        }
+        try {
+            threadPool.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    List<Long> found = search.search(query, SEARCH_LIMIT);
+                    List<String> lines = new ArrayList<>(found.size() + 1);
+                    lines.add("🔎 " + found.size() + " résultat(s) pour « " + query + " » :");
+                    // Du plus ancien au plus récent, comme l'historique
+                    for (int i = found.size() - 1; i >= 0; i--) {
+                        List<StoredMessage> read = history.readFrom(found.get(i), 1);
+                        if (!read.isEmpty() && read.get(0).getSequence() == found.get(i)) {
+                            lines.add(formatHistory(read.get(0)));
+                        }
+                    }
+                    metrics.searched(System.nanoTime() - start);
+                    client.send(OutboundMessage.encodeLines(lines, mode == ServerMode.NIO, compressor));
+                } catch (IOException e) {
+                    ChatLogger.getInstance().logError("Erreur de recherche : " + e.getMessage());
+                    client.sendMessage("❌ Recherche indisponible");
                 }
-                userList.append(client.getUsername());
+            });
+        } catch (RejectedExecutionException e) {
+            // Serveur en cours d'arrêt
+        }
+    }
+
+    private static String formatHistory(StoredMessage stored) {
+        String time = LocalDateTime.ofInstant(Instant.ofEpochMilli(stored.getTimestamp()), ZoneId.systemDefault())
+                .format(HISTORY_TIME_FORMAT);
+        return "[" + time + "] " + stored.getText();
+    }
+
+    // Numéroter un message de salon et le garder pour les clients qui se reconnecteront
+    private OutboundMessage sequenced(ChatRoom room, String sender, String message) {
+        if (replay == null) {
+            return encode(message);
+        }
+        return replay.append(room.getName(), sender,
+                sequence -> OutboundMessage.encode(message, sequence, mode == ServerMode.NIO, compressor));
+    }
+
+    // Époque et jeton de session à transmettre à un client binaire pour qu'il puisse reprendre
+    OutboundMessage resumeToken(String token) {
+        return encode(FrameType.RESUME, "RESUME:" + epoch + ":" + token, epoch + "\n" + token);
+    }
+
+    // Retenir les salons d'une session qui se ferme, pour les lui rendre si elle reprend
+    void rememberRooms(String token, Collection<ChatRoom> sessionRoomList) {
+        if (replay == null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (ChatRoom room : sessionRoomList) {
+            if (!room.isDefault()) {
+                names.add(room.getName());
             }
         }
-        String userListStr = userList.toString();
-        for (ClientHandler client : clients) {
-            client.sendMessage(userListStr);
+        if (names.isEmpty()) {
+            sessionRooms.remove(token);
+        } else {
+            sessionRooms.put(token, names);
         }
     }
-    
-    // Envoyer un message privé à un utilisateur spécifique
-    public boolean sendPrivateMessage(String fromUsername, String toUsername, String message) {
-        for (ClientHandler client : clients) {
-            if (client.getUsername() != null && client.getUsername().equals(toUsername)) {
-                client.sendMessage("PRIVATE:" + fromUsername + ":" + message);
-                ChatLogger.getInstance().logMessage(fromUsername + " -> " + toUsername, message);
-                return true;
+
+    // Salons d'une session qui reprend (le salon par défaut d'abord), oubliés une fois rendus
+    Set<String> resumedRooms(String token) {
+        Set<String> names = new LinkedHashSet<>();
+        names.add(ChatRoom.DEFAULT_ROOM);
+        List<String> previous = token != null ? sessionRooms.remove(token) : null;
+        if (previous != null) {
+            names.addAll(previous);
+        }
+        return names;
+    }
+
+    // Renvoyer à un client qui se reconnecte les messages de ses salons postérieurs à since ;
+    // retourne le numéro jusqu'auquel tout est couvert, ou -1 s'il faut se rabattre sur l'historique
+    long replayMissed(ClientConnection client, String clientEpoch, long since, Set<String> roomNames) {
+        if (replay == null || !epoch.equals(clientEpoch)) {
+            return -1;
+        }
+        List<OutboundMessage> missed = new ArrayList<>();
+        long last = replay.since(since, roomNames, client.getUsername(), missed);
+        if (last < 0) {
+            return -1;
+        }
+        for (OutboundMessage message : missed) {
+            client.send(message);
+        }
+        metrics.replayed(missed.size());
+        return last;
+    }
+
+    // Envoyer un message privé à un utilisateur spécifique, ou le garder jusqu'à son retour
+    public PrivateDelivery sendPrivateMessage(String fromUsername, String toUsername, String message) {
+        return sendPrivateMessage(fromUsername, toUsername, message, 0);
+    }
+
+    // Idem, clientId (s'il est positif) étant le numéro donné par l'expéditeur à son /msg, rappelé dans l'accusé d'envoi
+    public PrivateDelivery sendPrivateMessage(String fromUsername, String toUsername, String message, long clientId) {
+        long start = System.nanoTime();
+        ClientConnection client = usersByName.get(toUsername);
+        if (client != null) {
+            long sequence = deliverPrivate(client, fromUsername, message);
+            if (sequence > 0) {
+                // Numéro auquel se rapporteront les accusés de réception et de lecture
+                sendReceipts(fromUsername, (clientId > 0 ? "sent:" + clientId : "sent") + " " + sequence + " " + toUsername);
             }
+        } else if (cluster == null || !cluster.sendPrivate(fromUsername, toUsername, message)) {
+            // Ni ici, ni sur un autre nœud
+            return storePrivate(fromUsername, toUsername, message);
+        }
+        metrics.privateRoute(System.nanoTime() - start);
+        ChatLogger.getInstance().logMessage(fromUsername + " -> " + toUsername, message);
+        return PrivateDelivery.SENT;
+    }
+
+    // Garder un message privé pour un utilisateur déjà venu, remis d'un bloc à sa prochaine connexion
+    private PrivateDelivery storePrivate(String fromUsername, String toUsername, String message) {
+        if (inbox == null || !inbox.isKnown(toUsername)) {
+            return PrivateDelivery.UNKNOWN;
+        }
+        try {
+            if (!inbox.add(toUsername, System.currentTimeMillis(), fromUsername, message)) {
+                metrics.inboxRejected();
+                return PrivateDelivery.INBOX_FULL;
+            }
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur d'écriture dans les boîtes des absents : " + e.getMessage());
+            return PrivateDelivery.INBOX_FULL;
+        }
+        metrics.inboxStored();
+        ChatLogger.getInstance().logMessage(fromUsername + " -> " + toUsername + " (absent)", message);
+        // Le destinataire a pu s'inscrire entre-temps, après avoir relevé sa boîte
+        ClientConnection client = usersByName.get(toUsername);
+        if (client != null) {
+            deliverInbox(client);
+        }
+        return PrivateDelivery.STORED;
+    }
+
+    // Remettre à un client qui vient de s'inscrire les messages privés reçus pendant son absence,
+    // en un seul bloc, avec les accusés d'envoi pour les expéditeurs connectés ici
+    void deliverInbox(ClientConnection client) {
+        if (inbox == null) {
+            return;
+        }
+        List<OfflineInbox.Message> messages;
+        try {
+            messages = inbox.take(client.getUsername());
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur de lecture des boîtes des absents : " + e.getMessage());
+            return;
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        String since = LocalDateTime.ofInstant(Instant.ofEpochMilli(messages.get(0).getTimestamp()), ZoneId.systemDefault())
+                .format(HISTORY_TIME_FORMAT);
+        client.sendMessage("📬 " + messages.size() + " message(s) privé(s) reçu(s) pendant votre absence (depuis le "
+                + since + ")");
+        Map<String, StringBuilder> receipts = new LinkedHashMap<>();
+        for (OfflineInbox.Message message : messages) {
+            long sequence = deliverPrivate(client, message.getSender(), message.getText());
+            if (sequence > 0) {
+                StringBuilder lines = receipts.computeIfAbsent(message.getSender(), sender -> new StringBuilder());
+                if (lines.length() > 0) {
+                    lines.append('\n');
+                }
+                lines.append("sent ").append(sequence).append(' ').append(client.getUsername());
+            }
+        }
+        for (Map.Entry<String, StringBuilder> entry : receipts.entrySet()) {
+            sendReceipts(entry.getKey(), entry.getValue().toString());
+        }
+        metrics.inboxDelivered(messages.size());
+    }
+
+    // Remettre un message privé, retourne son numéro de séquence (0 sans tampon de reprise)
+    private long deliverPrivate(ClientConnection client, String fromUsername, String message) {
+        String line = "PRIVATE:" + fromUsername + ":" + message;
+        String payload = fromUsername + "\n" + message;
+        OutboundMessage encoded = replay == null ? encode(FrameType.PRIVATE, line, payload)
+                : replay.append(null, fromUsername, sequence -> OutboundMessage.encode(FrameType.PRIVATE, line, payload,
+                        sequence, mode == ServerMode.NIO, compressor));
+        client.send(encoded);
+        return encoded.getSequence();
+    }
+
+    // Annoncer un fichier de sender pour un utilisateur connecté ici ; sender l'envoie ensuite sur le port de données
+    void offerFile(ClientConnection sender, String toUsername, long size, String name) {
+        if (transfers == null) {
+            sender.sendMessage("❌ Transferts de fichiers désactivés sur ce serveur");
+            return;
+        }
+        ClientConnection recipient = usersByName.get(toUsername);
+        if (!sender.acceptsFiles()) {
+            sender.sendMessage("❌ Votre client ne sait pas envoyer de fichiers");
+        } else if (recipient == null) {
+            sender.sendMessage("❌ Utilisateur '" + toUsername + "' introuvable ou déconnecté");
+        } else if (!recipient.acceptsFiles()) {
+            sender.sendMessage("❌ " + toUsername + " ne peut pas recevoir de fichiers");
+        } else if (size > transfers.getMaxBytes()) {
+            sender.sendMessage("❌ Fichier trop volumineux (" + transfers.getMaxBytes() / (1024 * 1024) + " Mo au plus)");
+        } else {
+            Transfer transfer = transfers.offer(sender.getUsername(), toUsername, fileName(name), size);
+            sender.send(transferMessage("upload", transfer, transfer.getUploadToken(), toUsername));
+        }
+    }
+
+    // Nom sans chemin ni caractère de contrôle, pour le destinataire
+    private static String fileName(String name) {
+        String base = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        base = base.replaceAll("\\p{Cntrl}", "_");
+        if (base.isEmpty() || base.equals(".") || base.equals("..")) {
+            base = "fichier";
+        }
+        return base.length() > 255 ? base.substring(base.length() - 255) : base;
+    }
+
+    private OutboundMessage transferMessage(String direction, Transfer transfer, String token, String peer) {
+        String payload = direction + "\n" + transfer.getId() + "\n" + token + "\n" + transfers.getPort() + "\n"
+                + transfer.getSize() + "\n" + peer + "\n" + transfer.getName();
+        return encode(FrameType.TRANSFER, "TRANSFER:" + payload.replace('\n', ':'), payload);
+    }
+
+    // Prévenir un utilisateur connecté ici, s'il l'est encore
+    private void notifyUser(String username, String message) {
+        ClientConnection client = usersByName.get(username);
+        if (client != null) {
+            client.sendMessage(message);
+        }
+    }
+
+    // Expéditeur d'un message privé numéroté, s'il est encore connu
+    String privateSender(long sequence) {
+        return replay != null ? replay.privateSender(sequence) : null;
+    }
+
+    // Prévenir l'expéditeur de messages privés de leur envoi, remise ou lecture (une ligne par évènement)
+    void sendReceipts(String sender, String lines) {
+        ClientConnection client = usersByName.get(sender);
+        if (client != null && client.acceptsReceipts()) {
+            client.send(encode(FrameType.RECEIPT, lines, lines));
+        }
+    }
+
+    // Pseudos d'un salon connectés sur les autres nœuds du cluster
+    Collection<String> remoteMembers(ChatRoom room) {
+        return cluster != null ? cluster.remoteMembers(room.getName()) : Collections.emptyList();
+    }
+
+    // Encoder une ligne pour les files d'envoi (tampon direct en mode NIO)
+    public OutboundMessage encode(String message) {
+        return OutboundMessage.encode(message, mode == ServerMode.NIO, compressor);
+    }
+
+    // Encoder un message typé (présence, privé) : ligne pour les clients texte, charge utile pour les trames
+    public OutboundMessage encode(byte type, String line, String payload) {
+        return OutboundMessage.encode(type, line, payload, mode == ServerMode.NIO, compressor);
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Contexte TLS des connexions clientes, null si elles sont en clair
+    ServerTls getTls() {
+        return tls;
+    }
+
+    // Messages en attente dans l'ensemble des files d'envoi
+    private long getOutboundBacklog() {
+        long backlog = 0;
+        for (ClientConnection client : clients) {
+            backlog += client.getOutboundQueue().size();
+        }
+        return backlog;
+    }
+
+    // Exécuter une tâche après un délai sur le planificateur du serveur
+    void schedule(Runnable task, long delayNanos) {
+        try {
+            scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Serveur en cours d'arrêt
+        }
+    }
+
+    // Exécuter la tâche d'écriture d'un client bloquant sur le pool du serveur
+    void executeWriter(Runnable writerTask) {
+        try {
+            threadPool.execute(writerTask);
+        } catch (RejectedExecutionException e) {
+            // Serveur en cours d'arrêt, les messages restants sont abandonnés
         }
-        return false;
     }
 
     // Retirer un client déconnecté
-    public void removeClient(ClientHandler client) {
+    public void removeClient(ClientConnection client) {
         clients.remove(client);
         ChatLogger.getInstance().logServerEvent(" Client déconnecté (Clients connectés : " + clients.size() + ")");
     }
 
-    // Enregistrer un nouveau pseudo, retourne false s'il est déjà pris
-    public boolean registerUsername(String username) {
-        return usernames.add(username);
+    // Enregistrer un nouveau pseudo pour cette connexion, retourne false s'il est déjà pris
+    // (ici ou, en cluster, sur un autre nœud)
+    public boolean registerUsername(String username, ClientConnection client) {
+        if (usersByName.putIfAbsent(username, client) != null) {
+            return false;
+        }
+        if (cluster != null && !cluster.claim(username)) {
+            usersByName.remove(username, client);
+            return false;
+        }
+        if (inbox != null) {
+            inbox.remember(username);
+        }
+        return true;
+    }
+
+    // Reprise d'une session dont l'ancienne connexion n'est pas encore vue comme coupée (jeton identique) :
+    // l'ancienne est fermée et le pseudo passe à la nouvelle
+    boolean takeOver(String username, String token, ClientConnection client) {
+        ClientConnection previous = usersByName.get(username);
+        if (previous == null || !token.equals(previous.getSessionToken())) {
+            return false;
+        }
+        ChatLogger.getInstance().logServerEvent("Reprise de session de " + username + ", ancienne connexion fermée");
+        previous.disconnect();
+        return registerUsername(username, client);
+    }
+
+    // Jeton aléatoire (époque du serveur, sessions clientes)
+    static String randomToken() {
+        byte[] bytes = new byte[16];
+        TOKENS.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+
+    // Supprimer un pseudo lors de la déconnexion (seulement s'il appartient bien à cette connexion)
+    public void unregisterUsername(String username, ClientConnection client) {
+        if (username != null && usersByName.remove(username, client) && cluster != null) {
+            cluster.release(username);
+        }
     }
 
-    // Supprimer un pseudo lors de la déconnexion
-    public void unregisterUsername(String username) {
-        if (username != null) {
-            usernames.remove(username);
+    // Étapes des transferts de fichiers, annoncées à l'expéditeur et au destinataire
+    private class TransferEvents implements TransferListener {
+        @Override
+        public void uploaded(Transfer transfer) {
+            metrics.fileUploaded(transfer.getSize());
+            ClientConnection recipient = usersByName.get(transfer.getTo());
+            if (recipient == null) {
+                transfers.cancel(transfer, transfer.getTo() + " s'est déconnecté");
+                return;
+            }
+            recipient.send(transferMessage("download", transfer, transfer.getDownloadToken(), transfer.getFrom()));
+            notifyUser(transfer.getFrom(), "📤 « " + transfer.getName() + " » envoyé, en attente de " + transfer.getTo());
+        }
+
+        @Override
+        public void downloaded(Transfer transfer) {
+            metrics.fileDownloaded(transfer.getSize());
+            notifyUser(transfer.getFrom(), "✅ " + transfer.getTo() + " a reçu « " + transfer.getName() + " »");
+        }
+
+        @Override
+        public void failed(Transfer transfer, String reason) {
+            metrics.fileFailed();
+            notifyUser(transfer.getFrom(), "❌ Envoi de « " + transfer.getName() + " » à " + transfer.getTo()
+                    + " abandonné : " + reason);
+            if (transfer.isUploaded()) {
+                notifyUser(transfer.getTo(), "❌ Fichier « " + transfer.getName() + " » de " + transfer.getFrom()
+                        + " abandonné : " + reason);
+            }
+        }
+    }
+
+    // Événements des autres nœuds du cluster, appliqués aux clients de ce serveur
+    private class ClusterEvents implements ClusterListener {
+        @Override
+        public void remoteBroadcast(String roomName, String sender, String message) {
+            ChatRoom room = findRoom(roomName);
+            if (room != null) {
+                room.broadcast(sequenced(room, sender, message), null);
+            }
+            // Chaque nœud garde tout l'historique du salon par défaut, pour le rejouer à ses propres clients
+            if (sender != null && message.contains(": ") && ChatRoom.DEFAULT_ROOM.equals(roomName)) {
+                appendHistory(sender, message);
+            }
+        }
+
+        @Override
+        public void remotePrivate(String from, String to, String message) {
+            ClientConnection client = usersByName.get(to);
+            if (client != null) {
+                deliverPrivate(client, from, message);
+            }
+        }
+
+        @Override
+        public void remotePresence(String roomName, String username, boolean joined) {
+            ChatRoom room = findRoom(roomName);
+            if (room == null) {
+                return;
+            }
+            if (joined) {
+                room.getPresence().userJoined(username);
+            } else {
+                room.getPresence().userLeft(username);
+            }
+        }
+
+        @Override
+        public void usernameLost(String username) {
+            ClientConnection client = usersByName.get(username);
+            if (client != null) {
+                client.evict("❌ Ce nom d'utilisateur est déjà utilisé sur un autre serveur. Veuillez en choisir un autre.");
+            }
         }
     }
 
@@ -0,0 +1,511 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.protocol.SequenceRanges;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base commune à toutes les connexions clientes, quel que soit le transport
+ * (thread bloquant ou boucle NIO). Contient le protocole texte du chat :
+ * pseudo sur la première ligne, puis messages, /msg, commandes de salons, /search et /quit.
+ */
+public abstract class ClientConnection {
+    // Verdicts de admitLine() (un délai positif signifie : traiter, puis suspendre la lecture)
+    protected static final long ADMIT = 0;
+    protected static final long REJECT = -1;
+    protected static final long CLOSE = -2;
+
+    private static final long WARNING_INTERVAL_NANOS = 1_000_000_000L;
+    // Délai laissé à un dernier message avant de couper la connexion
+    private static final long EVICT_DELAY_NANOS = 200_000_000L;
+
+    protected final ChatServer server;
+    protected String username;
+    protected boolean registered = false;
+    // Protocole binaire négocié à la connexion (sinon lignes de texte)
+    protected volatile boolean binary = false;
+    // Le client accepte les trames compressées (version de protocole négociée suffisante)
+    protected volatile boolean compression = false;
+    // Numéro donné par le client à la ligne en cours (numéro de séquence de sa trame TEXT), 0 sinon
+    protected long lineId = 0;
+    protected final OutboundQueue<OutboundMessage> outbound;
+    private final Set<ChatRoom> rooms = ConcurrentHashMap.newKeySet();
+    private volatile ChatRoom currentRoom;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicBoolean aborted = new AtomicBoolean(false);
+    // Limites de débit en entrée (thread de lecture uniquement)
+    private final RateLimiter rateLimiter;
+    private final FloodAction floodAction;
+    protected final int maxLineLength;
+    private long lastWarning = System.nanoTime() - WARNING_INTERVAL_NANOS;
+    // Reprise de session : jeton remis à ce client, et ce qu'il a présenté en se reconnectant (avant son pseudo)
+    private final String sessionToken = ChatServer.randomToken();
+    private String resumeEpoch;
+    private String resumeToken;
+    private long resumeSequence = -1;
+    // Messages numérotés en attente d'accusé (null si le client n'en envoie pas : texte, ou binaire ancien)
+    private volatile DeliveryWindow deliveries;
+    // Le client sait échanger des fichiers par le port de données
+    private volatile boolean files = false;
+
+    protected ClientConnection(ChatServer server) {
+        this.server = server;
+        ServerConfig config = server.getConfig();
+        this.outbound = new OutboundQueue<>(config.getOutboundQueueCapacity(), config.getOverflowPolicy());
+        this.maxLineLength = config.getMaxLineLength();
+        this.rateLimiter = new RateLimiter(config.getRateLimitMessages(), config.getRateLimitBytes(), maxLineLength);
+        this.floodAction = config.getFloodAction();
+    }
+
+    // Traiter la première ligne reçue (le pseudo), retourne false si la connexion est refusée
+    protected boolean handleLogin(String name) {
+        server.getMetrics().messageReceived();
+        username = name;
+
+        if (username == null || username.trim().isEmpty()) {
+            username = "Anonyme_" + getRemotePort();
+        }
+
+        // Vérifier l'unicité du pseudo ; un client qui se reconnecte peut reprendre sa propre session
+        if (!server.registerUsername(username, this)
+                && !(resumeToken != null && server.takeOver(username, resumeToken, this))) {
+            sendMessage("❌ Ce nom d'utilisateur est déjà utilisé. Veuillez en choisir un autre.");
+            ChatLogger.getInstance().logError("Tentative de connexion avec un pseudo déjà utilisé : " + username);
+            return false;
+        }
+        registered = true;
+
+        ChatLogger.getInstance().logConnection(username, getRemoteAddress());
+        if (binary) {
+            send(server.resumeToken(sessionToken));
+        }
+        // Client qui se reconnecte : seulement ce qu'il a manqué dans ses salons ; sinon ce qui a été dit avant l'arrivée
+        Set<String> resumedRooms = server.resumedRooms(resumeToken);
+        long replayedUpTo = resumeSequence >= 0 ? server.replayMissed(this, resumeEpoch, resumeSequence, resumedRooms) : -1;
+        if (replayedUpTo >= 0) {
+            server.getMetrics().resumed();
+        } else {
+            if (resumeSequence >= 0) {
+                server.getMetrics().resumeFallback();
+            }
+            server.sendHistory(this);
+        }
+        // Messages privés reçus pendant l'absence, après l'historique pour rester en fin de fil
+        server.deliverInbox(this);
+        System.out.println("" + username + " a rejoint le chat");
+
+        // Tout le monde commence dans le salon par défaut ; une session reprise retrouve aussi les siens
+        server.joinRoom(this, ChatRoom.DEFAULT_ROOM);
+        currentRoom = server.getDefaultRoom();
+        for (String roomName : resumedRooms) {
+            if (!roomName.equals(ChatRoom.DEFAULT_ROOM) && server.joinRoom(this, roomName)) {
+                ChatRoom room = server.findRoom(roomName);
+                server.broadcast(room, " " + username + " a rejoint " + room.getDisplayName(), this);
+            }
+        }
+        if (replayedUpTo >= 0) {
+            // Messages numérotés entre le rejeu et l'entrée dans les salons (le client ignore un éventuel doublon)
+            server.replayMissed(this, resumeEpoch, replayedUpTo, resumedRooms);
+        }
+        server.broadcast(" " + username + " a rejoint le chat", this);
+        return true;
+    }
+
+    // Trame RESUME reçue avant le pseudo : "epoque\njeton\ndernière séquence reçue" (ignorée si mal formée)
+    protected void requestResume(String payload) {
+        String[] parts = payload.split("\n", 3);
+        if (parts.length != 3) {
+            return;
+        }
+        try {
+            resumeSequence = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        resumeEpoch = parts[0];
+        resumeToken = parts[1];
+    }
+
+    String getSessionToken() {
+        return sessionToken;
+    }
+
+    // Traiter une ligne reçue après l'inscription, retourne false si le client demande à quitter
+    protected boolean handleLine(String message) {
+        server.getMetrics().messageReceived();
+        if (message.trim().isEmpty()) {
+            return true;
+        }
+
+        // Commandes spéciales
+        if (message.equalsIgnoreCase("/quit")) {
+            return false;
+        }
+
+        // Message privé : format /msg username message
+        if (message.startsWith("/msg ")) {
+            String[] parts = message.substring(5).split(" ", 2);
+            if (parts.length == 2) {
+                String targetUser = parts[0];
+                String privateMsg = parts[1];
+                switch (server.sendPrivateMessage(username, targetUser, privateMsg, lineId)) {
+                    case SENT:
+                        // Confirmer à l'expéditeur que le message a été envoyé
+                        sendMessage("✅ Message privé envoyé à " + targetUser);
+                        break;
+                    case STORED:
+                        sendMessage("📪 " + targetUser + " est absent : message gardé, il lui sera remis à sa prochaine connexion");
+                        break;
+                    case INBOX_FULL:
+                        sendMessage("❌ La boîte de " + targetUser + " est pleine, message non envoyé");
+                        break;
+                    default:
+                        sendMessage("❌ Utilisateur '" + targetUser + "' introuvable ou déconnecté");
+                }
+                return true;
+            }
+        }
+
+        // Salons : /join salon, /leave [salon], /room salon message, /rooms
+        if (message.startsWith("/join ")) {
+            joinRoom(message.substring(6).trim());
+            return true;
+        }
+        if (message.equals("/leave") || message.startsWith("/leave ")) {
+            leaveRoom(message.substring(6).trim());
+            return true;
+        }
+        if (message.startsWith("/room ")) {
+            String[] parts = message.substring(6).split(" ", 2);
+            ChatRoom room = server.findRoom(parts[0]);
+            if (room == null || !room.isMember(this)) {
+                sendMessage("❌ Vous n'êtes pas dans le salon #" + parts[0]);
+            } else if (parts.length == 2) {
+                sendToRoom(room, parts[1]);
+            }
+            return true;
+        }
+        if (message.equals("/rooms")) {
+            listRooms();
+            return true;
+        }
+        // Fichier : /send destinataire taille nom (envoyé par le client, qui connaît la taille)
+        if (message.startsWith("/send ")) {
+            String[] parts = message.substring(6).split(" ", 3);
+            long size = -1;
+            if (parts.length == 3) {
+                try {
+                    size = Long.parseLong(parts[1]);
+                } catch (NumberFormatException e) {
+                    // Traité comme une commande invalide
+                }
+            }
+            if (size <= 0 || parts[2].trim().isEmpty()) {
+                sendMessage("❌ Usage : /send <utilisateur> <fichier>");
+            } else {
+                server.offerFile(this, parts[0], size, parts[2].trim());
+            }
+            return true;
+        }
+        // Recherche dans l'historique : /search mots
+        if (message.startsWith("/search ")) {
+            String query = message.substring(8).trim();
+            if (query.isEmpty()) {
+                sendMessage("❌ Usage : /search <mots>");
+            } else {
+                server.search(this, query);
+            }
+            return true;
+        }
+
+        ChatRoom room = currentRoom;
+        if (room == null) {
+            sendMessage("❌ Vous n'êtes dans aucun salon, utilisez /join <salon>");
+            return true;
+        }
+        sendToRoom(room, message);
+        return true;
+    }
+
+    // Trame ACK (messages reçus) ou READ (messages privés lus) d'un client inscrit ; les expéditeurs
+    // des messages privés concernés sont prévenus, une trame RECEIPT par expéditeur
+    protected void acknowledge(Frame frame) {
+        DeliveryWindow window = deliveries;
+        if (window == null || !registered) {
+            return;
+        }
+        try {
+            frame = inflate(frame);
+        } catch (IOException e) {
+            return;
+        }
+        boolean read = frame.getType() == FrameType.READ;
+        Map<String, StringBuilder> receipts = new HashMap<>();
+        int[] counts = new int[1];
+        SequenceRanges.decode(frame.getText(), sequence -> {
+            int result = read ? (window.read(sequence) ? DeliveryWindow.PRIVATE : DeliveryWindow.NONE)
+                    : window.acknowledge(sequence);
+            if (result == DeliveryWindow.NONE) {
+                return;
+            }
+            counts[0]++;
+            String sender = result == DeliveryWindow.PRIVATE ? server.privateSender(sequence) : null;
+            if (sender == null) {
+                return;
+            }
+            StringBuilder lines = receipts.computeIfAbsent(sender, name -> new StringBuilder());
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+            lines.append(read ? "read " : "delivered ").append(sequence).append(' ').append(username);
+        });
+        if (read) {
+            server.getMetrics().read(counts[0]);
+        } else {
+            server.getMetrics().acknowledged(counts[0]);
+        }
+        for (Map.Entry<String, StringBuilder> entry : receipts.entrySet()) {
+            server.sendReceipts(entry.getKey(), entry.getValue().toString());
+        }
+    }
+
+    // Le client reçoit les accusés de ses messages privés
+    boolean acceptsReceipts() {
+        return deliveries != null;
+    }
+
+    boolean acceptsFiles() {
+        return files;
+    }
+
+    // Version retenue pour un client binaire : la plus petite des deux, qui décide de la compression
+    protected byte negotiateVersion(byte clientVersion) {
+        byte version = (byte) Math.min(clientVersion, FrameCodec.VERSION);
+        compression = version >= FrameCodec.COMPRESSION_VERSION;
+        if (version >= FrameCodec.ACK_VERSION) {
+            deliveries = new DeliveryWindow();
+        }
+        files = version >= FrameCodec.TRANSFER_VERSION;
+        return version;
+    }
+
+    // Décompresser une trame reçue, dans la limite de longueur des lignes
+    protected Frame inflate(Frame frame) throws IOException {
+        if (!frame.isCompressed()) {
+            return frame;
+        }
+        long start = System.nanoTime();
+        Frame inflated = FrameCodec.inflate(frame, maxLineLength);
+        server.getMetrics().decompressed(frame.getPayload().length, inflated.getPayload().length, System.nanoTime() - start);
+        return inflated;
+    }
+
+    // Contrôler le débit avant de traiter une ligne de bytes octets reçue après l'inscription
+    protected long admitLine(int bytes) {
+        long now = System.nanoTime();
+        long delay = rateLimiter.delayFor(bytes, now);
+        if (delay == 0 || floodAction == FloodAction.THROTTLE) {
+            rateLimiter.consume(bytes);
+            if (delay > 0) {
+                server.getMetrics().floodThrottled();
+            }
+            return delay;
+        }
+        if (floodAction == FloodAction.WARN) {
+            server.getMetrics().floodDropped();
+            warn(now, "⚠ Vous envoyez trop de messages, message ignoré");
+            return REJECT;
+        }
+        server.getMetrics().floodDisconnected();
+        ChatLogger.getInstance().logError("Client trop bavard, déconnexion : " + username);
+        sendMessage("❌ Trop de messages, vous êtes déconnecté");
+        return CLOSE;
+    }
+
+    // Ligne ou trame trop longue (déjà jetée), retourne false si la connexion doit être fermée
+    protected boolean rejectOversized(long length) {
+        server.getMetrics().oversizedLine();
+        if (!registered || floodAction == FloodAction.DISCONNECT) {
+            ChatLogger.getInstance().logError("Message trop long (" + length + " octets), déconnexion : "
+                    + (username != null ? username : getRemoteAddress()));
+            sendMessage("❌ Message trop long (" + maxLineLength + " octets maximum), vous êtes déconnecté");
+            return false;
+        }
+        warn(System.nanoTime(), "⚠ Message trop long (" + maxLineLength + " octets maximum), message ignoré");
+        return true;
+    }
+
+    // Au plus un avertissement par seconde, pour ne pas répondre à un flot par un autre
+    private void warn(long now, String message) {
+        if (now - lastWarning >= WARNING_INTERVAL_NANOS) {
+            lastWarning = now;
+            sendMessage(message);
+        }
+    }
+
+    private void sendToRoom(ChatRoom room, String message) {
+        System.out.println("[" + username + "] " + message);
+        // Le logger sera appelé dans broadcast()
+        String line = username + ": " + message;
+        server.broadcast(room, room.isDefault() ? line : "[" + room.getDisplayName() + "] " + line, this);
+    }
+
+    private void joinRoom(String name) {
+        if (!ChatRoom.isValidName(name)) {
+            sendMessage("❌ Nom de salon invalide (lettres, chiffres, _ et -, 32 caractères max)");
+            return;
+        }
+        boolean joined = server.joinRoom(this, name);
+        ChatRoom room = server.findRoom(name);
+        currentRoom = room;
+        if (joined) {
+            server.broadcast(room, " " + username + " a rejoint " + room.getDisplayName(), this);
+        }
+        sendMessage("✅ Salon actuel : " + room.getDisplayName());
+    }
+
+    private void leaveRoom(String name) {
+        ChatRoom room = name.isEmpty() ? currentRoom : server.findRoom(name);
+        if (room == null || !room.isMember(this)) {
+            sendMessage("❌ Vous n'êtes pas dans ce salon");
+            return;
+        }
+        server.broadcast(room, " " + username + " a quitté " + room.getDisplayName(), this);
+        server.leaveRoom(this, room);
+        if (currentRoom == room) {
+            currentRoom = rooms.contains(server.getDefaultRoom()) ? server.getDefaultRoom()
+                    : rooms.stream().findFirst().orElse(null);
+        }
+        sendMessage("✅ Vous avez quitté " + room.getDisplayName()
+                + (currentRoom != null ? ", salon actuel : " + currentRoom.getDisplayName() : ""));
+    }
+
+    private void listRooms() {
+        StringBuilder list = new StringBuilder("Salons :");
+        for (ChatRoom room : server.getRooms()) {
+            list.append(" ").append(room.getDisplayName()).append(" (").append(room.size()).append(")");
+        }
+        sendMessage(list.toString());
+    }
+
+    void addRoom(ChatRoom room) {
+        rooms.add(room);
+    }
+
+    void removeRoom(ChatRoom room) {
+        rooms.remove(room);
+    }
+
+    // Déconnecter proprement le client (sans effet si déjà fait)
+    public void disconnect() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (registered && username != null) {
+                ChatLogger.getInstance().logDisconnection(username);
+                System.out.println(" " + username + " s'est déconnecté");
+                server.unregisterUsername(username, this);
+                if (binary) {
+                    server.rememberRooms(sessionToken, rooms);
+                }
+                // Quitter tous les salons (et mettre à jour leurs listes d'utilisateurs) ;
+                // pendant un arrêt progressif tout le monde part, inutile de l'annoncer à chacun
+                for (ChatRoom room : rooms) {
+                    if (!server.isDraining()) {
+                        server.broadcast(room, " " + username + " a quitté "
+                                + (room.isDefault() ? "le chat" : room.getDisplayName()), this);
+                    }
+                    server.leaveRoom(this, room);
+                }
+            }
+
+            server.removeClient(this);
+            DeliveryWindow window = deliveries;
+            if (window != null) {
+                server.getMetrics().unacknowledged(window.getPendingCount());
+            }
+            if (outbound.getDroppedCount() > 0) {
+                ChatLogger.getInstance().logServerEvent("Messages non délivrés à " + username + " : "
+                        + outbound.getDroppedCount() + " sur " + (outbound.getQueuedCount() + outbound.getDroppedCount()));
+            }
+            closeTransport();
+
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur lors de la déconnexion de " + username + " : " + e.getMessage());
+        }
+    }
+
+    // Déconnecter le client depuis un autre thread, après lui avoir envoyé la raison
+    void evict(String reason) {
+        sendMessage(reason);
+        server.schedule(this::abortSlowConsumer, EVICT_DELAY_NANOS);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    // Getter pour le username (utilisé par ChatServer pour les logs)
+    public String getUsername() {
+        return username;
+    }
+
+    // Envoyer un message à ce client : mis en file, écrit ensuite par son propre écrivain
+    public void sendMessage(String message) {
+        send(server.encode(message));
+    }
+
+    // Envoyer un message déjà encodé (partagé entre plusieurs destinataires)
+    public void send(OutboundMessage message) {
+        if (isClosed()) {
+            return;
+        }
+        OutboundMessage.recordSend(message, binary, compression);
+        if (!outbound.offer(message)) {
+            if (!aborted.compareAndSet(false, true)) {
+                return;
+            }
+            ChatLogger.getInstance().logError("Client trop lent, déconnexion : " + username
+                    + " (" + outbound.size() + " messages en attente)");
+            abortSlowConsumer();
+            return;
+        }
+        DeliveryWindow window = deliveries;
+        if (window != null && message.getSequence() > 0) {
+            int expired = window.sent(message.getSequence(), message.getType() == FrameType.PRIVATE);
+            if (expired > 0) {
+                server.getMetrics().unacknowledged(expired);
+            }
+        }
+        scheduleWrite();
+    }
+
+    public OutboundQueue<OutboundMessage> getOutboundQueue() {
+        return outbound;
+    }
+
+    // Réveiller l'écrivain de cette connexion pour vider la file d'envoi
+    protected abstract void scheduleWrite();
+
+    // Reste-t-il des octets à écrire (file d'envoi ou message en cours d'écriture)
+    protected abstract boolean hasPendingWrites();
+
+    // Couper la connexion d'un client qui ne lit plus assez vite (appelé depuis le thread expéditeur)
+    protected abstract void abortSlowConsumer();
+
+    public abstract String getRemoteAddress();
+
+    protected abstract int getRemotePort();
+
+    // Fermer les flux et la socket sous-jacente
+    protected abstract void closeTransport() throws IOException;
+}
@@ -1,126 +1,296 @@
 package org.example.socketproject.server;
 
-import java.io.BufferedReader;
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.protocol.OversizedMessageException;
+import org.example.socketproject.server.metrics.ServerMetrics;
+import org.example.socketproject.server.tls.ServerTls;
+
+import javax.net.ssl.SSLSocket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Connexion en mode bloquant : un thread par client pour la lecture, une tâche d'écriture à la demande
+public class ClientHandler extends ClientConnection implements Runnable {
+    // Tampon d'écriture : les messages en file partent ensemble, vidé quand la file est vide
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+    // Délai maximal pendant lequel un message reste dans le tampon si la file ne se vide pas
+    private static final long FLUSH_BUDGET_NANOS = 200_000;
+    // Délai pour terminer la poignée de main TLS
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    // Attente maximale des derniers messages (refus, avertissement) avant de fermer
+    private static final long CLOSE_FLUSH_MILLIS = 2_000;
 
-public class ClientHandler implements Runnable {
     private Socket socket;
-    private ChatServer server;
-    private BufferedReader reader;
-    private PrintWriter writer;
-    private String username;
-    private boolean registered = false;
+    // Socket TCP sous la socket TLS (la même sans TLS), fermée directement quand un écrivain peut être bloqué
+    private final Socket tcp;
+    private BoundedLineReader reader;
+    private DataInputStream frameInput;
+    private int lastLineBytes;
+    private volatile OutputStream writer;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
 
     public ClientHandler(Socket socket, ChatServer server) {
+        super(server);
         this.socket = socket;
-        this.server = server;
+        this.tcp = socket;
     }
 
     @Override
     public void run() {
         try {
-            // Initialiser les flux de communication
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            ServerTls tls = server.getTls();
+            if (tls != null) {
+                handshake(tls);
+            }
+            // Initialiser les flux de communication selon le protocole choisi par le client
+            negotiateProtocol();
+            writer = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+            // Des messages ont pu être mis en file avant que le writer existe
+            scheduleWrite();
 
             // Lire le nom d'utilisateur (envoyé par le client)
-            username = reader.readLine();
-
-            if (username == null || username.trim().isEmpty()) {
-                username = "Anonyme_" + socket.getPort();
+            String name;
+            try {
+                name = readLine();
+            } catch (OversizedMessageException e) {
+                rejectOversized(e.getLength());
+                flushBeforeClose();
+                return;
             }
-
-            // Vérifier l'unicité du pseudo
-            if (!server.registerUsername(username)) {
-                writer.println("❌ Ce nom d'utilisateur est déjà utilisé. Veuillez en choisir un autre.");
-                ChatLogger.getInstance().logError("Tentative de connexion avec un pseudo déjà utilisé : " + username);
+            if (!handleLogin(name)) {
+                // Envoyer le message de refus avant de fermer
+                flushBeforeClose();
                 return; // on quitte run(), finally appellera disconnect()
             }
-            registered = true;
-
-            String clientIP = socket.getInetAddress().getHostAddress();
-            ChatLogger.getInstance().logConnection(username, clientIP);
-            System.out.println("" + username + " a rejoint le chat");
-            server.broadcast(" " + username + " a rejoint le chat", this);
-            
-            // Envoyer la liste des utilisateurs connectés à tous les clients
-            server.broadcastUserList();
-            
+
             // Boucle de réception des messages
-            String message;
-            while ((message = reader.readLine()) != null) {
-                if (message.trim().isEmpty()) {
+            while (true) {
+                String message;
+                try {
+                    message = readLine();
+                } catch (OversizedMessageException e) {
+                    if (rejectOversized(e.getLength())) {
+                        continue;
+                    }
+                    flushBeforeClose();
+                    break;
+                }
+                if (message == null) {
+                    break;
+                }
+                long verdict = admitLine(lastLineBytes);
+                if (verdict == REJECT) {
                     continue;
                 }
-
-                // Commandes spéciales
-                if (message.equalsIgnoreCase("/quit")) {
+                if (verdict == CLOSE) {
+                    flushBeforeClose();
                     break;
                 }
-                
-                // Message privé : format /msg username message
-                if (message.startsWith("/msg ")) {
-                    String[] parts = message.substring(5).split(" ", 2);
-                    if (parts.length == 2) {
-                        String targetUser = parts[0];
-                        String privateMsg = parts[1];
-                        if (server.sendPrivateMessage(username, targetUser, privateMsg)) {
-                            // Confirmer à l'expéditeur que le message a été envoyé
-                            writer.println("✅ Message privé envoyé à " + targetUser);
-                        } else {
-                            writer.println("❌ Utilisateur '" + targetUser + "' introuvable ou déconnecté");
-                        }
-                        continue;
-                    }
+                if (!handleLine(message)) {
+                    break;
+                }
+                if (verdict > 0) {
+                    // Limite dépassée : ne plus lire ce client le temps de revenir sous la limite
+                    TimeUnit.NANOSECONDS.sleep(verdict);
                 }
-
-                System.out.println("[" + username + "] " + message);
-                // Le logger sera appelé dans broadcast()
-                server.broadcast(username + ": " + message, this);
             }
 
         } catch (IOException e) {
-            ChatLogger.getInstance().logError("Erreur avec le client " + username + " : " + e.getMessage());
+            // Socket fermée par le serveur lui-même (arrêt, éviction) : rien d'anormal
+            if (!isClosed()) {
+                ChatLogger.getInstance().logError("Erreur avec le client " + username + " : " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             disconnect();
         }
     }
 
-    // Envoyer un message à ce client
-    public void sendMessage(String message) {
-        if (writer != null) {
-            writer.println(message);
+    // Poignée de main TLS sur le thread de ce client (jamais sur celui qui accepte les connexions)
+    private void handshake(ServerTls tls) throws IOException {
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        SSLSocket secure = tls.wrap(tcp);
+        socket = secure;
+        try {
+            secure.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            secure.startHandshake();
+            secure.setSoTimeout(0);
+        } catch (IOException e) {
+            server.getMetrics().tlsHandshakeFailed();
+            throw e;
         }
+        server.getMetrics().tlsHandshake(System.nanoTime() - start, ServerTls.isResumed(secure.getSession(), startMillis));
     }
 
-    // Déconnecter proprement le client
-    public void disconnect() {
-        try {
-            if (registered && username != null) {
-                ChatLogger.getInstance().logDisconnection(username);
-                System.out.println(" " + username + " s'est déconnecté");
-                server.broadcast(" " + username + " a quitté le chat", this);
-                server.unregisterUsername(username);
-                // Mettre à jour la liste des utilisateurs
-                server.broadcastUserList();
+    // Un client binaire commence par la poignée de main (premier octet 0), un client texte directement par son pseudo
+    private void negotiateProtocol() throws IOException {
+        InputStream input = new BufferedInputStream(new CountingInputStream(socket.getInputStream()));
+        input.mark(1);
+        int first = input.read();
+        input.reset();
+        if (first != 0) {
+            reader = new BoundedLineReader(input, OutboundMessage.CHARSET, maxLineLength);
+            return;
+        }
+        frameInput = new DataInputStream(input);
+        byte[] handshake = new byte[FrameCodec.HANDSHAKE_SIZE];
+        frameInput.readFully(handshake);
+        if (!FrameCodec.isHandshake(handshake, 0)) {
+            throw new IOException("Poignée de main invalide");
+        }
+        // La réponse part avant tout autre message
+        OutputStream output = socket.getOutputStream();
+        output.write(FrameCodec.handshake(negotiateVersion(FrameCodec.version(handshake, 0))));
+        output.flush();
+        binary = true;
+    }
+
+    // Prochaine ligne du client : ligne de texte, ou charge utile de la prochaine trame TEXT
+    // (OversizedMessageException si elle dépasse la longueur maximale, le flux restant utilisable)
+    private String readLine() throws IOException {
+        if (!binary) {
+            String line = reader.readLine();
+            lastLineBytes = reader.getLastLength();
+            return line;
+        }
+        Frame frame;
+        while ((frame = FrameCodec.read(frameInput, maxLineLength)) != null) {
+            if (frame.getType() == FrameType.TEXT) {
+                frame = inflate(frame);
+                lastLineBytes = frame.getPayload().length;
+                lineId = frame.getSequence();
+                return frame.getText();
+            }
+            if (frame.getType() == FrameType.RESUME && !registered) {
+                requestResume(frame.getText());
+            } else if (frame.getType() == FrameType.ACK || frame.getType() == FrameType.READ) {
+                acknowledge(frame);
             }
+        }
+        return null;
+    }
 
-            server.removeClient(this);
+    @Override
+    protected void scheduleWrite() {
+        if (writer != null && writeScheduled.compareAndSet(false, true)) {
+            server.executeWriter(this::drainOutbound);
+        }
+    }
 
-            if (reader != null) reader.close();
-            if (writer != null) writer.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+    @Override
+    protected boolean hasPendingWrites() {
+        // writeScheduled reste vrai tant que la tâche d'écriture tourne
+        return !outbound.isEmpty() || writeScheduled.get();
+    }
+
+    // Tâche d'écriture : vide la file puis se termine, relancée au prochain message
+    private void drainOutbound() {
+        do {
+            writePending();
+            writeScheduled.set(false);
+        } while (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true));
+    }
 
+    // Laisser la tâche d'écriture envoyer ce qui reste avant de fermer : un seul thread écrit sur la socket
+    private void flushBeforeClose() throws InterruptedException {
+        scheduleWrite();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_FLUSH_MILLIS);
+        while (hasPendingWrites() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    // Vider la file d'envoi (tâche d'écriture uniquement)
+    private void writePending() {
+        try {
+            OutboundMessage message;
+            ServerMetrics metrics = server.getMetrics();
+            long batchStart = 0;
+            while ((message = outbound.poll()) != null) {
+                // Écrit depuis le tableau partagé par tous les destinataires
+                metrics.messageSent();
+                metrics.bytesSent(message.writeTo(writer, binary, compression));
+                if (batchStart == 0) {
+                    batchStart = System.nanoTime();
+                }
+                // Un seul envoi pour tout ce qui attendait ; le premier message n'attend pas plus que le budget
+                if (outbound.isEmpty() || System.nanoTime() - batchStart >= FLUSH_BUDGET_NANOS) {
+                    writer.flush();
+                    batchStart = 0;
+                }
+            }
+        } catch (IOException e) {
+            // Socket fermée ou cassée : le thread de lecture s'en apercevra et appellera disconnect()
+            abortSlowConsumer();
+        }
+    }
+
+    @Override
+    protected void abortSlowConsumer() {
+        // Fermer la socket débloque l'écrivain et fait échouer readLine(), le thread de lecture appellera disconnect()
+        try {
+            tcp.close();
         } catch (IOException e) {
-            ChatLogger.getInstance().logError("Erreur lors de la déconnexion de " + username + " : " + e.getMessage());
+            // Déjà fermée
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    @Override
+    protected int getRemotePort() {
+        return socket.getPort();
+    }
+
+    @Override
+    protected void closeTransport() throws IOException {
+        // Fermer la socket sans vider le tampon d'écriture : il ne reste que ce qu'un échec d'écriture a laissé.
+        // En TLS, la fermeture propre (close_notify) attendrait un écrivain bloqué : la socket TCP est alors fermée directement
+        if (socket != tcp && writeScheduled.get()) {
+            tcp.close();
         }
+        if (frameInput != null) frameInput.close();
+        if (socket != null && !socket.isClosed()) socket.close();
     }
-    
-    // Getter pour le username (utilisé par ChatServer pour les logs)
-    public String getUsername() {
-        return username;
+
+    // Compte les octets reçus de la socket pour les métriques
+    private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                server.getMetrics().bytesReceived(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                server.getMetrics().bytesReceived(n);
+            }
+            return n;
+        }
     }
-}
\ No newline at end of file
+}
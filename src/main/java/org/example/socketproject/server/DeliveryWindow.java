@@ -0,0 +1,102 @@
+package org.example.socketproject.server;
+
+/**
+ * Suivi des messages numérotés envoyés à une connexion : deux bits par numéro
+ * de séquence sur une fenêtre glissante (en attente d'accusé de réception,
+ * message privé pas encore lu), sans objet par message. Un message qui sort
+ * de la fenêtre, ou reste en attente à la déconnexion, est compté comme non
+ * acquitté.
+ */
+final class DeliveryWindow {
+    // Séquences suivies (tous salons confondus) : 1 Ko par connexion
+    static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    // Résultats de acknowledge()
+    static final int NONE = 0;
+    static final int PUBLIC = 1;
+    static final int PRIVATE = 2;
+
+    private final long[] pending = new long[CAPACITY / 64];
+    private final long[] unread = new long[CAPACITY / 64];
+    // Plus petite séquence encore dans la fenêtre
+    private long base = 1;
+    private int pendingCount = 0;
+
+    // Retenir un message envoyé ; retourne le nombre de messages sortis de la fenêtre sans accusé
+    synchronized int sent(long sequence, boolean privateMessage) {
+        if (sequence < base) {
+            // Mis en file après un message plus récent qui a déjà fait glisser la fenêtre
+            return 0;
+        }
+        int expired = 0;
+        if (sequence >= base + CAPACITY) {
+            expired = slide(sequence - CAPACITY + 1);
+        }
+        int slot = (int) (sequence & MASK);
+        if (!test(pending, slot)) {
+            pending[slot >>> 6] |= 1L << slot;
+            pendingCount++;
+        }
+        if (privateMessage) {
+            unread[slot >>> 6] |= 1L << slot;
+        }
+        return expired;
+    }
+
+    // Oublier les séquences avant newBase
+    private int slide(long newBase) {
+        int expired = 0;
+        long end = Math.min(newBase, base + CAPACITY);
+        for (long sequence = base; sequence < end; sequence++) {
+            int slot = (int) (sequence & MASK);
+            if (test(pending, slot)) {
+                expired++;
+            }
+            pending[slot >>> 6] &= ~(1L << slot);
+            unread[slot >>> 6] &= ~(1L << slot);
+        }
+        pendingCount -= expired;
+        base = newBase;
+        return expired;
+    }
+
+    // Accusé de réception : NONE si le message n'était pas en attente, PRIVATE s'il s'agit d'un message privé
+    synchronized int acknowledge(long sequence) {
+        if (!inWindow(sequence)) {
+            return NONE;
+        }
+        int slot = (int) (sequence & MASK);
+        if (!test(pending, slot)) {
+            return NONE;
+        }
+        pending[slot >>> 6] &= ~(1L << slot);
+        pendingCount--;
+        return test(unread, slot) ? PRIVATE : PUBLIC;
+    }
+
+    // Accusé de lecture d'un message privé ; true s'il n'avait pas encore été lu
+    synchronized boolean read(long sequence) {
+        if (!inWindow(sequence)) {
+            return false;
+        }
+        int slot = (int) (sequence & MASK);
+        if (!test(unread, slot)) {
+            return false;
+        }
+        unread[slot >>> 6] &= ~(1L << slot);
+        return true;
+    }
+
+    // Messages encore en attente d'accusé (à la déconnexion : perdus)
+    synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    private boolean inWindow(long sequence) {
+        return sequence >= base && sequence < base + CAPACITY;
+    }
+
+    private static boolean test(long[] bits, int slot) {
+        return (bits[slot >>> 6] & (1L << slot)) != 0;
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.socketproject.server;
+
+// Réaction quand un client dépasse ses limites de débit
+public enum FloodAction {
+    // Traiter le message puis ne plus lire ce client le temps de revenir sous la limite
+    THROTTLE,
+    // Ignorer le message et prévenir le client
+    WARN,
+    // Déconnecter le client
+    DISCONNECT;
+
+    public static FloodAction parse(String value) {
+        return FloodAction.valueOf(value.trim().toUpperCase());
+    }
+}
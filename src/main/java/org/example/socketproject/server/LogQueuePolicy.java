@@ -0,0 +1,13 @@
+package org.example.socketproject.server;
+
+// Comportement du ChatLogger quand sa file d'attente est pleine
+public enum LogQueuePolicy {
+    // Abandonner l'entrée (comptée dans les pertes), l'appelant n'attend jamais
+    DROP,
+    // Attendre que l'écrivain libère de la place, aucune entrée perdue
+    BLOCK;
+
+    public static LogQueuePolicy parse(String value) {
+        return LogQueuePolicy.valueOf(value.trim().toUpperCase());
+    }
+}
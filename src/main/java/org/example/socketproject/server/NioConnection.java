@@ -0,0 +1,467 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+import org.example.socketproject.protocol.OversizedMessageException;
+import org.example.socketproject.server.metrics.ServerMetrics;
+import org.example.socketproject.server.tls.ServerTls;
+import org.example.socketproject.server.tls.TlsChannel;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connexion en mode NIO : lectures non bloquantes et découpage en lignes ou
+ * en trames faits par la boucle d'événements propriétaire, file d'envoi vidée
+ * par cette même boucle. Avec TLS, les octets passent par un TlsChannel dont
+ * la poignée de main avance au fil des lectures et écritures, ses calculs
+ * étant faits hors de la boucle.
+ */
+public class NioConnection extends ClientConnection {
+    private static final int READ_BUFFER_SIZE = 8192;
+    // Messages écrits au plus par appel à write() (écriture groupée)
+    private static final int MAX_GATHER = 64;
+
+    // Protocole de la connexion, connu dès le premier octet reçu
+    private static final int PROTOCOL_UNKNOWN = 0;
+    private static final int PROTOCOL_TEXT = 1;
+    private static final int PROTOCOL_BINARY = 2;
+
+    private final SocketChannel channel;
+    // Chiffrement de la connexion (null : en clair)
+    private final TlsChannel tls;
+    private volatile boolean handshaken = false;
+    private final NioEventLoop loop;
+    private final InetSocketAddress remote;
+    private final Charset charset = OutboundMessage.CHARSET;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private int protocol = PROTOCOL_UNKNOWN;
+
+    // Octets reçus pas encore traités (ligne ou trame incomplète)
+    private byte[] input = new byte[256];
+    private int inputLength = 0;
+    // Position jusqu'à laquelle on a déjà cherché un '\n'
+    private int scanned = 0;
+    // Octets déjà jetés de la ligne trop longue en cours (texte), ou restant à jeter de la trame en cours (binaire)
+    private long discarding = 0;
+    private long skipping = 0;
+    // Lecture suspendue par la limite de débit
+    private boolean throttled = false;
+
+    // Messages sortis de la file d'envoi et pas encore entièrement écrits, envoyés d'un seul write()
+    private final ByteBuffer[] writing = new ByteBuffer[MAX_GATHER];
+    private int writingCount = 0;
+    private volatile boolean writingPending = false;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // Déjà inscrite auprès de la boucle pour être vidée en fin de tour (thread de la boucle uniquement)
+    boolean flushQueued = false;
+    private SelectionKey key;
+    private boolean loggedIn = false;
+    private volatile boolean closeAfterFlush = false;
+
+    public NioConnection(SocketChannel channel, NioEventLoop loop, ChatServer server) throws IOException {
+        super(server);
+        this.channel = channel;
+        this.loop = loop;
+        this.remote = (InetSocketAddress) channel.getRemoteAddress();
+        ServerTls serverTls = server.getTls();
+        this.tls = serverTls != null
+                ? new TlsChannel(channel, serverTls.newEngine(), serverTls.getHandshakeExecutor(), new TlsEvents()) : null;
+    }
+
+    // Appelé par la boucle une fois le canal enregistré auprès du Selector
+    void attach(SelectionKey key) {
+        this.key = key;
+        flush();
+    }
+
+    void onReadable() {
+        // En TLS, des octets déjà déchiffrés peuvent rester en attente sans que le canal soit de nouveau lisible
+        do {
+            int n;
+            try {
+                n = tls != null ? readTls() : channel.read(readBuffer);
+            } catch (IOException e) {
+                ChatLogger.getInstance().logError("Erreur avec le client " + username + " : " + e.getMessage());
+                disconnect();
+                return;
+            }
+            if (n < 0) {
+                // Fin de flux : traiter une éventuelle dernière ligne sans '\n'
+                if (protocol == PROTOCOL_TEXT && inputLength > 0) {
+                    processLine(takeLine(0, inputLength), inputLength);
+                }
+                disconnect();
+                return;
+            }
+
+            server.getMetrics().bytesReceived(n);
+            readBuffer.flip();
+            appendInput(readBuffer);
+            readBuffer.clear();
+            try {
+                processInput();
+            } catch (IOException e) {
+                ChatLogger.getInstance().logError("Erreur avec le client " + username + " : " + e.getMessage());
+                disconnect();
+                return;
+            }
+        } while (tls != null && tls.hasBufferedInput() && accepting());
+    }
+
+    private int readTls() throws IOException {
+        int n = tls.read(readBuffer);
+        if (tls.isWaitingForTasks()) {
+            // Rien à lire avant la fin des calculs de la poignée de main
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (tls.hasPendingOutput()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+        return n;
+    }
+
+    // Calculs de la poignée de main terminés : reprendre avec les octets déjà reçus
+    private void handshakeTasksDone() {
+        if (isClosed() || !key.isValid()) {
+            return;
+        }
+        if (!throttled) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        onReadable();
+        flush();
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void appendInput(ByteBuffer data) {
+        int needed = inputLength + data.remaining();
+        if (needed > input.length) {
+            input = Arrays.copyOf(input, Math.max(needed, input.length * 2));
+        }
+        data.get(input, inputLength, data.remaining());
+        inputLength = needed;
+    }
+
+    private void processInput() throws IOException {
+        int consumed = 0;
+
+        if (protocol == PROTOCOL_UNKNOWN) {
+            if (inputLength == 0) {
+                return;
+            }
+            if (input[0] != 0) {
+                protocol = PROTOCOL_TEXT;
+            } else if (inputLength >= FrameCodec.HANDSHAKE_SIZE) {
+                if (!FrameCodec.isHandshake(input, 0)) {
+                    throw new IOException("Poignée de main invalide");
+                }
+                consumed = FrameCodec.HANDSHAKE_SIZE;
+                scanned = consumed;
+                protocol = PROTOCOL_BINARY;
+                binary = true;
+                // La réponse part avant tout message déjà en file
+                writing[writingCount++] = ByteBuffer.wrap(FrameCodec.handshake(negotiateVersion(FrameCodec.version(input, 0))));
+                writingPending = true;
+            } else {
+                return;
+            }
+            // Le format des messages en attente est maintenant connu
+            flush();
+        }
+
+        if (protocol == PROTOCOL_TEXT) {
+            for (int i = scanned; i < inputLength && accepting(); i++) {
+                if (input[i] == '\n') {
+                    if (discarding > 0) {
+                        dropOversized(discarding + i - consumed);
+                        discarding = 0;
+                    } else {
+                        processLine(takeLine(consumed, i), i - consumed);
+                    }
+                    consumed = i + 1;
+                } else if (discarding == 0 && i - consumed >= maxLineLength) {
+                    // Ligne trop longue : ses octets sont jetés au fur et à mesure jusqu'au '\n'
+                    discarding = i - consumed;
+                    consumed = i;
+                }
+            }
+            if (discarding > 0 && consumed < inputLength) {
+                discarding += inputLength - consumed;
+                consumed = inputLength;
+            }
+        } else {
+            while (accepting()) {
+                if (skipping > 0) {
+                    // Fin d'une trame trop longue à jeter
+                    int n = (int) Math.min(skipping, inputLength - consumed);
+                    consumed += n;
+                    skipping -= n;
+                    if (skipping > 0) {
+                        break;
+                    }
+                    continue;
+                }
+                int payload = FrameCodec.payloadLength(input, consumed, inputLength - consumed);
+                if (payload > maxLineLength) {
+                    skipping = FrameCodec.HEADER_SIZE + payload;
+                    dropOversized(payload);
+                    continue;
+                }
+                int length = FrameCodec.frameLength(input, consumed, inputLength - consumed);
+                if (length <= 0) {
+                    break;
+                }
+                Frame frame = FrameCodec.decode(input, consumed);
+                consumed += length;
+                if (frame.getType() == FrameType.RESUME && !registered) {
+                    requestResume(frame.getText());
+                } else if (frame.getType() == FrameType.ACK || frame.getType() == FrameType.READ) {
+                    acknowledge(frame);
+                }
+                if (frame.getType() != FrameType.TEXT) {
+                    continue;
+                }
+                try {
+                    frame = inflate(frame);
+                } catch (OversizedMessageException e) {
+                    dropOversized(e.getLength());
+                    continue;
+                }
+                lineId = frame.getSequence();
+                processLine(frame.getText(), frame.getPayload().length);
+            }
+        }
+
+        // Garder en tête du tampon la ligne ou trame incomplète
+        if (consumed > 0) {
+            System.arraycopy(input, consumed, input, 0, inputLength - consumed);
+            inputLength -= consumed;
+        }
+        // Lecture suspendue : les lignes restantes n'ont pas toutes été examinées
+        scanned = throttled ? 0 : inputLength;
+    }
+
+    private boolean accepting() {
+        return !isClosed() && !throttled && !closeAfterFlush;
+    }
+
+    // Suspendre la lecture de ce client le temps de revenir sous ses limites de débit
+    private void pauseReading(long delayNanos) {
+        throttled = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        server.schedule(() -> loop.execute(this::resumeReading), delayNanos);
+    }
+
+    private void resumeReading() {
+        if (isClosed() || !key.isValid()) {
+            return;
+        }
+        throttled = false;
+        try {
+            // D'abord les lignes déjà reçues, qui peuvent suspendre à nouveau la lecture
+            processInput();
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur avec le client " + username + " : " + e.getMessage());
+            disconnect();
+            return;
+        }
+        if (!throttled && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            if (tls != null && tls.hasBufferedInput()) {
+                onReadable();
+            }
+        }
+    }
+
+    private void dropOversized(long length) {
+        if (!rejectOversized(length)) {
+            closeAfterFlush = true;
+            flush();
+        }
+    }
+
+    private String takeLine(int start, int end) {
+        int length = end - start;
+        if (length > 0 && input[end - 1] == '\r') {
+            length--;
+        }
+        return new String(input, start, length, charset);
+    }
+
+    private void processLine(String line, int bytes) {
+        if (closeAfterFlush) {
+            return;
+        }
+        if (!loggedIn) {
+            loggedIn = true;
+            if (!handleLogin(line)) {
+                // Laisser partir le message d'erreur avant de fermer
+                closeAfterFlush = true;
+                flush();
+            }
+            return;
+        }
+        long verdict = admitLine(bytes);
+        if (verdict == REJECT) {
+            return;
+        }
+        if (verdict == CLOSE) {
+            closeAfterFlush = true;
+            flush();
+            return;
+        }
+        if (!handleLine(line)) {
+            disconnect();
+            return;
+        }
+        if (verdict > 0) {
+            pauseReading(verdict);
+        }
+    }
+
+    @Override
+    protected void scheduleWrite() {
+        if (loop.inEventLoop()) {
+            // Depuis la boucle (diffusion d'un message lu) : écrit en fin de tour, avec tout ce que le
+            // même tour aura mis en file pour ce client
+            loop.flushLater(this);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    @Override
+    protected boolean hasPendingWrites() {
+        return !outbound.isEmpty() || writingPending;
+    }
+
+    // Écrire autant que possible sans bloquer, sinon attendre OP_WRITE
+    void flush() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        ServerMetrics metrics = server.getMetrics();
+        try {
+            if (tls != null && !flushTls()) {
+                return;
+            }
+            // Tant que le protocole n'est pas connu, on ne sait pas dans quel format écrire
+            if (protocol == PROTOCOL_UNKNOWN) {
+                return;
+            }
+            while (true) {
+                OutboundMessage message;
+                while (writingCount < MAX_GATHER && (message = outbound.poll()) != null) {
+                    writing[writingCount++] = message.buffer(binary, compression);
+                    metrics.messageSent();
+                }
+                if (writingCount == 0) {
+                    break;
+                }
+                writingPending = true;
+                metrics.bytesSent(tls != null ? tls.write(writing, 0, writingCount) : channel.write(writing, 0, writingCount));
+                // Retirer les messages entièrement écrits, garder en tête celui qui l'est en partie
+                int done = 0;
+                while (done < writingCount && !writing[done].hasRemaining()) {
+                    done++;
+                }
+                System.arraycopy(writing, done, writing, 0, writingCount - done);
+                Arrays.fill(writing, writingCount - done, writingCount, null);
+                writingCount -= done;
+                if (writingCount > 0 || (tls != null && tls.hasPendingOutput())) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writingPending = false;
+            }
+            writingPending = false;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush) {
+                disconnect();
+            }
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Erreur d'écriture vers " + username + " : " + e.getMessage());
+            disconnect();
+        }
+    }
+
+    // Sortie TLS en attente, poignée de main comprise ; false tant qu'elle n'est pas entièrement écrite
+    private boolean flushTls() throws IOException {
+        boolean flushed = tls.flush();
+        if (tls.isWaitingForTasks()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (!flushed) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            return false;
+        }
+        if (tls.hasBufferedInput() && !throttled) {
+            // Message du client déchiffré en faisant avancer la poignée de main
+            loop.execute(this::onReadable);
+        }
+        return true;
+    }
+
+    @Override
+    protected void abortSlowConsumer() {
+        loop.execute(this::disconnect);
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remote.getAddress().getHostAddress();
+    }
+
+    @Override
+    protected int getRemotePort() {
+        return remote.getPort();
+    }
+
+    @Override
+    protected void closeTransport() throws IOException {
+        if (key != null) {
+            key.cancel();
+        }
+        if (tls == null) {
+            channel.close();
+            return;
+        }
+        if (!handshaken) {
+            server.getMetrics().tlsHandshakeFailed();
+        }
+        if (loop.inEventLoop()) {
+            tls.close();
+        } else {
+            // Le moteur TLS n'est utilisé que par la boucle : fermeture sans close_notify depuis un autre thread
+            channel.close();
+        }
+    }
+
+    private final class TlsEvents implements TlsChannel.Listener {
+        @Override
+        public void tasksDone() {
+            loop.execute(NioConnection.this::handshakeTasksDone);
+        }
+
+        @Override
+        public void handshakeFinished(SSLSession session, long startMillis, long nanos) {
+            handshaken = true;
+            server.getMetrics().tlsHandshake(nanos, ServerTls.isResumed(session, startMillis));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.socketproject.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Boucle d'événements non bloquante : un Selector et un thread qui gèrent
+ * les lectures et écritures d'un sous-ensemble des connexions NIO.
+ */
+public class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Connexions à vider en fin de tour (thread de la boucle uniquement)
+    private final ArrayDeque<NioConnection> flushes = new ArrayDeque<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // Confier une nouvelle connexion acceptée à cette boucle
+    public void register(SocketChannel channel, NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (ClosedChannelException e) {
+                connection.disconnect();
+            }
+        });
+    }
+
+    // Exécuter une tâche sur le thread de la boucle ; postée depuis la boucle, elle passe au tour suivant
+    // sans attendre d'évènement réseau (select sans blocage tant que la file n'est pas vide)
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Vider la file d'envoi d'une connexion à la fin du tour en cours : les messages mis en file
+    // pendant le tour partent ensemble (depuis le thread de la boucle uniquement)
+    void flushLater(NioConnection connection) {
+        if (!connection.flushQueued) {
+            connection.flushQueued = true;
+            flushes.add(connection);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (RuntimeException e) {
+                        // Un bogue sur une connexion ne doit pas arrêter la boucle des autres
+                        fail(connection, e);
+                    }
+                }
+                runFlushes();
+            } catch (IOException e) {
+                if (running) {
+                    ChatLogger.getInstance().logError("Erreur dans la boucle NIO " + thread.getName() + " : " + e.getMessage());
+                }
+            }
+        }
+        runTasks();
+        runFlushes();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Rien à faire, la boucle s'arrête
+        }
+    }
+
+    private void runFlushes() {
+        NioConnection connection;
+        while ((connection = flushes.poll()) != null) {
+            connection.flushQueued = false;
+            try {
+                connection.flush();
+            } catch (RuntimeException e) {
+                fail(connection, e);
+            }
+        }
+    }
+
+    // Fermer la seule connexion fautive
+    private void fail(NioConnection connection, RuntimeException e) {
+        ChatLogger.getInstance().logError("Erreur inattendue sur la connexion de " + connection.getUsername()
+                + ", fermée : " + e);
+        try {
+            connection.disconnect();
+        } catch (RuntimeException again) {
+            // Fermeture incomplète : au moins ne plus sélectionner ce canal
+            ChatLogger.getInstance().logError("Erreur à la fermeture de la connexion de " + connection.getUsername()
+                    + " : " + again);
+            try {
+                connection.closeTransport();
+            } catch (IOException | RuntimeException ignored) {
+                // Plus rien à tenter
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                ChatLogger.getInstance().logError("Erreur dans une tâche NIO : " + e.getMessage());
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.protocol.FrameType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message sortant, immuable et partagé entre tous les destinataires d'une
+ * diffusion. Il existe sous deux formes : la ligne texte (texte + '\n') des
+ * clients historiques et la trame binaire des clients qui l'ont négociée,
+ * compressée ou non selon ce que le client accepte. Chaque forme n'est encodée
+ * qu'une fois, à la première demande, puis chaque écrivain lit une vue
+ * indépendante (en lecture seule) du même tampon ; un écrivain bloquant
+ * écrit directement depuis le tableau partagé (writeTo).
+ */
+public final class OutboundMessage {
+    public static final Charset CHARSET = Charset.defaultCharset();
+
+    // Statistiques d'allocation : octets encodés vs octets remis aux files d'envoi
+    private static final LongAdder encodeCount = new LongAdder();
+    private static final LongAdder encodedBytes = new LongAdder();
+    private static final LongAdder sendCount = new LongAdder();
+    private static final LongAdder sentBytes = new LongAdder();
+    // Copies faites pour un destinataire (tampon hors du tas écrit sur un flux)
+    private static final LongAdder copyCount = new LongAdder();
+    private static final LongAdder copiedBytes = new LongAdder();
+
+    private final byte type;
+    // Numéro de séquence porté par la trame (0 : message hors séquence, non rejouable)
+    private final long sequence;
+    private final String line;
+    private final String payload;
+    private final boolean direct;
+    // Compression des trames (null : jamais compressées)
+    private final PayloadCompressor compressor;
+    // La forme ligne est déjà découpée en lignes (rejeu de l'historique)
+    private final boolean multiline;
+    // Formes encodées, jamais remises telles quelles : seules des vues en lecture seule en sortent
+    private volatile ByteBuffer lineData;
+    private volatile ByteBuffer frameData;
+    private volatile ByteBuffer compressedData;
+
+    private OutboundMessage(byte type, long sequence, String line, String payload, boolean direct,
+                            PayloadCompressor compressor, boolean multiline) {
+        this.type = type;
+        this.sequence = sequence;
+        this.line = line;
+        this.payload = payload;
+        this.direct = direct;
+        this.compressor = compressor;
+        this.multiline = multiline;
+    }
+
+    // Ligne de texte ordinaire ; direct=true pour les écritures NIO (évite la copie vers un tampon natif)
+    public static OutboundMessage encode(String text, boolean direct) {
+        return encode(text, direct, null);
+    }
+
+    static OutboundMessage encode(String text, boolean direct, PayloadCompressor compressor) {
+        return new OutboundMessage(FrameType.TEXT, 0, text, text, direct, compressor, false);
+    }
+
+    // Message de salon numéroté, conservé pour être rejoué à un client qui se reconnecte
+    static OutboundMessage encode(String text, long sequence, boolean direct, PayloadCompressor compressor) {
+        return new OutboundMessage(FrameType.TEXT, sequence, text, text, direct, compressor, false);
+    }
+
+    // Message typé : sa forme ligne pour les clients texte, sa charge utile pour les trames binaires
+    public static OutboundMessage encode(byte type, String line, String payload, boolean direct) {
+        return encode(type, line, payload, direct, null);
+    }
+
+    static OutboundMessage encode(byte type, String line, String payload, boolean direct,
+                                  PayloadCompressor compressor) {
+        return new OutboundMessage(type, 0, line, payload, direct, compressor, false);
+    }
+
+    // Message typé numéroté (message privé dont le client accusera réception)
+    static OutboundMessage encode(byte type, String line, String payload, long sequence, boolean direct,
+                                  PayloadCompressor compressor) {
+        return new OutboundMessage(type, sequence, line, payload, direct, compressor, false);
+    }
+
+    // Plusieurs lignes en un seul message : autant de lignes pour un client texte, une trame TEXT
+    // multiligne (compressée d'un bloc) pour un client binaire
+    static OutboundMessage encodeLines(List<String> lines, boolean direct, PayloadCompressor compressor) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(flatten(line));
+        }
+        String joined = text.toString();
+        return new OutboundMessage(FrameType.TEXT, 0, joined, joined, direct, compressor, true);
+    }
+
+    // Vue prête à écrire dans le format du destinataire, avec sa propre position (le contenu reste partagé)
+    public ByteBuffer buffer(boolean binary) {
+        return buffer(binary, false);
+    }
+
+    // compressed : le destinataire accepte les trames compressées (sans effet pour un client texte)
+    public ByteBuffer buffer(boolean binary, boolean compressed) {
+        return data(binary, compressed).asReadOnlyBuffer();
+    }
+
+    // Écrire la forme du destinataire sur un flux depuis le tableau partagé, sans copie par destinataire ;
+    // retourne le nombre d'octets écrits
+    int writeTo(OutputStream out, boolean binary, boolean compressed) throws IOException {
+        ByteBuffer data = data(binary, compressed);
+        int length = data.remaining();
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), length);
+            return length;
+        }
+        byte[] bytes = new byte[length];
+        data.duplicate().get(bytes);
+        copyCount.increment();
+        copiedBytes.add(length);
+        out.write(bytes);
+        return length;
+    }
+
+    public int length(boolean binary) {
+        return length(binary, false);
+    }
+
+    public int length(boolean binary, boolean compressed) {
+        return data(binary, compressed).remaining();
+    }
+
+    private ByteBuffer data(boolean binary, boolean compressed) {
+        if (!binary) {
+            return lineData();
+        }
+        return compressed && compressor != null ? compressedData() : frameData();
+    }
+
+    public String text() {
+        return line;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    // Encodage paresseux : deux threads peuvent calculer la même forme en même temps, le résultat est identique
+    private ByteBuffer lineData() {
+        ByteBuffer data = lineData;
+        if (data == null) {
+            // Une ligne ne doit pas en devenir plusieurs chez un client texte
+            String flat = multiline ? line : flatten(line);
+            data = wrap((flat + "\n").getBytes(CHARSET));
+            lineData = data;
+        }
+        return data;
+    }
+
+    private ByteBuffer frameData() {
+        ByteBuffer data = frameData;
+        return data != null ? data : frameData(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ByteBuffer frameData(byte[] bytes) {
+        ByteBuffer data = frameData;
+        if (data == null) {
+            ByteBuffer frame = FrameCodec.encode(type, (byte) 0, sequence, bytes, direct);
+            encodeCount.increment();
+            encodedBytes.add(frame.remaining());
+            data = frame;
+            frameData = data;
+        }
+        return data;
+    }
+
+    // Trame compressée si cela en vaut la peine, sinon la trame ordinaire (calculée une seule fois)
+    private ByteBuffer compressedData() {
+        ByteBuffer data = compressedData;
+        if (data == null) {
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = compressor.compress(type, sequence, bytes, direct);
+            if (frame != null) {
+                encodeCount.increment();
+                encodedBytes.add(frame.remaining());
+                data = frame;
+            } else {
+                data = frameData(bytes);
+            }
+            compressedData = data;
+        }
+        return data;
+    }
+
+    private static String flatten(String line) {
+        return line.indexOf('\n') >= 0 || line.indexOf('\r') >= 0 ? line.replace('\r', ' ').replace('\n', ' ') : line;
+    }
+
+    private ByteBuffer wrap(byte[] bytes) {
+        ByteBuffer buffer;
+        if (direct) {
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+        } else {
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        encodeCount.increment();
+        encodedBytes.add(bytes.length);
+        return buffer;
+    }
+
+    // Appelé à chaque remise à une file d'envoi
+    static void recordSend(OutboundMessage message, boolean binary, boolean compressed) {
+        sendCount.increment();
+        sentBytes.add(message.length(binary, compressed));
+    }
+
+    public static long getEncodeCount() {
+        return encodeCount.sum();
+    }
+
+    public static long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+
+    public static long getSendCount() {
+        return sendCount.sum();
+    }
+
+    public static long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    public static long getCopyCount() {
+        return copyCount.sum();
+    }
+
+    public static long getCopiedBytes() {
+        return copiedBytes.sum();
+    }
+
+    public static String statsSummary() {
+        return String.format("Encodages : %d messages (%d octets) pour %d envois (%d octets), %d copies (%d octets)",
+                getEncodeCount(), getEncodedBytes(), getSendCount(), getSentBytes(), getCopyCount(), getCopiedBytes());
+    }
+}
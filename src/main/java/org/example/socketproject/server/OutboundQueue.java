@@ -0,0 +1,68 @@
+package org.example.socketproject.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File d'envoi bornée d'un client : alimentée par n'importe quel thread,
+ * vidée par un seul écrivain. Compte les messages acceptés et perdus.
+ */
+public class OutboundQueue<T> {
+    private final BlockingQueue<T> queue;
+    private final OverflowPolicy policy;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * Ajoute un message en appliquant la politique de débordement.
+     * Retourne false uniquement si la file est pleine avec la politique DISCONNECT.
+     */
+    public boolean offer(T message) {
+        if (queue.offer(message)) {
+            queued.incrementAndGet();
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.offer(message)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                queued.incrementAndGet();
+                return true;
+            case DROP_NEW:
+                dropped.incrementAndGet();
+                return true;
+            default:
+                dropped.incrementAndGet();
+                return false;
+        }
+    }
+
+    public T poll() {
+        return queue.poll();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
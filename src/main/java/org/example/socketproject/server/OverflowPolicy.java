@@ -0,0 +1,15 @@
+package org.example.socketproject.server;
+
+// Comportement quand la file d'envoi d'un client est pleine
+public enum OverflowPolicy {
+    // Jeter le plus ancien message en attente pour faire de la place
+    DROP_OLDEST,
+    // Jeter le nouveau message
+    DROP_NEW,
+    // Considérer le client comme trop lent et le déconnecter
+    DISCONNECT;
+
+    public static OverflowPolicy parse(String value) {
+        return OverflowPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.server.metrics.ServerMetrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compression des trames sortantes au-delà d'un seuil, pour les clients qui
+ * l'ont négociée. Appelée au plus une fois par message : la trame compressée
+ * est ensuite partagée par tous ses destinataires (voir OutboundMessage).
+ */
+final class PayloadCompressor {
+    private final int threshold;
+    private final ServerMetrics metrics;
+
+    PayloadCompressor(int threshold, ServerMetrics metrics) {
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    // Trame compressée, ou null si la charge utile est trop petite ou ne gagne rien à l'être
+    ByteBuffer compress(byte type, long sequence, byte[] payload, boolean direct) {
+        if (payload.length < threshold) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = FrameCodec.deflate(payload);
+        long nanos = System.nanoTime() - start;
+        metrics.compressed(payload.length, compressed != null ? compressed.length : payload.length, nanos);
+        if (compressed == null) {
+            return null;
+        }
+        return FrameCodec.encode(type, FrameCodec.FLAG_DEFLATE, sequence, compressed, direct);
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.FrameType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Présence des membres d'un salon : un instantané USERS: envoyé au seul nouvel
+ * arrivant, puis des deltas JOIN:/LEAVE: diffusés aux membres. Les arrivées et
+ * départs d'une même fenêtre sont regroupés, et un départ suivi d'un retour
+ * (ou l'inverse) s'annulent, ce qui absorbe les rafales de reconnexions. Ils
+ * ne s'annulent pas si un autre client est entré entre les deux : son
+ * instantané reflète le premier changement, le second lui est donc annoncé.
+ */
+public class PresenceTracker {
+    private final ChatRoom room;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // Pseudo -> true pour une arrivée, false pour un départ, en attente de diffusion
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    // Pseudo -> nombre d'instantanés déjà envoyés dans la fenêtre lors de son premier changement en attente
+    private final Map<String, Integer> recordedAt = new HashMap<>();
+    // Destinataires des instantanés envoyés depuis la dernière diffusion
+    private final List<String> snapshotRecipients = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    // Le planificateur est partagé par tous les salons
+    public PresenceTracker(ChatRoom room, ScheduledExecutorService scheduler, long windowMillis) {
+        this.room = room;
+        this.windowMillis = windowMillis;
+        this.scheduler = scheduler;
+    }
+
+    // Envoyer la liste complète à un client qui vient d'entrer dans le salon
+    public synchronized void sendSnapshot(ClientConnection client) {
+        client.send(room.presenceMessage(FrameType.USERS, "USERS", room.getMemberNames()));
+        if (!pending.isEmpty()) {
+            snapshotRecipients.add(client.getUsername());
+        }
+    }
+
+    public void userJoined(String username) {
+        record(username, true);
+    }
+
+    public void userLeft(String username) {
+        record(username, false);
+    }
+
+    private synchronized void record(String username, boolean joined) {
+        Boolean previous = pending.remove(username);
+        Integer since = recordedAt.remove(username);
+        // Un départ puis un retour (ou l'inverse) dans la même fenêtre : rien à annoncer,
+        // sauf à un client entré entre les deux, qui doit apprendre le second changement
+        if (previous == null || previous == joined || sawChangeSince(username, since)) {
+            pending.put(username, joined);
+            recordedAt.put(username, since != null ? since : snapshotRecipients.size());
+        }
+        if (windowMillis <= 0) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Un autre client a-t-il reçu un instantané depuis le premier changement en attente de ce pseudo ?
+    private boolean sawChangeSince(String username, int since) {
+        for (String recipient : snapshotRecipients.subList(since, snapshotRecipients.size())) {
+            if (!recipient.equals(username)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Diffuser les deltas accumulés : au plus une ligne JOIN: et une ligne LEAVE:
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> joins = new ArrayList<>();
+        List<String> leaves = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : pending.entrySet()) {
+            (entry.getValue() ? joins : leaves).add(entry.getKey());
+        }
+        pending.clear();
+        recordedAt.clear();
+        snapshotRecipients.clear();
+
+        if (!leaves.isEmpty()) {
+            room.broadcast(room.presenceMessage(FrameType.LEAVE, "LEAVE", leaves), null);
+        }
+        if (!joins.isEmpty()) {
+            room.broadcast(room.presenceMessage(FrameType.JOIN, "JOIN", joins), null);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.socketproject.server;
+
+// Sort d'un message privé envoyé par /msg
+public enum PrivateDelivery {
+    // Remis au destinataire, ici ou sur un autre nœud
+    SENT,
+    // Destinataire absent : gardé dans sa boîte jusqu'à sa prochaine connexion
+    STORED,
+    // Destinataire absent et boîte pleine
+    INBOX_FULL,
+    // Personne de ce nom ne s'est connecté à ce serveur
+    UNKNOWN
+}
@@ -0,0 +1,57 @@
+package org.example.socketproject.server;
+
+/**
+ * Double seau à jetons d'une connexion : messages par seconde et octets par
+ * seconde, chacun avec une réserve d'une seconde de débit. Une limite à 0
+ * désactive la dimension correspondante. Utilisé par le seul thread qui lit
+ * la connexion, donc sans synchronisation.
+ */
+public class RateLimiter {
+    private final double messagesPerNano;
+    private final double bytesPerNano;
+    private final double messageBurst;
+    private final double byteBurst;
+    private double messageTokens;
+    private double byteTokens;
+    private long last;
+
+    // byteBurst est au moins maxLineLength pour qu'une ligne permise puisse toujours passer
+    public RateLimiter(int messagesPerSecond, int bytesPerSecond, int maxLineLength) {
+        this.messagesPerNano = messagesPerSecond / 1e9;
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.messageBurst = Math.max(1, messagesPerSecond);
+        this.byteBurst = Math.max(bytesPerSecond, maxLineLength);
+        this.messageTokens = messageBurst;
+        this.byteTokens = byteBurst;
+        this.last = System.nanoTime();
+    }
+
+    // Délai (ns) avant qu'un message de cette taille respecte les limites, 0 s'il peut passer tout de suite
+    public long delayFor(int bytes, long now) {
+        refill(now);
+        double cost = Math.min(bytes, byteBurst);
+        long delay = 0;
+        if (messagesPerNano > 0 && messageTokens < 1) {
+            delay = (long) Math.ceil((1 - messageTokens) / messagesPerNano);
+        }
+        if (bytesPerNano > 0 && byteTokens < cost) {
+            delay = Math.max(delay, (long) Math.ceil((cost - byteTokens) / bytesPerNano));
+        }
+        return delay;
+    }
+
+    // Prélever les jetons d'un message ; le solde peut devenir négatif (dette remboursée par l'attente)
+    public void consume(int bytes) {
+        messageTokens -= 1;
+        byteTokens -= Math.min(bytes, byteBurst);
+    }
+
+    private void refill(long now) {
+        long elapsed = now - last;
+        if (elapsed > 0) {
+            messageTokens = Math.min(messageBurst, messageTokens + elapsed * messagesPerNano);
+            byteTokens = Math.min(byteBurst, byteTokens + elapsed * bytesPerNano);
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.socketproject.server;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * Derniers messages diffusés dans les salons, numérotés dans l'ordre, pour
+ * qu'un client qui se reconnecte ne reçoive que ce qu'il a manqué. Tampon
+ * circulaire de taille fixe : les messages gardent leur encodage, le rejeu
+ * ne réencode rien. Les messages privés y prennent aussi leur numéro (sans
+ * salon, ils ne sont jamais rejoués) pour retrouver leur expéditeur quand le
+ * destinataire en accuse réception. Seul le numéro est attribué sous le
+ * verrou : l'encodage (et la compression) se fait en dehors, la case restant
+ * en attente jusque-là.
+ */
+final class ReplayBuffer {
+    private final String[] rooms;
+    private final String[] senders;
+    // null tant que le message de la case est en cours d'encodage
+    private final OutboundMessage[] messages;
+    private final long[] sequences;
+    private long lastSequence = 0;
+
+    ReplayBuffer(int capacity) {
+        rooms = new String[capacity];
+        senders = new String[capacity];
+        messages = new OutboundMessage[capacity];
+        sequences = new long[capacity];
+    }
+
+    // Numéroter et conserver un message (room null pour un message privé) ; encoder reçoit son numéro de séquence
+    OutboundMessage append(String room, String sender, LongFunction<OutboundMessage> encoder) {
+        long sequence;
+        int slot;
+        synchronized (this) {
+            sequence = ++lastSequence;
+            slot = (int) (sequence % messages.length);
+            rooms[slot] = room;
+            senders[slot] = sender;
+            messages[slot] = null;
+            sequences[slot] = sequence;
+        }
+        OutboundMessage message;
+        try {
+            message = encoder.apply(sequence);
+        } catch (RuntimeException e) {
+            release(slot, sequence);
+            throw e;
+        }
+        synchronized (this) {
+            // La case a pu être reprise entre-temps par un numéro plus récent (tampon plus petit que le débit)
+            if (sequences[slot] == sequence) {
+                messages[slot] = message;
+            }
+        }
+        return message;
+    }
+
+    // Encodage échoué : la case ne retient plus le rejeu
+    private synchronized void release(int slot, long sequence) {
+        if (sequences[slot] == sequence) {
+            rooms[slot] = null;
+            senders[slot] = null;
+        }
+    }
+
+    // Expéditeur d'un message privé encore dans le tampon, sinon null
+    synchronized String privateSender(long sequence) {
+        if (sequence <= 0 || sequence > lastSequence || sequence <= lastSequence - messages.length) {
+            return null;
+        }
+        int slot = (int) (sequence % messages.length);
+        return rooms[slot] == null ? senders[slot] : null;
+    }
+
+    // Ajouter à missed les messages des salons roomNames après le numéro since, sauf ceux de excludedSender ;
+    // retourne le numéro jusqu'auquel tout est couvert (avant le premier encore en cours d'encodage), ou -1
+    // si certains sont déjà sortis du tampon (ou si since vient d'ailleurs)
+    synchronized long since(long since, Set<String> roomNames, String excludedSender, List<OutboundMessage> missed) {
+        long oldest = Math.max(1, lastSequence - messages.length + 1);
+        if (since < oldest - 1 || since > lastSequence) {
+            return -1;
+        }
+        long covered = lastSequence;
+        for (long sequence = since + 1; sequence <= lastSequence; sequence++) {
+            int slot = (int) (sequence % messages.length);
+            if (rooms[slot] == null || !roomNames.contains(rooms[slot])) {
+                continue;
+            }
+            if (messages[slot] == null) {
+                covered = Math.min(covered, sequence - 1);
+            } else if (!(excludedSender != null && excludedSender.equals(senders[slot]))) {
+                missed.add(messages[slot]);
+            }
+        }
+        return covered;
+    }
+}
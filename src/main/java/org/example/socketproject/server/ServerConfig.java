@@ -0,0 +1,483 @@
+package org.example.socketproject.server;
+
+import org.example.socketproject.protocol.FrameCodec;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+// Paramètres de démarrage du serveur (remplis par ServerMain)
+public class ServerConfig {
+    private int port = 55555;
+    private ServerMode mode = ServerMode.THREADS;
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long presenceWindowMillis = 200;
+    private int logQueueCapacity = 65536;
+    private LogQueuePolicy logQueuePolicy = LogQueuePolicy.BLOCK;
+    private String historyDir = "data" + File.separator + "history";
+    private int historyReplayCount = 20;
+    private long historySegmentBytes = 16L * 1024 * 1024;
+    private int historyRetentionSegments = 8;
+    // Limites par connexion (0 = pas de limite) et réaction en cas de dépassement
+    private int rateLimitMessages = 50;
+    private int rateLimitBytes = 64 * 1024;
+    private int maxLineLength = 8 * 1024;
+    private FloodAction floodAction = FloodAction.THROTTLE;
+    // Taille à partir de laquelle les trames sont compressées pour les clients qui l'acceptent (0 = jamais)
+    private int compressionThreshold = FrameCodec.DEFAULT_COMPRESSION_THRESHOLD;
+    // Cluster : port des liens entre nœuds (0 = serveur seul) et adresse d'écoute, secret partagé par
+    // tous les nœuds (obligatoire), identifiant de ce nœud et adresses des autres
+    private int clusterPort = 0;
+    private String clusterHost = "127.0.0.1";
+    private String clusterSecret;
+    private String nodeId;
+    private List<InetSocketAddress> peers = new ArrayList<>();
+    // Arrêt progressif : attente maximale des files d'envoi, étalement des reconnexions conseillées
+    // aux clients, et SO_REUSEPORT pour qu'un nouveau processus écoute pendant que l'ancien se vide
+    private long drainTimeoutMillis = 10_000;
+    private long reconnectSpreadMillis = 10_000;
+    private boolean reusePort = false;
+    // Options des sockets clientes : TCP_NODELAY (les écritures sont déjà regroupées par le serveur)
+    // et tailles des tampons noyau (0 = valeur du système)
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    // Derniers messages de salon gardés pour les clients qui se reconnectent (0 = pas de reprise)
+    private int replayBufferSize = 1024;
+    // Transferts de fichiers (/send) : port du chemin de données (0 = désactivés), dossier d'attente,
+    // taille maximale et débit maximal de chaque transfert (0 = pas de limite de débit)
+    private int filePort = 0;
+    private String spoolDir = "data" + File.separator + "spool";
+    private long maxFileBytes = 50L * 1024 * 1024;
+    private long fileBytesPerSecond = 4L * 1024 * 1024;
+    // Messages privés pour des absents : dossier du fichier de débordement, budget mémoire toutes boîtes
+    // confondues, messages gardés en mémoire et au plus par destinataire (0 = pas de boîte), taille du fichier,
+    // pseudos retenus comme destinataires possibles (les moins récemment connectés sont oubliés)
+    private String inboxDir = "data" + File.separator + "inbox";
+    private long inboxMemoryBytes = 16L * 1024 * 1024;
+    private int inboxTailMessages = 8;
+    private int inboxMaxMessages = 500;
+    private long inboxMaxFileBytes = 256L * 1024 * 1024;
+    private int inboxKnownUsers = 100_000;
+    // TLS : keystore PKCS12 du serveur (null = connexions en clair) et son mot de passe,
+    // sessions gardées pour la reprise (nombre, durée en secondes)
+    private String tlsKeyStore;
+    private String tlsPassword = "";
+    private int tlsSessionCacheSize = 20_000;
+    private int tlsSessionTimeoutSeconds = 3600;
+    // Point d'accès HTTP des métriques : désactivé si le port vaut 0
+    private int metricsPort = 0;
+    private String metricsHost = "127.0.0.1";
+
+    public int getPort() {
+        return port;
+    }
+
+    public ServerConfig setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    public ServerConfig setMode(ServerMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public ServerConfig setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public ServerConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    public ServerConfig setPresenceWindowMillis(long presenceWindowMillis) {
+        this.presenceWindowMillis = presenceWindowMillis;
+        return this;
+    }
+
+    public int getLogQueueCapacity() {
+        return logQueueCapacity;
+    }
+
+    public ServerConfig setLogQueueCapacity(int logQueueCapacity) {
+        this.logQueueCapacity = logQueueCapacity;
+        return this;
+    }
+
+    public LogQueuePolicy getLogQueuePolicy() {
+        return logQueuePolicy;
+    }
+
+    public ServerConfig setLogQueuePolicy(LogQueuePolicy logQueuePolicy) {
+        this.logQueuePolicy = logQueuePolicy;
+        return this;
+    }
+
+    public String getHistoryDir() {
+        return historyDir;
+    }
+
+    public ServerConfig setHistoryDir(String historyDir) {
+        this.historyDir = historyDir;
+        return this;
+    }
+
+    public int getHistoryReplayCount() {
+        return historyReplayCount;
+    }
+
+    public ServerConfig setHistoryReplayCount(int historyReplayCount) {
+        this.historyReplayCount = historyReplayCount;
+        return this;
+    }
+
+    public long getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+
+    public ServerConfig setHistorySegmentBytes(long historySegmentBytes) {
+        this.historySegmentBytes = historySegmentBytes;
+        return this;
+    }
+
+    public int getHistoryRetentionSegments() {
+        return historyRetentionSegments;
+    }
+
+    public ServerConfig setHistoryRetentionSegments(int historyRetentionSegments) {
+        this.historyRetentionSegments = historyRetentionSegments;
+        return this;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public ServerConfig setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+        return this;
+    }
+
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+
+    public ServerConfig setMetricsHost(String metricsHost) {
+        this.metricsHost = metricsHost;
+        return this;
+    }
+
+    public int getRateLimitMessages() {
+        return rateLimitMessages;
+    }
+
+    public ServerConfig setRateLimitMessages(int rateLimitMessages) {
+        this.rateLimitMessages = rateLimitMessages;
+        return this;
+    }
+
+    public int getRateLimitBytes() {
+        return rateLimitBytes;
+    }
+
+    public ServerConfig setRateLimitBytes(int rateLimitBytes) {
+        this.rateLimitBytes = rateLimitBytes;
+        return this;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public ServerConfig setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        return this;
+    }
+
+    public FloodAction getFloodAction() {
+        return floodAction;
+    }
+
+    public ServerConfig setFloodAction(FloodAction floodAction) {
+        this.floodAction = floodAction;
+        return this;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public ServerConfig setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public ServerConfig setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+        return this;
+    }
+
+    public String getClusterHost() {
+        return clusterHost;
+    }
+
+    public ServerConfig setClusterHost(String clusterHost) {
+        this.clusterHost = clusterHost;
+        return this;
+    }
+
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public ServerConfig setClusterSecret(String clusterSecret) {
+        this.clusterSecret = clusterSecret;
+        return this;
+    }
+
+    // Par défaut, le port des clients suffit à distinguer les nœuds d'une même machine
+    public String getNodeId() {
+        return nodeId != null ? nodeId : "node-" + port;
+    }
+
+    public ServerConfig setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    // Liste "hôte:port,hôte:port" des ports de cluster des autres nœuds
+    public ServerConfig setPeers(String list) {
+        List<InetSocketAddress> parsed = new ArrayList<>();
+        for (String peer : list.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException(peer);
+            }
+            parsed.add(InetSocketAddress.createUnresolved(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+        this.peers = parsed;
+        return this;
+    }
+
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public ServerConfig setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        return this;
+    }
+
+    public long getReconnectSpreadMillis() {
+        return reconnectSpreadMillis;
+    }
+
+    public ServerConfig setReconnectSpreadMillis(long reconnectSpreadMillis) {
+        this.reconnectSpreadMillis = reconnectSpreadMillis;
+        return this;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public ServerConfig setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public ServerConfig setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public ServerConfig setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    public ServerConfig setReplayBufferSize(int replayBufferSize) {
+        this.replayBufferSize = replayBufferSize;
+        return this;
+    }
+
+    public int getFilePort() {
+        return filePort;
+    }
+
+    public ServerConfig setFilePort(int filePort) {
+        this.filePort = filePort;
+        return this;
+    }
+
+    public String getSpoolDir() {
+        return spoolDir;
+    }
+
+    public ServerConfig setSpoolDir(String spoolDir) {
+        this.spoolDir = spoolDir;
+        return this;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    public ServerConfig setMaxFileBytes(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+        return this;
+    }
+
+    public long getFileBytesPerSecond() {
+        return fileBytesPerSecond;
+    }
+
+    public ServerConfig setFileBytesPerSecond(long fileBytesPerSecond) {
+        this.fileBytesPerSecond = fileBytesPerSecond;
+        return this;
+    }
+
+    public String getInboxDir() {
+        return inboxDir;
+    }
+
+    public ServerConfig setInboxDir(String inboxDir) {
+        this.inboxDir = inboxDir;
+        return this;
+    }
+
+    public long getInboxMemoryBytes() {
+        return inboxMemoryBytes;
+    }
+
+    public ServerConfig setInboxMemoryBytes(long inboxMemoryBytes) {
+        this.inboxMemoryBytes = inboxMemoryBytes;
+        return this;
+    }
+
+    public int getInboxTailMessages() {
+        return inboxTailMessages;
+    }
+
+    public ServerConfig setInboxTailMessages(int inboxTailMessages) {
+        this.inboxTailMessages = inboxTailMessages;
+        return this;
+    }
+
+    public int getInboxMaxMessages() {
+        return inboxMaxMessages;
+    }
+
+    public ServerConfig setInboxMaxMessages(int inboxMaxMessages) {
+        this.inboxMaxMessages = inboxMaxMessages;
+        return this;
+    }
+
+    public long getInboxMaxFileBytes() {
+        return inboxMaxFileBytes;
+    }
+
+    public ServerConfig setInboxMaxFileBytes(long inboxMaxFileBytes) {
+        this.inboxMaxFileBytes = inboxMaxFileBytes;
+        return this;
+    }
+
+    public int getInboxKnownUsers() {
+        return inboxKnownUsers;
+    }
+
+    public ServerConfig setInboxKnownUsers(int inboxKnownUsers) {
+        this.inboxKnownUsers = inboxKnownUsers;
+        return this;
+    }
+
+    public String getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+
+    public ServerConfig setTlsKeyStore(String tlsKeyStore) {
+        this.tlsKeyStore = tlsKeyStore;
+        return this;
+    }
+
+    public String getTlsPassword() {
+        return tlsPassword;
+    }
+
+    public ServerConfig setTlsPassword(String tlsPassword) {
+        this.tlsPassword = tlsPassword;
+        return this;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public ServerConfig setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        return this;
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public ServerConfig setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+        return this;
+    }
+}
@@ -1,19 +1,269 @@
 package org.example.socketproject.server;
 
+// Usage : ServerMain [port] [--mode=threads|virtual|nio] [--queue=taille] [--overflow=drop-oldest|drop-new|disconnect]
+//                   [--presence-window=ms] [--log-queue=taille] [--log-policy=block|drop]
+//                   [--history-dir=dossier] [--history-replay=n] [--metrics-port=port] [--metrics-host=adresse]
+//                   [--rate-messages=n/s] [--rate-bytes=octets/s] [--max-line=octets] [--flood-action=throttle|warn|disconnect]
+//                   [--compress-threshold=octets]
+//                   [--cluster-port=port] [--cluster-host=adresse] [--cluster-secret=secret] [--node-id=nom]
+//                   [--peers=hôte:port,hôte:port]
+//                   [--drain-timeout=ms] [--reconnect-spread=ms] [--reuse-port] [--replay-buffer=n]
+//                   [--tcp-nodelay=true|false] [--send-buffer=octets] [--receive-buffer=octets]
+//                   [--file-port=port] [--spool-dir=dossier] [--max-file=octets] [--file-rate=octets/s]
+//                   [--inbox-dir=dossier] [--inbox-memory=octets] [--inbox-tail=n] [--inbox-max=n] [--inbox-file-max=octets]
+//                   [--inbox-users=n]
+//                   [--tls-keystore=fichier.p12] [--tls-password=mot de passe] [--tls-session-cache=n] [--tls-session-timeout=s]
+// Le secret de cluster peut aussi venir de la variable d'environnement CHAT_CLUSTER_SECRET (il n'apparaît alors pas
+// dans la liste des processus), de même que le mot de passe du keystore de CHAT_TLS_PASSWORD. Certificat de test :
+//   keytool -genkeypair -alias chat -keyalg EC -groupname secp256r1 -keystore chat.p12 -storetype PKCS12
+//           -dname CN=localhost -ext SAN=dns:localhost,ip:127.0.0.1
 public class ServerMain {
     public static void main(String[] args) {
-        int port = 55555;
+        ServerConfig config = new ServerConfig();
 
-        if (args.length > 0) {
-            try {
-                port = Integer.parseInt(args[0]);
-            } catch (NumberFormatException e) {
-                System.err.println("Port invalide, utilisation du port " + port);
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                try {
+                    config.setMode(ServerMode.parse(arg.substring(7)));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Mode invalide, utilisation du mode " + config.getMode());
+                }
+            } else if (arg.startsWith("--queue=")) {
+                try {
+                    int capacity = Integer.parseInt(arg.substring(8));
+                    if (capacity < 1) {
+                        // ArrayBlockingQueue la refuserait à la première connexion
+                        throw new IllegalArgumentException("taille de file nulle ou négative");
+                    }
+                    config.setOutboundQueueCapacity(capacity);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Taille de file invalide, utilisation de " + config.getOutboundQueueCapacity());
+                }
+            } else if (arg.startsWith("--overflow=")) {
+                try {
+                    config.setOverflowPolicy(OverflowPolicy.parse(arg.substring(11)));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Politique invalide, utilisation de " + config.getOverflowPolicy());
+                }
+            } else if (arg.startsWith("--presence-window=")) {
+                try {
+                    config.setPresenceWindowMillis(Long.parseLong(arg.substring(18)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Fenêtre de présence invalide, utilisation de " + config.getPresenceWindowMillis() + " ms");
+                }
+            } else if (arg.startsWith("--log-queue=")) {
+                try {
+                    int capacity = Integer.parseInt(arg.substring(12));
+                    if (capacity < 1) {
+                        // Une file sans place bloquerait indéfiniment chaque trace en mode block
+                        throw new IllegalArgumentException("taille de file nulle ou négative");
+                    }
+                    config.setLogQueueCapacity(capacity);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Taille de file de logs invalide, utilisation de " + config.getLogQueueCapacity());
+                }
+            } else if (arg.startsWith("--log-policy=")) {
+                try {
+                    config.setLogQueuePolicy(LogQueuePolicy.parse(arg.substring(13)));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Politique de logs invalide, utilisation de " + config.getLogQueuePolicy());
+                }
+            } else if (arg.startsWith("--history-dir=")) {
+                config.setHistoryDir(arg.substring(14));
+            } else if (arg.startsWith("--history-replay=")) {
+                try {
+                    config.setHistoryReplayCount(Integer.parseInt(arg.substring(17)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Nombre de messages d'historique invalide, utilisation de " + config.getHistoryReplayCount());
+                }
+            } else if (arg.startsWith("--metrics-port=")) {
+                try {
+                    config.setMetricsPort(Integer.parseInt(arg.substring(15)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Port des métriques invalide, point d'accès HTTP désactivé");
+                }
+            } else if (arg.startsWith("--metrics-host=")) {
+                config.setMetricsHost(arg.substring(15));
+            } else if (arg.startsWith("--rate-messages=")) {
+                try {
+                    config.setRateLimitMessages(Integer.parseInt(arg.substring(16)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Limite de messages invalide, utilisation de " + config.getRateLimitMessages() + "/s");
+                }
+            } else if (arg.startsWith("--rate-bytes=")) {
+                try {
+                    config.setRateLimitBytes(Integer.parseInt(arg.substring(13)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Limite d'octets invalide, utilisation de " + config.getRateLimitBytes() + "/s");
+                }
+            } else if (arg.startsWith("--max-line=")) {
+                try {
+                    config.setMaxLineLength(Integer.parseInt(arg.substring(11)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Longueur de ligne invalide, utilisation de " + config.getMaxLineLength());
+                }
+            } else if (arg.startsWith("--flood-action=")) {
+                try {
+                    config.setFloodAction(FloodAction.parse(arg.substring(15)));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Action invalide, utilisation de " + config.getFloodAction());
+                }
+            } else if (arg.startsWith("--compress-threshold=")) {
+                try {
+                    config.setCompressionThreshold(Integer.parseInt(arg.substring(21)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Seuil de compression invalide, utilisation de " + config.getCompressionThreshold());
+                }
+            } else if (arg.startsWith("--cluster-port=")) {
+                try {
+                    config.setClusterPort(Integer.parseInt(arg.substring(15)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Port de cluster invalide, serveur seul");
+                }
+            } else if (arg.startsWith("--cluster-host=")) {
+                config.setClusterHost(arg.substring(15));
+            } else if (arg.startsWith("--cluster-secret=")) {
+                config.setClusterSecret(arg.substring(17));
+            } else if (arg.startsWith("--node-id=")) {
+                config.setNodeId(arg.substring(10));
+            } else if (arg.startsWith("--peers=")) {
+                try {
+                    config.setPeers(arg.substring(8));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Liste de pairs invalide (hôte:port,hôte:port), aucun pair");
+                }
+            } else if (arg.startsWith("--drain-timeout=")) {
+                try {
+                    config.setDrainTimeoutMillis(Long.parseLong(arg.substring(16)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Délai d'arrêt invalide, utilisation de " + config.getDrainTimeoutMillis() + " ms");
+                }
+            } else if (arg.startsWith("--reconnect-spread=")) {
+                try {
+                    config.setReconnectSpreadMillis(Long.parseLong(arg.substring(19)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Étalement des reconnexions invalide, utilisation de "
+                            + config.getReconnectSpreadMillis() + " ms");
+                }
+            } else if (arg.equals("--reuse-port")) {
+                config.setReusePort(true);
+            } else if (arg.startsWith("--tcp-nodelay=")) {
+                config.setTcpNoDelay(Boolean.parseBoolean(arg.substring(14)));
+            } else if (arg.startsWith("--send-buffer=")) {
+                try {
+                    config.setSendBufferSize(Integer.parseInt(arg.substring(14)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille du tampon d'envoi invalide, valeur du système utilisée");
+                }
+            } else if (arg.startsWith("--receive-buffer=")) {
+                try {
+                    config.setReceiveBufferSize(Integer.parseInt(arg.substring(17)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille du tampon de réception invalide, valeur du système utilisée");
+                }
+            } else if (arg.startsWith("--replay-buffer=")) {
+                try {
+                    config.setReplayBufferSize(Integer.parseInt(arg.substring(16)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille du tampon de reprise invalide, utilisation de " + config.getReplayBufferSize());
+                }
+            } else if (arg.startsWith("--file-port=")) {
+                try {
+                    config.setFilePort(Integer.parseInt(arg.substring(12)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Port des transferts invalide, transferts de fichiers désactivés");
+                }
+            } else if (arg.startsWith("--spool-dir=")) {
+                config.setSpoolDir(arg.substring(12));
+            } else if (arg.startsWith("--max-file=")) {
+                try {
+                    config.setMaxFileBytes(Long.parseLong(arg.substring(11)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille de fichier maximale invalide, utilisation de " + config.getMaxFileBytes());
+                }
+            } else if (arg.startsWith("--file-rate=")) {
+                try {
+                    config.setFileBytesPerSecond(Long.parseLong(arg.substring(12)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Débit des transferts invalide, utilisation de " + config.getFileBytesPerSecond());
+                }
+            } else if (arg.startsWith("--inbox-dir=")) {
+                config.setInboxDir(arg.substring(12));
+            } else if (arg.startsWith("--inbox-memory=")) {
+                try {
+                    config.setInboxMemoryBytes(Long.parseLong(arg.substring(15)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Budget mémoire des boîtes invalide, utilisation de " + config.getInboxMemoryBytes());
+                }
+            } else if (arg.startsWith("--inbox-tail=")) {
+                try {
+                    config.setInboxTailMessages(Integer.parseInt(arg.substring(13)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Nombre de messages en mémoire invalide, utilisation de " + config.getInboxTailMessages());
+                }
+            } else if (arg.startsWith("--inbox-max=")) {
+                try {
+                    config.setInboxMaxMessages(Integer.parseInt(arg.substring(12)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille de boîte invalide, utilisation de " + config.getInboxMaxMessages());
+                }
+            } else if (arg.startsWith("--inbox-file-max=")) {
+                try {
+                    config.setInboxMaxFileBytes(Long.parseLong(arg.substring(17)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille du fichier des boîtes invalide, utilisation de " + config.getInboxMaxFileBytes());
+                }
+            } else if (arg.startsWith("--inbox-users=")) {
+                try {
+                    config.setInboxKnownUsers(Integer.parseInt(arg.substring(14)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Nombre de pseudos retenus invalide, utilisation de " + config.getInboxKnownUsers());
+                }
+            } else if (arg.startsWith("--tls-keystore=")) {
+                config.setTlsKeyStore(arg.substring(15));
+            } else if (arg.startsWith("--tls-password=")) {
+                config.setTlsPassword(arg.substring(15));
+            } else if (arg.startsWith("--tls-session-cache=")) {
+                try {
+                    config.setTlsSessionCacheSize(Integer.parseInt(arg.substring(20)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Taille du cache de sessions TLS invalide, utilisation de " + config.getTlsSessionCacheSize());
+                }
+            } else if (arg.startsWith("--tls-session-timeout=")) {
+                try {
+                    config.setTlsSessionTimeoutSeconds(Integer.parseInt(arg.substring(22)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Durée des sessions TLS invalide, utilisation de " + config.getTlsSessionTimeoutSeconds() + " s");
+                }
+            } else {
+                try {
+                    config.setPort(Integer.parseInt(arg));
+                } catch (NumberFormatException e) {
+                    System.err.println("Port invalide, utilisation du port " + config.getPort());
+                }
             }
         }
 
-        System.out.println("Démarrage du serveur de chat sur le port " + port);
-        ChatServer server = new ChatServer(port);
+        String clusterSecret = System.getenv("CHAT_CLUSTER_SECRET");
+        if (clusterSecret != null && config.getClusterSecret() == null) {
+            config.setClusterSecret(clusterSecret);
+        }
+        String tlsPassword = System.getenv("CHAT_TLS_PASSWORD");
+        if (tlsPassword != null && config.getTlsPassword().isEmpty()) {
+            config.setTlsPassword(tlsPassword);
+        }
+
+        System.out.println("Démarrage du serveur de chat sur le port " + config.getPort());
+        ChatServer server = new ChatServer(config);
+        // Ctrl+C ou SIGTERM : arrêt progressif (clients prévenus, files vidées), puis statistiques finales ;
+        // --drain-timeout=0 pour couper tout de suite
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (config.getDrainTimeoutMillis() > 0) {
+                server.drain();
+            } else {
+                server.stop();
+            }
+        }, "chat-shutdown"));
         server.start();
     }
-}
\ No newline at end of file
+}
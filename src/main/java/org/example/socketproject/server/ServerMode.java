@@ -0,0 +1,15 @@
+package org.example.socketproject.server;
+
+// Modèle d'exécution des connexions clientes
+public enum ServerMode {
+    // Un thread (pool extensible) par client, lectures bloquantes
+    THREADS,
+    // Un thread virtuel par client (Java 21+), lectures bloquantes inchangées
+    VIRTUAL,
+    // Quelques boucles Selector (une par cœur), lectures non bloquantes
+    NIO;
+
+    public static ServerMode parse(String value) {
+        return ServerMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.socketproject.server.cluster;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Authentification des liens entre nœuds par un secret partagé, sans jamais
+ * l'envoyer : chaque côté tire un défi aléatoire et l'autre prouve qu'il
+ * connaît le secret par un HMAC-SHA256 portant sur les deux défis, son rôle
+ * (lien sortant ou entrant) et son identifiant. Une preuve ne peut donc pas
+ * être rejouée sur un autre lien ni renvoyée à son auteur.
+ */
+final class ClusterAuth {
+    static final String CONNECT = "connect";
+    static final String ACCEPT = "accept";
+
+    private static final SecureRandom NONCES = new SecureRandom();
+
+    private final SecretKeySpec key;
+
+    ClusterAuth(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    // 128 bits en hexadécimal
+    static String nonce() {
+        byte[] bytes = new byte[16];
+        NONCES.nextBytes(bytes);
+        return hex(bytes);
+    }
+
+    // Preuve du nœud nodeId pour le lien ouvert avec ces deux défis (celui du nœud qui se connecte, puis l'autre)
+    String proof(String role, String nodeId, String connectNonce, String acceptNonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return hex(mac.doFinal(String.join("\n", role, nodeId, connectNonce, acceptNonce).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Comparaison en temps constant
+    boolean verify(String proof, String role, String nodeId, String connectNonce, String acceptNonce) {
+        return MessageDigest.isEqual(proof.getBytes(StandardCharsets.UTF_8),
+                proof(role, nodeId, connectNonce, acceptNonce).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+}
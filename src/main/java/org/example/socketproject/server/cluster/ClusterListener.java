@@ -0,0 +1,16 @@
+package org.example.socketproject.server.cluster;
+
+// Événements venus des autres nœuds, à appliquer aux clients connectés localement
+public interface ClusterListener {
+    // Message diffusé dans un salon sur un autre nœud
+    void remoteBroadcast(String room, String sender, String message);
+
+    // Message privé pour un client connecté ici
+    void remotePrivate(String from, String to, String message);
+
+    // Arrivée ou départ d'un membre distant d'un salon
+    void remotePresence(String room, String username, boolean joined);
+
+    // Un pseudo pris ici l'a été plus tôt sur un autre nœud : le client local doit le rendre
+    void usernameLost(String username);
+}
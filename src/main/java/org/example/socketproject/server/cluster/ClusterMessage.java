@@ -0,0 +1,47 @@
+package org.example.socketproject.server.cluster;
+
+import org.example.socketproject.protocol.FrameCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Messages échangés entre nœuds : trames du protocole binaire (FrameCodec)
+ * avec leurs propres types, champs séparés par '\n' dans la charge utile (le
+ * dernier champ peut lui-même contenir des '\n').
+ */
+final class ClusterMessage {
+    // Premier message dans chaque sens : "nœud\ndéfi" du nœud qui se connecte,
+    // "nœud\ndéfi\npreuve" en réponse (voir ClusterAuth)
+    static final byte HELLO = 32;
+    // "pseudo\ninstant" : pseudo pris sur le nœud expéditeur
+    static final byte CLAIM = 33;
+    // "pseudo" : pseudo libéré
+    static final byte RELEASE = 34;
+    // "salon\npseudo"
+    static final byte ROOM_JOIN = 35;
+    static final byte ROOM_LEAVE = 36;
+    // "salon\nexpéditeur\nmessage" (expéditeur vide pour un message système)
+    static final byte BROADCAST = 37;
+    // "expéditeur\ndestinataire\nmessage"
+    static final byte PRIVATE = 38;
+    // "preuve" du nœud qui se connecte ; rien d'autre n'est lu sur un lien entrant avant elle
+    static final byte AUTH = 39;
+
+    private ClusterMessage() {
+    }
+
+    // Encodée une fois, puis partagée par tous les liens (chacun écrit une vue duplicate())
+    static ByteBuffer encode(byte type, String... fields) {
+        return FrameCodec.encode(type, (byte) 0, 0, String.join("\n", fields).getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    // Découper une charge utile en exactement count champs
+    static String[] fields(String payload, int count) {
+        String[] fields = payload.split("\n", count);
+        if (fields.length != count) {
+            throw new IllegalArgumentException("Message de cluster incomplet : " + payload);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,397 @@
+package org.example.socketproject.server.cluster;
+
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.server.ChatLogger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ce serveur vu comme un nœud d'un cluster : chaque nœud se connecte à tous
+ * ceux de sa liste de pairs (lien sortant, PeerLink) et reçoit leurs
+ * événements sur son port de cluster (liens entrants, un thread chacun).
+ * Tous les nœuds doivent donc se lister mutuellement. Le port de cluster
+ * n'écoute que sur l'adresse configurée (boucle locale par défaut) et chaque
+ * lien doit prouver qu'il connaît le secret partagé (ClusterAuth) avant que
+ * ses événements ne soient pris en compte.
+ *
+ * Le registre des pseudos est réparti : chaque nœud annonce les pseudos qu'il
+ * attribue, avec leur instant. Si deux nœuds attribuent le même pseudo avant
+ * de l'apprendre l'un de l'autre, le plus ancien gagne (à égalité, le plus
+ * petit identifiant de nœud) et le perdant déconnecte son client. Quand un
+ * nœud disparaît, ses pseudos et ses membres de salons sont oubliés.
+ */
+public class ClusterNode {
+    // Délai laissé à un lien entrant pour se présenter et s'authentifier
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final String nodeId;
+    private final String host;
+    private final int port;
+    // null sans secret : le nœud refuse alors de démarrer
+    private final ClusterAuth auth;
+    private final ClusterListener listener;
+    private final List<PeerLink> links = new ArrayList<>();
+
+    // Pseudo -> nœud qui le détient (ce nœud compris)
+    private final Map<String, Claim> claims = new ConcurrentHashMap<>();
+    // Membres locaux des salons, pour l'état envoyé à chaque nouveau lien
+    private final Map<String, Set<String>> localRooms = new ConcurrentHashMap<>();
+    // Nœud distant -> salon -> membres connectés sur ce nœud
+    private final Map<String, Map<String, Set<String>>> remoteRooms = new ConcurrentHashMap<>();
+    // Lien entrant en cours pour chaque nœud distant
+    private final Map<String, Socket> incoming = new ConcurrentHashMap<>();
+
+    private ServerSocket serverSocket;
+    private volatile boolean running = false;
+
+    // Pseudo attribué par un nœud à un instant donné
+    private static final class Claim {
+        final String node;
+        final long time;
+
+        Claim(String node, long time) {
+            this.node = node;
+            this.time = time;
+        }
+
+        // Le plus ancien gagne, puis le plus petit identifiant de nœud
+        boolean winsOver(Claim other) {
+            return time != other.time ? time < other.time : node.compareTo(other.node) < 0;
+        }
+    }
+
+    public ClusterNode(String nodeId, String host, int port, String secret, List<InetSocketAddress> peers,
+                       ClusterListener listener) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+        this.auth = secret != null && !secret.isEmpty() ? new ClusterAuth(secret) : null;
+        this.listener = listener;
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(this, peer));
+        }
+    }
+
+    // reusePort : un nœud qui redémarre peut écouter pendant que l'ancien processus se vide
+    public void start(boolean reusePort) throws IOException {
+        if (auth == null) {
+            throw new IOException("secret de cluster manquant (--cluster-secret ou CHAT_CLUSTER_SECRET)");
+        }
+        serverSocket = new ServerSocket();
+        if (reusePort) {
+            try {
+                serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            } catch (UnsupportedOperationException e) {
+                // Signalé par ChatServer pour le port des clients
+            }
+        }
+        serverSocket.bind(new InetSocketAddress(host, port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "chat-cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            link.start();
+        }
+        ChatLogger.getInstance().logServerEvent("Nœud " + nodeId + " du cluster à l'écoute sur " + host + ":" + port
+                + " (" + links.size() + " pairs)");
+    }
+
+    public void stop() {
+        running = false;
+        for (PeerLink link : links) {
+            link.shutdown();
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Déjà fermé
+        }
+        for (Socket socket : incoming.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    ClusterAuth getAuth() {
+        return auth;
+    }
+
+    // Liens sortants établis
+    public int getConnectedPeers() {
+        int count = 0;
+        for (PeerLink link : links) {
+            if (link.isUp()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // --- Événements locaux, relayés aux autres nœuds ---
+
+    // Prendre un pseudo pour un client de ce nœud ; false s'il est déjà pris dans le cluster
+    public boolean claim(String username) {
+        Claim claim = new Claim(nodeId, System.currentTimeMillis());
+        if (claims.putIfAbsent(username, claim) != null) {
+            return false;
+        }
+        relay(ClusterMessage.encode(ClusterMessage.CLAIM, username, Long.toString(claim.time)));
+        return true;
+    }
+
+    // Libérer un pseudo de ce nœud (sans effet s'il a été perdu au profit d'un autre nœud)
+    public void release(String username) {
+        boolean[] released = new boolean[1];
+        claims.computeIfPresent(username, (name, claim) -> {
+            released[0] = claim.node.equals(nodeId);
+            return released[0] ? null : claim;
+        });
+        if (released[0]) {
+            relay(ClusterMessage.encode(ClusterMessage.RELEASE, username));
+        }
+    }
+
+    public void joined(String room, String username) {
+        localRooms.computeIfAbsent(room, name -> ConcurrentHashMap.newKeySet()).add(username);
+        relay(ClusterMessage.encode(ClusterMessage.ROOM_JOIN, room, username));
+    }
+
+    public void left(String room, String username) {
+        localRooms.computeIfPresent(room, (name, members) -> {
+            members.remove(username);
+            return members.isEmpty() ? null : members;
+        });
+        relay(ClusterMessage.encode(ClusterMessage.ROOM_LEAVE, room, username));
+    }
+
+    public void broadcast(String room, String sender, String message) {
+        relay(ClusterMessage.encode(ClusterMessage.BROADCAST, room, sender != null ? sender : "", message));
+    }
+
+    // Transmettre un message privé au nœud du destinataire ; false si personne ne porte ce pseudo ailleurs
+    public boolean sendPrivate(String from, String to, String message) {
+        Claim claim = claims.get(to);
+        if (claim == null || claim.node.equals(nodeId)) {
+            return false;
+        }
+        for (PeerLink link : links) {
+            if (link.isUp() && claim.node.equals(link.getPeerId())) {
+                link.send(ClusterMessage.encode(ClusterMessage.PRIVATE, from, to, message));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Membres d'un salon connectés sur les autres nœuds
+    public Collection<String> remoteMembers(String room) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Map<String, Set<String>> rooms : remoteRooms.values()) {
+            Set<String> members = rooms.get(room);
+            if (members != null) {
+                names.addAll(members);
+            }
+        }
+        return names;
+    }
+
+    // Une trame encodée une fois pour tous les liens
+    private void relay(ByteBuffer frame) {
+        for (PeerLink link : links) {
+            link.send(frame);
+        }
+    }
+
+    // État local complet, envoyé à l'ouverture de chaque lien sortant
+    List<ByteBuffer> snapshot() {
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (Map.Entry<String, Claim> entry : claims.entrySet()) {
+            if (entry.getValue().node.equals(nodeId)) {
+                frames.add(ClusterMessage.encode(ClusterMessage.CLAIM, entry.getKey(), Long.toString(entry.getValue().time)));
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : localRooms.entrySet()) {
+            for (String username : entry.getValue()) {
+                frames.add(ClusterMessage.encode(ClusterMessage.ROOM_JOIN, entry.getKey(), username));
+            }
+        }
+        return frames;
+    }
+
+    // --- Liens entrants : événements des autres nœuds ---
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readPeer(socket), "chat-cluster-in-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    ChatLogger.getInstance().logError("Erreur d'acceptation d'un nœud : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readPeer(Socket socket) {
+        String peer = null;
+        try {
+            // Un inconnu ne garde pas ce thread indéfiniment
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Frame hello = FrameCodec.read(in);
+            if (hello == null || hello.getType() != ClusterMessage.HELLO) {
+                throw new IOException("présentation attendue");
+            }
+            String[] fields = ClusterMessage.fields(hello.getText(), 2);
+            String connectNonce = fields[1];
+            String acceptNonce = ClusterAuth.nonce();
+            OutputStream out = socket.getOutputStream();
+            ByteBuffer answer = ClusterMessage.encode(ClusterMessage.HELLO, nodeId, acceptNonce,
+                    auth.proof(ClusterAuth.ACCEPT, nodeId, connectNonce, acceptNonce));
+            out.write(answer.array(), 0, answer.limit());
+            out.flush();
+            if (fields[0].equals(nodeId)) {
+                return;
+            }
+
+            Frame proof = FrameCodec.read(in);
+            if (proof == null || proof.getType() != ClusterMessage.AUTH
+                    || !auth.verify(proof.getText(), ClusterAuth.CONNECT, fields[0], connectNonce, acceptNonce)) {
+                throw new IOException("nœud " + fields[0] + " non authentifié");
+            }
+            peer = fields[0];
+            socket.setSoTimeout(0);
+
+            // Nœud redémarré (ou reconnecté) : l'état de l'ancien lien est obsolète
+            Socket previous = incoming.put(peer, socket);
+            if (previous != null) {
+                forget(peer);
+                closeQuietly(previous);
+            }
+
+            Frame frame;
+            while ((frame = FrameCodec.read(in)) != null) {
+                handle(peer, frame);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            if (running) {
+                ChatLogger.getInstance().logError("Lien depuis le nœud " + (peer != null ? peer : socket.getInetAddress())
+                        + " interrompu : " + e.getMessage());
+            }
+        } finally {
+            closeQuietly(socket);
+            if (peer != null && incoming.remove(peer, socket)) {
+                ChatLogger.getInstance().logServerEvent("Nœud " + peer + " parti, ses utilisateurs sont retirés");
+                forget(peer);
+            }
+        }
+    }
+
+    private void handle(String peer, Frame frame) {
+        String text = frame.getText();
+        switch (frame.getType()) {
+            case ClusterMessage.CLAIM: {
+                String[] fields = ClusterMessage.fields(text, 2);
+                remoteClaim(fields[0], new Claim(peer, Long.parseLong(fields[1])));
+                break;
+            }
+            case ClusterMessage.RELEASE:
+                claims.computeIfPresent(text, (name, claim) -> claim.node.equals(peer) ? null : claim);
+                break;
+            case ClusterMessage.ROOM_JOIN: {
+                String[] fields = ClusterMessage.fields(text, 2);
+                Set<String> members = remoteRooms.computeIfAbsent(peer, node -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(fields[0], room -> ConcurrentHashMap.newKeySet());
+                if (members.add(fields[1])) {
+                    listener.remotePresence(fields[0], fields[1], true);
+                }
+                break;
+            }
+            case ClusterMessage.ROOM_LEAVE: {
+                String[] fields = ClusterMessage.fields(text, 2);
+                Map<String, Set<String>> rooms = remoteRooms.get(peer);
+                Set<String> members = rooms != null ? rooms.get(fields[0]) : null;
+                if (members != null && members.remove(fields[1])) {
+                    listener.remotePresence(fields[0], fields[1], false);
+                }
+                break;
+            }
+            case ClusterMessage.BROADCAST: {
+                String[] fields = ClusterMessage.fields(text, 3);
+                listener.remoteBroadcast(fields[0], fields[1].isEmpty() ? null : fields[1], fields[2]);
+                break;
+            }
+            case ClusterMessage.PRIVATE: {
+                String[] fields = ClusterMessage.fields(text, 3);
+                listener.remotePrivate(fields[0], fields[1], fields[2]);
+                break;
+            }
+            default:
+                // Type inconnu (nœud plus récent) : ignoré
+        }
+    }
+
+    // Pseudo attribué par un autre nœud : garder la plus ancienne attribution
+    private void remoteClaim(String username, Claim incomingClaim) {
+        boolean[] lostLocally = new boolean[1];
+        claims.merge(username, incomingClaim, (current, candidate) -> {
+            if (!candidate.winsOver(current)) {
+                return current;
+            }
+            lostLocally[0] = current.node.equals(nodeId);
+            return candidate;
+        });
+        if (lostLocally[0]) {
+            ChatLogger.getInstance().logServerEvent("Pseudo " + username + " déjà attribué par le nœud "
+                    + incomingClaim.node + ", client local déconnecté");
+            listener.usernameLost(username);
+        }
+    }
+
+    // Oublier les pseudos et les membres de salons d'un nœud parti
+    private void forget(String peer) {
+        claims.values().removeIf(claim -> claim.node.equals(peer));
+        Map<String, Set<String>> rooms = remoteRooms.remove(peer);
+        if (rooms == null) {
+            return;
+        }
+        for (Map.Entry<String, Set<String>> entry : rooms.entrySet()) {
+            for (String username : entry.getValue()) {
+                listener.remotePresence(entry.getKey(), username, false);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+}
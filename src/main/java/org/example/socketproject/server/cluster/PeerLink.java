@@ -0,0 +1,171 @@
+package org.example.socketproject.server.cluster;
+
+import org.example.socketproject.protocol.Frame;
+import org.example.socketproject.protocol.FrameCodec;
+import org.example.socketproject.server.ChatLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lien sortant vers un autre nœud : un thread qui se connecte (et se
+ * reconnecte), présente ce nœud, envoie l'état local complet puis les
+ * événements au fil de l'eau. Les événements ne sont mis en file que lien
+ * établi ; ceux d'une coupure sont couverts par l'état envoyé à la reconnexion.
+ */
+class PeerLink extends Thread {
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final long RETRY_MILLIS = 2000;
+
+    private final ClusterNode node;
+    private final InetSocketAddress address;
+    private final String label;
+    private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean up = false;
+    private volatile boolean running = true;
+    private volatile String peerId;
+    private volatile Socket socket;
+    private final AtomicLong dropped = new AtomicLong();
+
+    PeerLink(ClusterNode node, InetSocketAddress address) {
+        super("chat-cluster-" + address.getHostString() + "-" + address.getPort());
+        setDaemon(true);
+        this.node = node;
+        this.address = address;
+        this.label = address.getHostString() + ":" + address.getPort();
+    }
+
+    // Identifiant du nœud distant, connu après sa réponse à HELLO
+    String getPeerId() {
+        return peerId;
+    }
+
+    boolean isUp() {
+        return up;
+    }
+
+    // Trame partagée entre les liens : chacun écrit sa propre vue
+    void send(ByteBuffer frame) {
+        if (up && !queue.offer(frame.duplicate())) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        interrupt();
+        closeSocket();
+    }
+
+    @Override
+    public void run() {
+        boolean reported = false;
+        while (running) {
+            try {
+                connectAndForward();
+            } catch (IOException | IllegalArgumentException e) {
+                // Une seule trace par coupure, pas une par tentative
+                if (!reported && running) {
+                    ChatLogger.getInstance().logError("Nœud " + label + " injoignable : " + e.getMessage());
+                    reported = true;
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                if (up) {
+                    ChatLogger.getInstance().logServerEvent("Lien vers le nœud " + peerId + " coupé"
+                            + (dropped.get() > 0 ? " (" + dropped.get() + " messages perdus)" : ""));
+                    reported = false;
+                }
+                up = false;
+                queue.clear();
+                closeSocket();
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void connectAndForward() throws IOException, InterruptedException {
+        Socket connection = new Socket();
+        socket = connection;
+        // Résolu à chaque tentative : l'adresse du pair peut changer entre deux redémarrages
+        connection.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+        connection.setTcpNoDelay(true);
+        OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+
+        String connectNonce = ClusterAuth.nonce();
+        write(out, ClusterMessage.encode(ClusterMessage.HELLO, node.getNodeId(), connectNonce));
+        out.flush();
+        Frame hello = FrameCodec.read(in);
+        if (hello == null || hello.getType() != ClusterMessage.HELLO) {
+            throw new IOException("réponse inattendue");
+        }
+        String[] fields = ClusterMessage.fields(hello.getText(), 3);
+        if (!node.getAuth().verify(fields[2], ClusterAuth.ACCEPT, fields[0], connectNonce, fields[1])) {
+            throw new IOException("nœud " + fields[0] + " non authentifié (secret de cluster différent ?)");
+        }
+        peerId = fields[0];
+        if (peerId.equals(node.getNodeId())) {
+            // Ce nœud figure dans sa propre liste de pairs
+            running = false;
+            return;
+        }
+        write(out, ClusterMessage.encode(ClusterMessage.AUTH,
+                node.getAuth().proof(ClusterAuth.CONNECT, node.getNodeId(), connectNonce, fields[1])));
+
+        // Mis en file à partir d'ici : ce qui change pendant l'envoi de l'état sera rejoué (sans effet si en double)
+        dropped.set(0);
+        up = true;
+        List<ByteBuffer> state = node.snapshot();
+        for (ByteBuffer frame : state) {
+            write(out, frame);
+        }
+        out.flush();
+        ChatLogger.getInstance().logServerEvent("Lien établi vers le nœud " + peerId + " (" + label + ")");
+
+        while (running) {
+            ByteBuffer frame = queue.poll(1, TimeUnit.SECONDS);
+            if (frame == null) {
+                continue;
+            }
+            write(out, frame);
+            // Regrouper dans le même flush tout ce qui est déjà en attente
+            while ((frame = queue.poll()) != null) {
+                write(out, frame);
+            }
+            out.flush();
+        }
+    }
+
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Déjà fermée
+            }
+        }
+    }
+}
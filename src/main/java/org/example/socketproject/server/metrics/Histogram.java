@@ -0,0 +1,86 @@
+package org.example.socketproject.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de durées (en nanosecondes) partagé entre threads, sans verrou :
+ * chaque enregistrement incrémente un intervalle d'un tableau atomique.
+ * Chaque puissance de deux est découpée en 16 intervalles (environ 6 %
+ * d'erreur sur un centile), ce qui tient en moins de 1000 compteurs.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (62 - SUB_BITS) * SUB_COUNT + 2 * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    // Centile depuis le démarrage (0.99 pour p99) ; lecture approximative pendant les écritures concurrentes
+    public long percentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index - shift * SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.socketproject.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Point d'accès HTTP minimal (serveur HTTP du JDK, un seul thread) : GET
+ * /metrics renvoie les métriques au format texte Prometheus.
+ */
+public class MetricsHttpServer {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    public MetricsHttpServer(String host, int port, ServerMetrics metrics) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        http.setExecutor(executor);
+        http.createContext("/metrics", exchange -> respond(exchange, metrics));
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    public void stop() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void respond(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
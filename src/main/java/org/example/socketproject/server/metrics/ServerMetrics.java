@@ -0,0 +1,625 @@
+package org.example.socketproject.server.metrics;
+
+import org.example.socketproject.server.ChatLogger;
+import org.example.socketproject.server.OutboundMessage;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Métriques du serveur : compteurs LongAdder et histogrammes sans verrou
+ * alimentés par les chemins chauds, jauges lues à la demande. Exposées au
+ * format texte Prometheus (MetricsHttpServer) et par JMX.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private final IntSupplier connections;
+    private final LongSupplier outboundBacklog;
+    // Boîtes des absents : octets en mémoire, taille du fichier de débordement, messages qui y sont passés
+    private LongSupplier inboxMemory = () -> 0;
+    private LongSupplier inboxFile = () -> 0;
+    private LongSupplier inboxSpilled = () -> 0;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder floodThrottled = new LongAdder();
+    private final LongAdder floodDropped = new LongAdder();
+    private final LongAdder floodDisconnected = new LongAdder();
+    private final LongAdder oversizedLines = new LongAdder();
+    // Reprises de session : rejeu des messages manqués, ou repli sur l'historique
+    private final LongAdder resumedSessions = new LongAdder();
+    private final LongAdder resumeFallbacks = new LongAdder();
+    private final LongAdder replayedMessages = new LongAdder();
+    // Accusés des clients : messages numérotés reçus, perdus de vue sans accusé, messages privés lus
+    private final LongAdder acknowledgedMessages = new LongAdder();
+    private final LongAdder unacknowledgedMessages = new LongAdder();
+    private final LongAdder readMessages = new LongAdder();
+    // Transferts de fichiers : octets reçus des expéditeurs et remis aux destinataires, transferts abandonnés
+    private final LongAdder fileBytesUploaded = new LongAdder();
+    private final LongAdder fileBytesDownloaded = new LongAdder();
+    private final LongAdder filesDelivered = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    // Messages privés pour des absents : gardés, remis à la connexion, refusés (boîte pleine)
+    private final LongAdder inboxStored = new LongAdder();
+    private final LongAdder inboxDelivered = new LongAdder();
+    private final LongAdder inboxRejected = new LongAdder();
+    // Poignées de main TLS : complètes, reprises d'une session en cache, échouées
+    private final LongAdder tlsFullHandshakes = new LongAdder();
+    private final LongAdder tlsResumedHandshakes = new LongAdder();
+    private final LongAdder tlsHandshakeFailures = new LongAdder();
+    // Compression en sortie (une fois par message, pas par destinataire) et décompression en entrée
+    private final LongAdder compressedMessages = new LongAdder();
+    private final LongAdder incompressibleMessages = new LongAdder();
+    private final LongAdder compressionBytesIn = new LongAdder();
+    private final LongAdder compressionBytesOut = new LongAdder();
+    private final LongAdder decompressedMessages = new LongAdder();
+    private final LongAdder decompressionBytesIn = new LongAdder();
+    private final LongAdder decompressionBytesOut = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+    private final Histogram compressionTime = new Histogram();
+    private final Histogram broadcastFanOut = new Histogram();
+    private final Histogram privateRoute = new Histogram();
+    private final Histogram searchTime = new Histogram();
+    private final Histogram tlsHandshakeTime = new Histogram();
+
+    // Débits par seconde, recalculés par tick()
+    private long lastTickNanos = System.nanoTime();
+    private long lastAccepted;
+    private long lastMessagesIn;
+    private long lastMessagesOut;
+    private volatile double acceptRate;
+    private volatile double messagesInRate;
+    private volatile double messagesOutRate;
+
+    public ServerMetrics(IntSupplier connections, LongSupplier outboundBacklog) {
+        this.connections = connections;
+        this.outboundBacklog = outboundBacklog;
+    }
+
+    // Jauges des boîtes des absents, lues à chaque exposition
+    public void watchInbox(LongSupplier memoryBytes, LongSupplier fileBytes, LongSupplier spilledMessages) {
+        this.inboxMemory = memoryBytes;
+        this.inboxFile = fileBytes;
+        this.inboxSpilled = spilledMessages;
+    }
+
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    // Ligne ou trame reçue d'un client
+    public void messageReceived() {
+        messagesIn.increment();
+    }
+
+    public void bytesReceived(long count) {
+        bytesIn.add(count);
+    }
+
+    // Message sorti de la file d'envoi pour être écrit vers un client
+    public void messageSent() {
+        messagesOut.increment();
+    }
+
+    public void bytesSent(long count) {
+        bytesOut.add(count);
+    }
+
+    // Durée de mise en file d'une diffusion pour tous les membres du salon
+    public void broadcastFanOut(long nanos) {
+        broadcastFanOut.record(nanos);
+    }
+
+    // Durée de routage d'un message privé : recherche du destinataire, encodage et mise en file
+    public void privateRoute(long nanos) {
+        privateRoute.record(nanos);
+    }
+
+    // Durée d'une recherche /search : index puis lecture des messages trouvés
+    public void searched(long nanos) {
+        searchTime.record(nanos);
+    }
+
+    // Dépassements de débit, selon la réaction appliquée
+    public void floodThrottled() {
+        floodThrottled.increment();
+    }
+
+    public void floodDropped() {
+        floodDropped.increment();
+    }
+
+    public void floodDisconnected() {
+        floodDisconnected.increment();
+    }
+
+    public void oversizedLine() {
+        oversizedLines.increment();
+    }
+
+    // Client reconnecté à qui seuls les messages manqués ont été renvoyés
+    public void resumed() {
+        resumedSessions.increment();
+    }
+
+    public void replayed(int count) {
+        replayedMessages.add(count);
+    }
+
+    // Client reconnecté trop tard (ou après un redémarrage) : historique complet
+    public void resumeFallback() {
+        resumeFallbacks.increment();
+    }
+
+    public void acknowledged(int count) {
+        acknowledgedMessages.add(count);
+    }
+
+    // Messages sortis de la fenêtre de suivi, ou en attente à la déconnexion, sans accusé de réception
+    public void unacknowledged(int count) {
+        unacknowledgedMessages.add(count);
+    }
+
+    public void read(int count) {
+        readMessages.add(count);
+    }
+
+    public void fileUploaded(long bytes) {
+        fileBytesUploaded.add(bytes);
+    }
+
+    public void fileDownloaded(long bytes) {
+        fileBytesDownloaded.add(bytes);
+        filesDelivered.increment();
+    }
+
+    public void fileFailed() {
+        filesFailed.increment();
+    }
+
+    public void inboxStored() {
+        inboxStored.increment();
+    }
+
+    public void inboxDelivered(int count) {
+        inboxDelivered.add(count);
+    }
+
+    public void inboxRejected() {
+        inboxRejected.increment();
+    }
+
+    // Poignée de main TLS terminée, de l'acceptation de la connexion au dernier message échangé
+    public void tlsHandshake(long nanos, boolean resumed) {
+        if (resumed) {
+            tlsResumedHandshakes.increment();
+        } else {
+            tlsFullHandshakes.increment();
+        }
+        tlsHandshakeTime.record(nanos);
+    }
+
+    public void tlsHandshakeFailed() {
+        tlsHandshakeFailures.increment();
+    }
+
+    // Charge utile de rawBytes octets passée au compresseur ; compressedBytes == rawBytes si elle n'y gagnait rien
+    public void compressed(long rawBytes, long compressedBytes, long nanos) {
+        if (compressedBytes < rawBytes) {
+            compressedMessages.increment();
+        } else {
+            incompressibleMessages.increment();
+        }
+        compressionBytesIn.add(rawBytes);
+        compressionBytesOut.add(compressedBytes);
+        compressionTime.record(nanos);
+    }
+
+    // Trame compressée reçue d'un client
+    public void decompressed(long compressedBytes, long rawBytes, long nanos) {
+        decompressedMessages.increment();
+        decompressionBytesIn.add(compressedBytes);
+        decompressionBytesOut.add(rawBytes);
+        decompressionNanos.add(nanos);
+    }
+
+    // Appelé chaque seconde par le planificateur du serveur
+    public synchronized void tick() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTickNanos) / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+        long acceptedNow = accepted.sum();
+        long inNow = messagesIn.sum();
+        long outNow = messagesOut.sum();
+        acceptRate = (acceptedNow - lastAccepted) / seconds;
+        messagesInRate = (inNow - lastMessagesIn) / seconds;
+        messagesOutRate = (outNow - lastMessagesOut) / seconds;
+        lastAccepted = acceptedNow;
+        lastMessagesIn = inNow;
+        lastMessagesOut = outNow;
+        lastTickNanos = now;
+    }
+
+    // Toutes les métriques au format d'exposition texte de Prometheus
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "chat_connections", "Connexions ouvertes", getConnections());
+        counter(out, "chat_connections_accepted_total", "Connexions acceptées depuis le démarrage", getConnectionsAccepted());
+        gauge(out, "chat_accept_rate", "Connexions acceptées par seconde", getAcceptRate());
+        counter(out, "chat_messages_in_total", "Lignes ou trames reçues des clients", getMessagesIn());
+        counter(out, "chat_messages_out_total", "Messages écrits vers les clients", getMessagesOut());
+        gauge(out, "chat_messages_in_rate", "Messages reçus par seconde", getMessagesInRate());
+        gauge(out, "chat_messages_out_rate", "Messages écrits par seconde", getMessagesOutRate());
+        counter(out, "chat_bytes_in_total", "Octets reçus des clients", getBytesIn());
+        counter(out, "chat_bytes_out_total", "Octets écrits vers les clients", getBytesOut());
+        gauge(out, "chat_outbound_backlog", "Messages en attente dans les files d'envoi", getOutboundBacklog());
+        gauge(out, "chat_log_queue_depth", "Entrées en attente dans la file du logger", getLogQueueDepth());
+        counter(out, "chat_log_dropped_total", "Entrées de log abandonnées (file pleine)", getLogDropped());
+        header(out, "chat_flood_events_total", "Messages au-delà des limites de débit, par réaction", "counter");
+        out.append("chat_flood_events_total{action=\"throttle\"} ").append(getFloodThrottled()).append('\n');
+        out.append("chat_flood_events_total{action=\"warn\"} ").append(getFloodDropped()).append('\n');
+        out.append("chat_flood_events_total{action=\"disconnect\"} ").append(getFloodDisconnected()).append('\n');
+        counter(out, "chat_oversized_lines_total", "Lignes ou trames refusées car trop longues", getOversizedLines());
+        header(out, "chat_resumes_total", "Reconnexions avec reprise de session, selon le résultat", "counter");
+        out.append("chat_resumes_total{result=\"replayed\"} ").append(getResumedSessions()).append('\n');
+        out.append("chat_resumes_total{result=\"history\"} ").append(getResumeFallbacks()).append('\n');
+        counter(out, "chat_replayed_messages_total", "Messages manqués renvoyés aux clients reconnectés", getReplayedMessages());
+        counter(out, "chat_acknowledged_messages_total", "Messages dont le client a accusé réception", getAcknowledgedMessages());
+        counter(out, "chat_unacknowledged_messages_total", "Messages sans accusé de réception (fenêtre dépassée ou déconnexion)",
+                getUnacknowledgedMessages());
+        counter(out, "chat_read_private_messages_total", "Messages privés lus par leur destinataire", getReadMessages());
+        header(out, "chat_file_bytes_total", "Octets de fichiers transférés, selon le sens", "counter");
+        out.append("chat_file_bytes_total{direction=\"upload\"} ").append(getFileBytesUploaded()).append('\n');
+        out.append("chat_file_bytes_total{direction=\"download\"} ").append(getFileBytesDownloaded()).append('\n');
+        header(out, "chat_file_transfers_total", "Transferts de fichiers terminés, selon le résultat", "counter");
+        out.append("chat_file_transfers_total{result=\"delivered\"} ").append(getFilesDelivered()).append('\n');
+        out.append("chat_file_transfers_total{result=\"failed\"} ").append(getFilesFailed()).append('\n');
+        header(out, "chat_inbox_messages_total", "Messages privés pour des absents, selon leur sort", "counter");
+        out.append("chat_inbox_messages_total{event=\"stored\"} ").append(getInboxStored()).append('\n');
+        out.append("chat_inbox_messages_total{event=\"delivered\"} ").append(getInboxDelivered()).append('\n');
+        out.append("chat_inbox_messages_total{event=\"rejected\"} ").append(getInboxRejected()).append('\n');
+        counter(out, "chat_inbox_spilled_messages_total", "Messages en attente passés de la mémoire au fichier",
+                getInboxSpilledMessages());
+        gauge(out, "chat_inbox_memory_bytes", "Octets de messages en attente gardés en mémoire (estimation)",
+                getInboxMemoryBytes());
+        gauge(out, "chat_inbox_file_bytes", "Taille du fichier de débordement des boîtes", getInboxFileBytes());
+        header(out, "chat_tls_handshakes_total", "Poignées de main TLS terminées, selon la session", "counter");
+        out.append("chat_tls_handshakes_total{session=\"full\"} ").append(getTlsFullHandshakes()).append('\n');
+        out.append("chat_tls_handshakes_total{session=\"resumed\"} ").append(getTlsResumedHandshakes()).append('\n');
+        counter(out, "chat_tls_handshake_failures_total", "Connexions fermées pendant la poignée de main TLS", getTlsHandshakeFailures());
+        counter(out, "chat_encoded_messages_total", "Messages encodés (une fois par forme, partagés entre destinataires)",
+                OutboundMessage.getEncodeCount());
+        counter(out, "chat_encoded_bytes_total", "Octets encodés", OutboundMessage.getEncodedBytes());
+        counter(out, "chat_outbound_copies_total", "Copies d'un message encodé faites pour un seul destinataire",
+                OutboundMessage.getCopyCount());
+        counter(out, "chat_outbound_copied_bytes_total", "Octets copiés pour un seul destinataire",
+                OutboundMessage.getCopiedBytes());
+        header(out, "chat_compression_messages_total", "Charges utiles passées au compresseur, selon le résultat", "counter");
+        out.append("chat_compression_messages_total{result=\"compressed\"} ").append(getCompressedMessages()).append('\n');
+        out.append("chat_compression_messages_total{result=\"incompressible\"} ").append(getIncompressibleMessages()).append('\n');
+        counter(out, "chat_compression_input_bytes_total", "Octets de charge utile avant compression", compressionBytesIn.sum());
+        counter(out, "chat_compression_output_bytes_total", "Octets de charge utile après compression", compressionBytesOut.sum());
+        gauge(out, "chat_compression_ratio", "Octets avant / après compression depuis le démarrage", getCompressionRatio());
+        summary(out, "chat_compression_seconds", "Temps de compression d'une charge utile", compressionTime);
+        counter(out, "chat_decompressed_messages_total", "Trames compressées reçues des clients", getDecompressedMessages());
+        counter(out, "chat_decompression_input_bytes_total", "Octets compressés reçus", decompressionBytesIn.sum());
+        counter(out, "chat_decompression_output_bytes_total", "Octets obtenus après décompression", decompressionBytesOut.sum());
+        header(out, "chat_decompression_seconds_total", "Temps total passé à décompresser", "counter");
+        out.append("chat_decompression_seconds_total ").append(format(decompressionNanos.sum() / 1e9)).append('\n');
+        summary(out, "chat_broadcast_fanout_seconds", "Durée de diffusion d'un message à un salon", broadcastFanOut);
+        summary(out, "chat_private_route_seconds", "Durée de routage d'un message privé", privateRoute);
+        summary(out, "chat_search_seconds", "Durée d'une recherche dans l'historique", searchTime);
+        summary(out, "chat_tls_handshake_seconds", "Durée d'une poignée de main TLS", tlsHandshakeTime);
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    // Résumé : centiles depuis le démarrage, somme et nombre, en secondes
+    private static void summary(StringBuilder out, String name, String help, Histogram histogram) {
+        header(out, name, help, "summary");
+        for (String quantile : new String[] {"0.5", "0.9", "0.99", "0.999"}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(format(histogram.percentile(Double.parseDouble(quantile)) / 1e9)).append('\n');
+        }
+        out.append(name).append("_sum ").append(format(histogram.getSum() / 1e9)).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.getAsInt();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return accepted.sum();
+    }
+
+    @Override
+    public double getAcceptRate() {
+        return acceptRate;
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public double getMessagesInRate() {
+        return messagesInRate;
+    }
+
+    @Override
+    public double getMessagesOutRate() {
+        return messagesOutRate;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getOutboundBacklog() {
+        return outboundBacklog.getAsLong();
+    }
+
+    @Override
+    public int getLogQueueDepth() {
+        return ChatLogger.getInstance().getQueueDepth();
+    }
+
+    @Override
+    public long getLogDropped() {
+        return ChatLogger.getInstance().getDroppedCount();
+    }
+
+    @Override
+    public long getFloodThrottled() {
+        return floodThrottled.sum();
+    }
+
+    @Override
+    public long getFloodDropped() {
+        return floodDropped.sum();
+    }
+
+    @Override
+    public long getFloodDisconnected() {
+        return floodDisconnected.sum();
+    }
+
+    @Override
+    public long getOversizedLines() {
+        return oversizedLines.sum();
+    }
+
+    @Override
+    public long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    @Override
+    public long getResumeFallbacks() {
+        return resumeFallbacks.sum();
+    }
+
+    @Override
+    public long getReplayedMessages() {
+        return replayedMessages.sum();
+    }
+
+    @Override
+    public long getAcknowledgedMessages() {
+        return acknowledgedMessages.sum();
+    }
+
+    @Override
+    public long getUnacknowledgedMessages() {
+        return unacknowledgedMessages.sum();
+    }
+
+    @Override
+    public long getReadMessages() {
+        return readMessages.sum();
+    }
+
+    @Override
+    public long getFileBytesUploaded() {
+        return fileBytesUploaded.sum();
+    }
+
+    @Override
+    public long getFileBytesDownloaded() {
+        return fileBytesDownloaded.sum();
+    }
+
+    @Override
+    public long getFilesDelivered() {
+        return filesDelivered.sum();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.sum();
+    }
+
+    @Override
+    public long getInboxStored() {
+        return inboxStored.sum();
+    }
+
+    @Override
+    public long getInboxDelivered() {
+        return inboxDelivered.sum();
+    }
+
+    @Override
+    public long getInboxRejected() {
+        return inboxRejected.sum();
+    }
+
+    @Override
+    public long getInboxSpilledMessages() {
+        return inboxSpilled.getAsLong();
+    }
+
+    @Override
+    public long getInboxMemoryBytes() {
+        return inboxMemory.getAsLong();
+    }
+
+    @Override
+    public long getInboxFileBytes() {
+        return inboxFile.getAsLong();
+    }
+
+    @Override
+    public long getTlsFullHandshakes() {
+        return tlsFullHandshakes.sum();
+    }
+
+    @Override
+    public long getTlsResumedHandshakes() {
+        return tlsResumedHandshakes.sum();
+    }
+
+    @Override
+    public long getTlsHandshakeFailures() {
+        return tlsHandshakeFailures.sum();
+    }
+
+    @Override
+    public double getTlsHandshakeP50Micros() {
+        return micros(tlsHandshakeTime.percentile(0.50));
+    }
+
+    @Override
+    public double getTlsHandshakeP99Micros() {
+        return micros(tlsHandshakeTime.percentile(0.99));
+    }
+
+    @Override
+    public long getCompressedMessages() {
+        return compressedMessages.sum();
+    }
+
+    @Override
+    public long getIncompressibleMessages() {
+        return incompressibleMessages.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long after = compressionBytesOut.sum();
+        return after > 0 ? (double) compressionBytesIn.sum() / after : 1;
+    }
+
+    @Override
+    public double getCompressionP50Micros() {
+        return micros(compressionTime.percentile(0.50));
+    }
+
+    @Override
+    public double getCompressionP99Micros() {
+        return micros(compressionTime.percentile(0.99));
+    }
+
+    @Override
+    public long getDecompressedMessages() {
+        return decompressedMessages.sum();
+    }
+
+    @Override
+    public long getBroadcastCount() {
+        return broadcastFanOut.getCount();
+    }
+
+    @Override
+    public double getBroadcastFanOutP50Micros() {
+        return micros(broadcastFanOut.percentile(0.50));
+    }
+
+    @Override
+    public double getBroadcastFanOutP99Micros() {
+        return micros(broadcastFanOut.percentile(0.99));
+    }
+
+    @Override
+    public double getBroadcastFanOutP999Micros() {
+        return micros(broadcastFanOut.percentile(0.999));
+    }
+
+    @Override
+    public long getPrivateMessageCount() {
+        return privateRoute.getCount();
+    }
+
+    @Override
+    public double getPrivateRouteP50Micros() {
+        return micros(privateRoute.percentile(0.50));
+    }
+
+    @Override
+    public double getPrivateRouteP99Micros() {
+        return micros(privateRoute.percentile(0.99));
+    }
+
+    @Override
+    public double getPrivateRouteP999Micros() {
+        return micros(privateRoute.percentile(0.999));
+    }
+
+    @Override
+    public long getSearchCount() {
+        return searchTime.getCount();
+    }
+
+    @Override
+    public double getSearchP50Micros() {
+        return micros(searchTime.percentile(0.50));
+    }
+
+    @Override
+    public double getSearchP99Micros() {
+        return micros(searchTime.percentile(0.99));
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.socketproject.server.metrics;
+
+// Vue JMX des métriques du serveur (durées en microsecondes)
+public interface ServerMetricsMBean {
+    int getConnections();
+
+    long getConnectionsAccepted();
+
+    double getAcceptRate();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getMessagesInRate();
+
+    double getMessagesOutRate();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getOutboundBacklog();
+
+    int getLogQueueDepth();
+
+    long getLogDropped();
+
+    long getFloodThrottled();
+
+    long getFloodDropped();
+
+    long getFloodDisconnected();
+
+    long getOversizedLines();
+
+    long getResumedSessions();
+
+    long getResumeFallbacks();
+
+    long getReplayedMessages();
+
+    long getAcknowledgedMessages();
+
+    long getUnacknowledgedMessages();
+
+    long getReadMessages();
+
+    long getFileBytesUploaded();
+
+    long getFileBytesDownloaded();
+
+    long getFilesDelivered();
+
+    long getFilesFailed();
+
+    long getInboxStored();
+
+    long getInboxDelivered();
+
+    long getInboxRejected();
+
+    long getInboxSpilledMessages();
+
+    long getInboxMemoryBytes();
+
+    long getInboxFileBytes();
+
+    long getTlsFullHandshakes();
+
+    long getTlsResumedHandshakes();
+
+    long getTlsHandshakeFailures();
+
+    double getTlsHandshakeP50Micros();
+
+    double getTlsHandshakeP99Micros();
+
+    long getCompressedMessages();
+
+    long getIncompressibleMessages();
+
+    double getCompressionRatio();
+
+    double getCompressionP50Micros();
+
+    double getCompressionP99Micros();
+
+    long getDecompressedMessages();
+
+    long getBroadcastCount();
+
+    double getBroadcastFanOutP50Micros();
+
+    double getBroadcastFanOutP99Micros();
+
+    double getBroadcastFanOutP999Micros();
+
+    long getPrivateMessageCount();
+
+    double getPrivateRouteP50Micros();
+
+    double getPrivateRouteP99Micros();
+
+    double getPrivateRouteP999Micros();
+
+    long getSearchCount();
+
+    double getSearchP50Micros();
+
+    double getSearchP99Micros();
+}
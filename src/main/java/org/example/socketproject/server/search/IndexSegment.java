@@ -0,0 +1,352 @@
+package org.example.socketproject.server.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Segment immuable de l'index de recherche, lu par projection mémoire.
+ * Format : en-tête (magique | nombre de termes | séquence min | séquence max |
+ * position du dictionnaire), listes d'occurrences puis dictionnaire trié
+ * (longueur | terme UTF-8 | position | longueur | nombre d'occurrences).
+ * Une liste d'occurrences est une suite de varints : écart à la séquence min
+ * pour la première, puis écart à la précédente. Seul un terme sur
+ * SPARSE_INTERVAL du dictionnaire est gardé en mémoire.
+ */
+final class IndexSegment {
+    static final String SUFFIX = ".cix";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x43495831; // "CIX1"
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final int SPARSE_INTERVAL = 32;
+
+    private final Path file;
+    private final long minSequence;
+    private final long maxSequence;
+    private final int termCount;
+    private final MappedByteBuffer mapped;
+    private final int dictionaryStart;
+    // Un terme sur SPARSE_INTERVAL et la position de son entrée dans le dictionnaire
+    private final String[] sparseTerms;
+    private final int[] sparsePositions;
+
+    private IndexSegment(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment d'index trop grand : " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Segment d'index invalide : " + file);
+        }
+        termCount = mapped.getInt(4);
+        minSequence = mapped.getLong(8);
+        maxSequence = mapped.getLong(16);
+        dictionaryStart = (int) mapped.getLong(24);
+
+        int sparseCount = (termCount + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL;
+        sparseTerms = new String[sparseCount];
+        sparsePositions = new int[sparseCount];
+        int position = dictionaryStart;
+        for (int i = 0; i < termCount; i++) {
+            if (i % SPARSE_INTERVAL == 0) {
+                sparseTerms[i / SPARSE_INTERVAL] = termAt(position);
+                sparsePositions[i / SPARSE_INTERVAL] = position;
+            }
+            position = nextEntry(position);
+        }
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        return new IndexSegment(file);
+    }
+
+    // Nom d'un segment : séquences couvertes sur 20 chiffres, l'ordre alphabétique suit l'ordre des messages
+    static String fileName(long minSequence, long maxSequence) {
+        return String.format("%020d-%020d", minSequence, maxSequence) + SUFFIX;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getMinSequence() {
+        return minSequence;
+    }
+
+    long getMaxSequence() {
+        return maxSequence;
+    }
+
+    long size() {
+        return mapped.limit();
+    }
+
+    // Séquences (croissantes) des messages contenant le terme, null s'il n'apparaît pas dans ce segment
+    long[] postings(String term) {
+        int low = 0;
+        int high = sparseTerms.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sparseTerms[mid].compareTo(term) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+        int position = sparsePositions[block];
+        int end = Math.min(termCount, (block + 1) * SPARSE_INTERVAL);
+        for (int i = block * SPARSE_INTERVAL; i < end; i++) {
+            int comparison = termAt(position).compareTo(term);
+            if (comparison == 0) {
+                return decode(position);
+            }
+            if (comparison > 0) {
+                return null;
+            }
+            position = nextEntry(position);
+        }
+        return null;
+    }
+
+    // Parcours du dictionnaire dans l'ordre des termes (fusion)
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    final class Cursor {
+        private int index = 0;
+        private int position = dictionaryStart;
+        private String term;
+
+        // Passer au terme suivant, false à la fin du dictionnaire
+        boolean next() {
+            if (index > 0) {
+                position = nextEntry(position);
+            }
+            if (index >= termCount) {
+                term = null;
+                return false;
+            }
+            index++;
+            term = termAt(position);
+            return true;
+        }
+
+        String term() {
+            return term;
+        }
+
+        long[] postings() {
+            return decode(position);
+        }
+    }
+
+    private String termAt(int position) {
+        int length = mapped.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mapped.duplicate();
+        view.position(position + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int nextEntry(int position) {
+        return position + 2 + (mapped.getShort(position) & 0xFFFF) + 8 + 4 + 4;
+    }
+
+    private long[] decode(int entry) {
+        int after = entry + 2 + (mapped.getShort(entry) & 0xFFFF);
+        int position = (int) mapped.getLong(after);
+        int count = mapped.getInt(after + 12);
+        long[] postings = new long[count];
+        long previous = minSequence;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mapped.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            postings[i] = previous;
+        }
+        return postings;
+    }
+
+    // Supprimer le fichier (remplacé par une fusion ou sorti de la rétention) ; la projection
+    // reste lisible par une recherche en cours
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Écriture d'un nouveau segment dans un fichier temporaire, renommé à la
+     * fin : un segment visible dans le dossier est toujours complet. Les termes
+     * doivent arriver dans l'ordre.
+     */
+    static final class Writer implements Closeable {
+        private final Path temp;
+        private final long minSequence;
+        private final long maxSequence;
+        private final FileChannel channel;
+        private final OutputStream out;
+        private final ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream dictionary = new DataOutputStream(dictionaryBytes);
+        private final byte[] varint = new byte[10];
+        private long position = HEADER_SIZE;
+        private int termCount = 0;
+        private String lastTerm;
+
+        Writer(Path directory, long minSequence, long maxSequence) throws IOException {
+            this.temp = directory.resolve(fileName(minSequence, maxSequence) + TEMP_SUFFIX);
+            this.minSequence = minSequence;
+            this.maxSequence = maxSequence;
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        }
+
+        // Ajouter un terme et ses count premières séquences (croissantes, doublons ignorés)
+        void add(String term, long[] postings, int count) throws IOException {
+            if (lastTerm != null && lastTerm.compareTo(term) >= 0) {
+                throw new IllegalArgumentException("Termes non triés : " + lastTerm + " puis " + term);
+            }
+            long start = position;
+            long previous = minSequence;
+            int written = 0;
+            for (int i = 0; i < count; i++) {
+                long sequence = postings[i];
+                if (written > 0 && sequence == previous) {
+                    continue;
+                }
+                writeVarint(sequence - previous);
+                previous = sequence;
+                written++;
+            }
+            byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+            dictionary.writeShort(termBytes.length);
+            dictionary.write(termBytes);
+            dictionary.writeLong(start);
+            dictionary.writeInt((int) (position - start));
+            dictionary.writeInt(written);
+            termCount++;
+            lastTerm = term;
+        }
+
+        private void writeVarint(long value) throws IOException {
+            int length = 0;
+            while ((value & ~0x7FL) != 0) {
+                varint[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            varint[length++] = (byte) value;
+            out.write(varint, 0, length);
+            position += length;
+        }
+
+        // Terminer le segment et l'ouvrir en lecture
+        IndexSegment finish() throws IOException {
+            long dictionaryStart = position;
+            dictionaryBytes.writeTo(out);
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(termCount).putLong(minSequence).putLong(maxSequence).putLong(dictionaryStart).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+            channel.close();
+            Path target = temp.resolveSibling(fileName(minSequence, maxSequence));
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return open(target);
+        }
+
+        // Abandonner l'écriture (erreur) : le fichier temporaire disparaît
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // Fusionner des segments voisins (dans l'ordre des séquences) en un seul, sans les séquences < dropBelow
+    static IndexSegment merge(Path directory, List<IndexSegment> sources, long dropBelow) throws IOException {
+        long min = Math.max(sources.get(0).getMinSequence(), dropBelow);
+        long max = sources.get(sources.size() - 1).getMaxSequence();
+        List<Cursor> cursors = new ArrayList<>();
+        for (IndexSegment source : sources) {
+            Cursor cursor = source.cursor();
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+        try (Writer writer = new Writer(directory, min, max)) {
+            long[] merged = new long[64];
+            while (!cursors.isEmpty()) {
+                String term = null;
+                for (Cursor cursor : cursors) {
+                    if (term == null || cursor.term().compareTo(term) < 0) {
+                        term = cursor.term();
+                    }
+                }
+                // Les sources ne se chevauchent pas : les concaténer dans l'ordre garde les séquences croissantes
+                int count = 0;
+                for (int i = 0; i < cursors.size(); i++) {
+                    Cursor cursor = cursors.get(i);
+                    if (!cursor.term().equals(term)) {
+                        continue;
+                    }
+                    for (long sequence : cursor.postings()) {
+                        if (sequence < dropBelow) {
+                            continue;
+                        }
+                        if (count == merged.length) {
+                            merged = Arrays.copyOf(merged, count * 2);
+                        }
+                        merged[count++] = sequence;
+                    }
+                    if (!cursor.next()) {
+                        cursors.remove(i--);
+                    }
+                }
+                if (count > 0) {
+                    writer.add(term, merged, count);
+                }
+            }
+            return writer.finish();
+        }
+    }
+}
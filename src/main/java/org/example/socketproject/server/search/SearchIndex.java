@@ -0,0 +1,433 @@
+package org.example.socketproject.server.search;
+
+import org.example.socketproject.server.ChatLogger;
+import org.example.socketproject.server.store.MessageStore;
+import org.example.socketproject.server.store.StoredMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Index inversé de l'historique (terme -> séquences des messages), construit
+ * au fil des ajouts. Les nouvelles occurrences restent en mémoire jusqu'à
+ * FLUSH_POSTINGS, puis un thread d'arrière-plan les écrit en segment immuable
+ * sur disque et fusionne les plus petits segments voisins quand il y en a trop.
+ * Une recherche parcourt la mémoire puis les segments du plus récent au plus
+ * ancien et s'arrête dès qu'elle a assez de résultats.
+ */
+public class SearchIndex implements Closeable {
+    // Occurrences gardées en mémoire avant d'écrire un segment
+    private static final int FLUSH_POSTINGS = 200_000;
+    // Au-delà de ce nombre de segments, MERGE_WIDTH segments voisins sont fusionnés
+    private static final int MAX_SEGMENTS = 8;
+    private static final int MERGE_WIDTH = 4;
+    // Taille au-delà de laquelle un segment n'est plus fusionné (projection mémoire en un seul bloc)
+    private static final long MAX_MERGED_BYTES = 512L * 1024 * 1024;
+    private static final int CATCH_UP_BATCH = 1000;
+
+    private final Path directory;
+    // Plus ancienne séquence encore dans l'historique : les occurrences antérieures sont abandonnées
+    private final LongSupplier firstRetained;
+    // Segments dans l'ordre des séquences : liste immuable, remplacée d'un bloc par le thread d'arrière-plan
+    private volatile List<IndexSegment> segments;
+    private final ExecutorService background;
+
+    // Occurrences en cours d'accumulation (protégées par this), et celles en cours d'écriture
+    private Postings active = new Postings();
+    private volatile Postings flushing;
+    private boolean flushQueued = false;
+
+    public SearchIndex(Path directory, LongSupplier firstRetained) throws IOException {
+        this.directory = directory;
+        this.firstRetained = firstRetained;
+        Files.createDirectories(directory);
+
+        List<IndexSegment> opened = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(IndexSegment.TEMP_SUFFIX)) {
+                    // Écriture interrompue par un arrêt brutal
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(IndexSegment.SUFFIX)) {
+                    try {
+                        opened.add(IndexSegment.open(file));
+                    } catch (IOException e) {
+                        ChatLogger.getInstance().logError("Segment d'index ignoré : " + e.getMessage());
+                    }
+                }
+            }
+        }
+        opened.sort(Comparator.comparingLong(IndexSegment::getMinSequence)
+                .thenComparing(Comparator.comparingLong(IndexSegment::getMaxSequence).reversed()));
+        // Arrêt entre l'écriture d'une fusion et la suppression de ses sources : les sources sont en trop
+        long covered = Long.MIN_VALUE;
+        List<IndexSegment> kept = new ArrayList<>();
+        for (IndexSegment segment : opened) {
+            if (segment.getMaxSequence() <= covered) {
+                segment.delete();
+            } else {
+                kept.add(segment);
+                covered = segment.getMaxSequence();
+            }
+        }
+        this.segments = Collections.unmodifiableList(kept);
+
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Réindexer en arrière-plan les messages de séquence <= upTo absents des segments (écrits depuis le
+    // dernier arrêt, ou entre deux segments après un arrêt brutal). Ils forment leurs propres segments,
+    // séparés des messages reçus pendant ce temps : les segments ne se chevauchent jamais.
+    public void catchUp(MessageStore history, long upTo) {
+        List<long[]> gaps = new ArrayList<>();
+        long next = Math.max(1, firstRetained.getAsLong());
+        for (IndexSegment segment : segments) {
+            if (segment.getMinSequence() > next) {
+                gaps.add(new long[]{next, Math.min(segment.getMinSequence() - 1, upTo)});
+            }
+            next = Math.max(next, segment.getMaxSequence() + 1);
+        }
+        if (next <= upTo) {
+            gaps.add(new long[]{next, upTo});
+        }
+        if (gaps.isEmpty()) {
+            return;
+        }
+        submit(() -> {
+            int count = 0;
+            try {
+                for (long[] gap : gaps) {
+                    count += reindex(history, gap[0], gap[1]);
+                }
+                mergeIfNeeded();
+            } catch (IOException e) {
+                ChatLogger.getInstance().logError("Réindexation de l'historique interrompue : " + e.getMessage());
+                return;
+            }
+            ChatLogger.getInstance().logServerEvent("Index de recherche à jour (" + count + " messages réindexés)");
+        });
+    }
+
+    private int reindex(MessageStore history, long from, long to) throws IOException {
+        Postings rebuilt = new Postings();
+        int count = 0;
+        long next = from;
+        while (next <= to) {
+            List<StoredMessage> batch = history.readFrom(next, CATCH_UP_BATCH);
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (StoredMessage message : batch) {
+                if (message.getSequence() > to) {
+                    break;
+                }
+                Set<String> terms = Tokenizer.terms(message.getText());
+                if (!terms.isEmpty()) {
+                    rebuilt.add(message.getSequence(), terms);
+                }
+                count++;
+            }
+            next = batch.get(batch.size() - 1).getSequence() + 1;
+            if (rebuilt.count >= FLUSH_POSTINGS) {
+                install(rebuilt.write(directory));
+                rebuilt = new Postings();
+            }
+        }
+        if (rebuilt.count > 0) {
+            install(rebuilt.write(directory));
+        }
+        return count;
+    }
+
+    // Ranger un segment à sa place dans l'ordre des séquences (thread d'arrière-plan uniquement)
+    private void install(IndexSegment segment) {
+        List<IndexSegment> updated = new ArrayList<>(segments);
+        int index = updated.size();
+        while (index > 0 && updated.get(index - 1).getMinSequence() > segment.getMinSequence()) {
+            index--;
+        }
+        updated.add(index, segment);
+        segments = Collections.unmodifiableList(updated);
+    }
+
+    // Indexer un message de l'historique (appelé par les threads qui diffusent, séquences à peu près croissantes)
+    public void add(long sequence, String text) {
+        Set<String> terms = Tokenizer.terms(text);
+        if (terms.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            active.add(sequence, terms);
+            if (active.count >= FLUSH_POSTINGS && !flushQueued) {
+                flushQueued = true;
+                submit(this::flush);
+            }
+        }
+    }
+
+    // Séquences des limit messages les plus récents contenant tous les termes de la requête, du plus récent au plus ancien
+    public List<Long> search(String query, int limit) throws IOException {
+        Set<String> terms = Tokenizer.terms(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        NavigableSet<Long> found = new TreeSet<>(Comparator.reverseOrder());
+        long[] recent;
+        synchronized (this) {
+            recent = active.match(terms);
+        }
+        collect(recent, found);
+        Postings pending = flushing;
+        if (pending != null && found.size() < limit) {
+            collect(pending.match(terms), found);
+        }
+        List<IndexSegment> snapshot = segments;
+        for (int i = snapshot.size() - 1; i >= 0 && found.size() < limit; i--) {
+            collect(match(snapshot.get(i), terms), found);
+        }
+        List<Long> result = new ArrayList<>(Math.min(limit, found.size()));
+        for (Long sequence : found) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(sequence);
+        }
+        return result;
+    }
+
+    private static void collect(long[] sequences, Set<Long> found) {
+        for (long sequence : sequences) {
+            found.add(sequence);
+        }
+    }
+
+    private static long[] match(IndexSegment segment, Set<String> terms) {
+        List<long[]> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            long[] postings = segment.postings(term);
+            if (postings == null) {
+                return new long[0];
+            }
+            lists.add(postings);
+        }
+        return intersect(lists);
+    }
+
+    // Intersection de listes croissantes, en partant de la plus courte
+    static long[] intersect(List<long[]> lists) {
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        long[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            long[] other = lists.get(i);
+            long[] kept = new long[result.length];
+            int count = 0;
+            int j = 0;
+            for (long sequence : result) {
+                while (j < other.length && other[j] < sequence) {
+                    j++;
+                }
+                if (j == other.length) {
+                    break;
+                }
+                if (other[j] == sequence) {
+                    kept[count++] = sequence;
+                }
+            }
+            result = Arrays.copyOf(kept, count);
+        }
+        return result;
+    }
+
+    private void submit(Runnable task) {
+        try {
+            background.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    ChatLogger.getInstance().logError("Erreur de l'index de recherche : " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Index en cours de fermeture
+        }
+    }
+
+    // Écrire les occurrences en mémoire dans un nouveau segment (thread d'arrière-plan ou fermeture)
+    private void flush() {
+        Postings frozen;
+        synchronized (this) {
+            flushQueued = false;
+            if (active.count == 0) {
+                return;
+            }
+            frozen = active;
+            frozen.sort();
+            // Publié avant de vider : une recherche concurrente voit toujours ces occurrences
+            flushing = frozen;
+            active = new Postings();
+        }
+        try {
+            install(frozen.write(directory));
+            flushing = null;
+            mergeIfNeeded();
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Écriture de l'index de recherche impossible : " + e.getMessage());
+            // Réintégrer les occurrences pour la prochaine tentative
+            synchronized (this) {
+                active.addAll(frozen);
+                flushing = null;
+            }
+        }
+    }
+
+    // Supprimer les segments sortis de l'historique, puis fusionner les plus petits voisins tant qu'il y en a trop
+    private void mergeIfNeeded() throws IOException {
+        long dropBelow = firstRetained.getAsLong();
+        int expired = 0;
+        while (expired < segments.size() && segments.get(expired).getMaxSequence() < dropBelow) {
+            expired++;
+        }
+        if (expired > 0) {
+            List<IndexSegment> dropped = segments.subList(0, expired);
+            segments = Collections.unmodifiableList(new ArrayList<>(segments.subList(expired, segments.size())));
+            for (IndexSegment segment : dropped) {
+                segment.delete();
+            }
+        }
+        while (segments.size() > MAX_SEGMENTS) {
+            int best = -1;
+            long bestBytes = Long.MAX_VALUE;
+            for (int i = 0; i + MERGE_WIDTH <= segments.size(); i++) {
+                long bytes = 0;
+                for (int j = i; j < i + MERGE_WIDTH; j++) {
+                    bytes += segments.get(j).size();
+                }
+                if (bytes < bestBytes && bytes <= MAX_MERGED_BYTES) {
+                    best = i;
+                    bestBytes = bytes;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            List<IndexSegment> sources = new ArrayList<>(segments.subList(best, best + MERGE_WIDTH));
+            long start = System.nanoTime();
+            IndexSegment merged = IndexSegment.merge(directory, sources, dropBelow);
+            // Nouvelle liste publiée en une seule affectation : une recherche voit les sources ou le segment fusionné
+            List<IndexSegment> replaced = new ArrayList<>(segments);
+            replaced.subList(best, best + MERGE_WIDTH).clear();
+            replaced.add(best, merged);
+            segments = Collections.unmodifiableList(replaced);
+            for (IndexSegment source : sources) {
+                source.delete();
+            }
+            ChatLogger.getInstance().logServerEvent("Index de recherche : " + MERGE_WIDTH + " segments fusionnés ("
+                    + bestBytes / 1024 + " Ko -> " + merged.size() / 1024 + " Ko, "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+        }
+    }
+
+    // Écrire ce qui reste en mémoire, pour ne rien réindexer au prochain démarrage
+    @Override
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    // Occurrences en mémoire : terme -> séquences, dans l'ordre d'ajout puis triées avant écriture
+    private static final class Postings {
+        private final Map<String, long[]> lists = new HashMap<>();
+        private final Map<String, Integer> sizes = new HashMap<>();
+        private int count = 0;
+        private long minSequence = Long.MAX_VALUE;
+        private long maxSequence = Long.MIN_VALUE;
+
+        void add(long sequence, Set<String> terms) {
+            for (String term : terms) {
+                long[] list = lists.get(term);
+                int size = list == null ? 0 : sizes.get(term);
+                if (list == null) {
+                    list = new long[4];
+                    lists.put(term, list);
+                } else if (size == list.length) {
+                    list = Arrays.copyOf(list, size * 2);
+                    lists.put(term, list);
+                }
+                list[size] = sequence;
+                sizes.put(term, size + 1);
+            }
+            count += terms.size();
+            minSequence = Math.min(minSequence, sequence);
+            maxSequence = Math.max(maxSequence, sequence);
+        }
+
+        void addAll(Postings other) {
+            for (Map.Entry<String, long[]> entry : other.lists.entrySet()) {
+                int size = other.sizes.get(entry.getKey());
+                for (int i = 0; i < size; i++) {
+                    add(entry.getValue()[i], Collections.singleton(entry.getKey()));
+                }
+            }
+        }
+
+        void sort() {
+            for (Map.Entry<String, long[]> entry : lists.entrySet()) {
+                Arrays.sort(entry.getValue(), 0, sizes.get(entry.getKey()));
+            }
+        }
+
+        // Séquences croissantes contenant tous les termes (copie : les listes peuvent encore grandir)
+        long[] match(Set<String> terms) {
+            List<long[]> matched = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                long[] list = lists.get(term);
+                if (list == null) {
+                    return new long[0];
+                }
+                long[] copy = Arrays.copyOf(list, sizes.get(term));
+                Arrays.sort(copy);
+                matched.add(copy);
+            }
+            return intersect(matched);
+        }
+
+        IndexSegment write(Path directory) throws IOException {
+            List<String> terms = new ArrayList<>(lists.keySet());
+            Collections.sort(terms);
+            try (IndexSegment.Writer writer = new IndexSegment.Writer(directory, minSequence, maxSequence)) {
+                for (String term : terms) {
+                    writer.add(term, lists.get(term), sizes.get(term));
+                }
+                return writer.finish();
+            }
+        }
+    }
+}
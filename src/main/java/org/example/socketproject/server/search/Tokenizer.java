@@ -0,0 +1,40 @@
+package org.example.socketproject.server.search;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Découpage d'un texte en termes d'index : suites de lettres et de chiffres, en minuscules et sans accents
+final class Tokenizer {
+    // Au-delà, le terme est tronqué (adresses, jetons collés...)
+    static final int MAX_TERM_LENGTH = 64;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private Tokenizer() {
+    }
+
+    // Termes distincts du texte, dans leur ordre d'apparition
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (!Normalizer.isNormalized(text, Normalizer.Form.NFD)) {
+            text = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean word = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    terms.add(lower.substring(start, Math.min(i, start + MAX_TERM_LENGTH)));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
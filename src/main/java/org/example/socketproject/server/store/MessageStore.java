@@ -0,0 +1,118 @@
+package org.example.socketproject.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Historique persistant des messages publics : segments en ajout seul
+ * numérotés par séquence, bascule sur un nouveau segment au-delà d'une taille
+ * donnée et suppression des plus anciens au-delà d'un nombre de segments.
+ * Les lectures passent par des projections mémoire et ne prennent pas le
+ * verrou de l'écrivain.
+ */
+public class MessageStore implements Closeable {
+    private final Path directory;
+    private final long segmentBytes;
+    private final int retentionSegments;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private Segment active;
+    private volatile long nextSequence;
+
+    public MessageStore(Path directory, long segmentBytes, int retentionSegments) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionSegments = Math.max(1, retentionSegments);
+        Files.createDirectories(directory);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + Segment.DATA_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // Les noms sont la séquence de base sur 20 chiffres : l'ordre alphabétique suffit
+        Collections.sort(files);
+        for (int i = 0; i < files.size(); i++) {
+            segments.add(Segment.open(files.get(i), i == files.size() - 1));
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(directory, 1));
+        }
+        active = segments.get(segments.size() - 1);
+        nextSequence = active.getLastSequence() + 1;
+    }
+
+    // Ajouter un message, retourne sa séquence
+    public synchronized long append(long timestamp, String sender, String text) throws IOException {
+        if (active.size() >= segmentBytes) {
+            roll();
+        }
+        long sequence = nextSequence;
+        active.append(sequence, timestamp, sender, text);
+        nextSequence = sequence + 1;
+        return sequence;
+    }
+
+    private void roll() throws IOException {
+        active = Segment.create(directory, nextSequence);
+        segments.add(active);
+        while (segments.size() > retentionSegments) {
+            segments.remove(0).delete();
+        }
+    }
+
+    public long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    // Plus ancienne séquence encore conservée (les précédentes ont été supprimées par la rétention)
+    public long getFirstSequence() {
+        return segments.get(0).getBaseSequence();
+    }
+
+    // Les count derniers messages, du plus ancien au plus récent
+    public List<StoredMessage> lastMessages(int count) throws IOException {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        return readFrom(Math.max(1, getLastSequence() - count + 1), count);
+    }
+
+    // Jusqu'à max messages à partir de la séquence donnée (ou du plus ancien encore conservé)
+    public List<StoredMessage> readFrom(long fromSequence, int max) throws IOException {
+        List<StoredMessage> result = new ArrayList<>();
+        List<Segment> snapshot = new ArrayList<>(segments);
+
+        // Dernier segment dont la séquence de base est <= fromSequence
+        int start = 0;
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            if (snapshot.get(i).getBaseSequence() <= fromSequence) {
+                start = i;
+                break;
+            }
+        }
+        for (int i = start; i < snapshot.size() && result.size() < max; i++) {
+            try {
+                snapshot.get(i).read(fromSequence, max, result);
+            } catch (ClosedChannelException e) {
+                // Segment supprimé par la rétention pendant la lecture
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+}
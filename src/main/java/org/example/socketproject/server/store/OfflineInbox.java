@@ -0,0 +1,427 @@
+package org.example.socketproject.server.store;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages privés en attente de destinataires absents. Chaque boîte garde
+ * ses derniers messages en mémoire ; les plus anciens, et toutes les boîtes
+ * les moins récemment alimentées dès que le budget mémoire est dépassé,
+ * partent dans un fichier en ajout seul. Sur disque, les enregistrements
+ * d'une boîte sont chaînés du plus récent au plus ancien : le tas ne garde
+ * qu'une position par boîte, quel que soit le nombre de messages. Chaque
+ * enregistrement porte son destinataire et une boîte vidée laisse une marque :
+ * à l'ouverture, les boîtes sont reconstruites en relisant le fichier, et les
+ * messages encore en mémoire y sont écrits à la fermeture (seuls ceux-là sont
+ * perdus si le processus meurt). Le fichier est recompacté quand il n'est plus
+ * qu'à moitié utile.
+ * Seuls les pseudos vus récemment (au plus maxKnownUsers, les moins
+ * récemment connectés sont oubliés) ou qui ont déjà une boîte sont acceptés.
+ */
+public class OfflineInbox implements Closeable {
+    public static final String FILE_NAME = "inbox.log";
+    // Coût estimé d'un message gardé en mémoire, en plus de ses caractères
+    private static final int ENTRY_OVERHEAD = 64;
+    // Longueur, enregistrement précédent de la même boîte, horodatage, nature
+    private static final int HEADER = 4 + 8 + 8 + 1;
+    // Natures d'enregistrement : message, ou boîte vidée (les messages précédents du destinataire sont remis)
+    private static final byte MESSAGE = 0;
+    private static final byte TAKEN = 1;
+    // En dessous de cette taille, le fichier n'est pas recompacté
+    private static final long COMPACT_MIN_BYTES = 4L * 1024 * 1024;
+
+    // Message en attente : horodatage de l'envoi, expéditeur, texte
+    public static final class Message {
+        private final long timestamp;
+        private final String sender;
+        private final String text;
+
+        Message(long timestamp, String sender, String text) {
+            this.timestamp = timestamp;
+            this.sender = sender;
+            this.text = text;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        long memory() {
+            return ENTRY_OVERHEAD + 2L * (sender.length() + text.length());
+        }
+    }
+
+    private static final class Box {
+        final ArrayDeque<Message> tail = new ArrayDeque<>();
+        long tailBytes;
+        // Dernier enregistrement sur disque (-1 : aucun), nombre et taille des enregistrements
+        long lastOffset = -1;
+        int spilled;
+        long spilledBytes;
+
+        int size() {
+            return spilled + tail.size();
+        }
+    }
+
+    private final Path directory;
+    private final long memoryBudget;
+    private final int tailMessages;
+    private final int maxMessages;
+    private final long maxFileBytes;
+    // Pseudos connectés récemment, du moins récent au plus récent
+    private final LinkedHashMap<String, Boolean> known;
+    private final Map<String, Box> boxes = new HashMap<>();
+    // Boîtes qui ont des messages en mémoire, de la moins récemment alimentée à la plus récente
+    private final LinkedHashMap<String, Box> inMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private FileChannel file;
+    private long fileSize;
+    private long memoryBytes;
+    private long liveFileBytes;
+    private long spilledMessages;
+
+    // memoryBudget : octets de messages gardés en mémoire toutes boîtes confondues ; tailMessages : au plus
+    // par boîte en mémoire ; maxMessages : au plus par boîte ; maxFileBytes : taille maximale du fichier ;
+    // maxKnownUsers : pseudos retenus comme destinataires possibles
+    public OfflineInbox(Path directory, long memoryBudget, int tailMessages, int maxMessages, long maxFileBytes,
+                        int maxKnownUsers) throws IOException {
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+        this.tailMessages = Math.max(0, tailMessages);
+        this.maxMessages = maxMessages;
+        this.maxFileBytes = maxFileBytes;
+        this.known = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxKnownUsers;
+            }
+        };
+        Files.createDirectories(directory);
+        this.file = FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    // Reconstruire les boîtes du fichier laissé par le processus précédent ; une fin illisible
+    // (écriture interrompue) est coupée
+    private void recover() throws IOException {
+        long size = file.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        long offset = 0;
+        while (offset + HEADER <= size) {
+            header.clear();
+            readFully(file, header, offset);
+            int length = header.getInt(0);
+            byte kind = header.get(HEADER - 1);
+            if (length < HEADER + 2 || offset + length > size || (kind != MESSAGE && kind != TAKEN)) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length - HEADER);
+            readFully(file, body, offset + HEADER);
+            body.flip();
+            int recipientLength = body.getShort() & 0xFFFF;
+            if (recipientLength > body.remaining()) {
+                break;
+            }
+            byte[] recipientBytes = new byte[recipientLength];
+            body.get(recipientBytes);
+            String recipient = new String(recipientBytes, StandardCharsets.UTF_8);
+            if (kind == TAKEN) {
+                Box taken = boxes.remove(recipient);
+                if (taken != null) {
+                    liveFileBytes -= taken.spilledBytes;
+                }
+            } else {
+                Box box = boxes.computeIfAbsent(recipient, name -> new Box());
+                box.lastOffset = offset;
+                box.spilled++;
+                box.spilledBytes += length;
+                liveFileBytes += length;
+            }
+            offset += length;
+        }
+        if (offset < size) {
+            file.truncate(offset);
+        }
+        fileSize = offset;
+        reclaim();
+    }
+
+    // Pseudo qui vient de se connecter : il pourra recevoir des messages pendant sa prochaine absence
+    public synchronized void remember(String user) {
+        known.put(user, Boolean.TRUE);
+    }
+
+    // Destinataire connu : connecté récemment, ou qui a déjà des messages en attente
+    public synchronized boolean isKnown(String user) {
+        return known.containsKey(user) || boxes.containsKey(user);
+    }
+
+    // Garder un message pour recipient ; false si sa boîte ou le fichier est plein
+    public synchronized boolean add(String recipient, long timestamp, String sender, String text) throws IOException {
+        Box box = boxes.get(recipient);
+        if (box != null && box.size() >= maxMessages) {
+            return false;
+        }
+        if (fileSize >= maxFileBytes) {
+            reclaim();
+            if (fileSize >= maxFileBytes) {
+                return false;
+            }
+        }
+        Message message = new Message(timestamp, sender, text);
+        if (box == null) {
+            box = new Box();
+            boxes.put(recipient, box);
+        }
+        box.tail.addLast(message);
+        box.tailBytes += message.memory();
+        memoryBytes += message.memory();
+        inMemory.put(recipient, box);
+
+        while (box.tail.size() > tailMessages) {
+            spill(recipient, box, 1);
+        }
+        if (box.tail.isEmpty()) {
+            inMemory.remove(recipient);
+        }
+        // Au-delà du budget, les boîtes les moins récemment alimentées passent entièrement sur disque
+        Iterator<Map.Entry<String, Box>> oldest = inMemory.entrySet().iterator();
+        while (memoryBytes > memoryBudget && oldest.hasNext()) {
+            Map.Entry<String, Box> victim = oldest.next();
+            spill(victim.getKey(), victim.getValue(), victim.getValue().tail.size());
+            oldest.remove();
+        }
+        return true;
+    }
+
+    // Écrire les count plus anciens messages en mémoire de la boîte à la fin du fichier
+    private void spill(String recipient, Box box, int count) throws IOException {
+        byte[] name = recipient.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) {
+            Message message = box.tail.pollFirst();
+            byte[] sender = message.sender.getBytes(StandardCharsets.UTF_8);
+            byte[] text = message.text.getBytes(StandardCharsets.UTF_8);
+            int length = HEADER + 2 + name.length + 2 + sender.length + 4 + text.length;
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(length).putLong(box.lastOffset).putLong(message.timestamp).put(MESSAGE);
+            record.putShort((short) name.length).put(name);
+            record.putShort((short) sender.length).put(sender).putInt(text.length).put(text);
+            record.flip();
+            writeFully(file, record, fileSize);
+
+            box.lastOffset = fileSize;
+            box.spilled++;
+            box.spilledBytes += length;
+            box.tailBytes -= message.memory();
+            memoryBytes -= message.memory();
+            fileSize += length;
+            liveFileBytes += length;
+            spilledMessages++;
+        }
+    }
+
+    // Vider la boîte de recipient : ses messages du plus ancien au plus récent (liste vide s'il n'y en a pas)
+    public synchronized List<Message> take(String recipient) throws IOException {
+        Box box = boxes.remove(recipient);
+        if (box == null) {
+            return Collections.emptyList();
+        }
+        inMemory.remove(recipient);
+        memoryBytes -= box.tailBytes;
+        List<Message> messages = new ArrayList<>(box.size());
+        try {
+            readChain(box.lastOffset, messages);
+            if (box.spilled > 0) {
+                // Pour qu'une reprise du fichier ne remette pas ces messages une seconde fois
+                markTaken(recipient);
+            }
+        } finally {
+            liveFileBytes -= box.spilledBytes;
+            reclaim();
+        }
+        messages.addAll(box.tail);
+        return messages;
+    }
+
+    public synchronized boolean isEmpty(String recipient) {
+        return !boxes.containsKey(recipient);
+    }
+
+    private void markTaken(String recipient) throws IOException {
+        byte[] name = recipient.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER + 2 + name.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putLong(-1).putLong(System.currentTimeMillis()).put(TAKEN);
+        record.putShort((short) name.length).put(name);
+        record.flip();
+        writeFully(file, record, fileSize);
+        fileSize += length;
+    }
+
+    // Enregistrements d'une chaîne, ajoutés à messages dans l'ordre d'envoi
+    private void readChain(long offset, List<Message> messages) throws IOException {
+        int first = messages.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (offset >= 0) {
+            header.clear();
+            readFully(file, header, offset);
+            header.flip();
+            int length = header.getInt();
+            long previous = header.getLong();
+            long timestamp = header.getLong();
+            ByteBuffer body = ByteBuffer.allocate(length - HEADER);
+            readFully(file, body, offset + HEADER);
+            body.flip();
+            // Destinataire : celui de la boîte
+            body.position(2 + (body.getShort() & 0xFFFF));
+            byte[] sender = new byte[body.getShort() & 0xFFFF];
+            body.get(sender);
+            byte[] text = new byte[body.getInt()];
+            body.get(text);
+            messages.add(new Message(timestamp, new String(sender, StandardCharsets.UTF_8),
+                    new String(text, StandardCharsets.UTF_8)));
+            offset = previous;
+        }
+        Collections.reverse(messages.subList(first, messages.size()));
+    }
+
+    // Rendre la place des boîtes vidées : fichier remis à zéro s'il ne sert plus, recopié s'il est surtout vide
+    private void reclaim() throws IOException {
+        if (liveFileBytes == 0) {
+            if (fileSize > 0) {
+                file.truncate(0);
+                fileSize = 0;
+            }
+        } else if (fileSize >= COMPACT_MIN_BYTES && liveFileBytes < fileSize / 2) {
+            compact();
+        }
+    }
+
+    // Recopier les chaînes encore utiles dans un nouveau fichier, qui remplace l'ancien
+    private void compact() throws IOException {
+        Path target = directory.resolve(FILE_NAME);
+        Path temporary = directory.resolve(FILE_NAME + ".tmp");
+        FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = 0;
+        Map<Box, Long> offsets = new HashMap<>();
+        try {
+            for (Box box : boxes.values()) {
+                if (box.lastOffset < 0) {
+                    continue;
+                }
+                // Les enregistrements gardent leur contenu, seul le lien vers le précédent change
+                long previous = -1;
+                for (long offset : chainOffsets(box.lastOffset)) {
+                    ByteBuffer length = ByteBuffer.allocate(4);
+                    readFully(file, length, offset);
+                    ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+                    readFully(file, record, offset);
+                    record.putLong(4, previous).position(0);
+                    writeFully(compacted, record, size);
+                    previous = size;
+                    size += record.capacity();
+                }
+                offsets.put(box, previous);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compacted.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        file.close();
+        file = compacted;
+        fileSize = size;
+        liveFileBytes = size;
+        for (Map.Entry<Box, Long> entry : offsets.entrySet()) {
+            entry.getKey().lastOffset = entry.getValue();
+        }
+    }
+
+    // Positions des enregistrements d'une chaîne, du plus ancien au plus récent
+    private List<Long> chainOffsets(long offset) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        ByteBuffer previous = ByteBuffer.allocate(8);
+        while (offset >= 0) {
+            offsets.add(offset);
+            previous.clear();
+            readFully(file, previous, offset + 4);
+            offset = previous.getLong(0);
+        }
+        Collections.reverse(offsets);
+        return offsets;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Boîte de réception tronquée");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    // Boîtes non vides
+    public synchronized int getRecipients() {
+        return boxes.size();
+    }
+
+    // Octets de messages gardés en mémoire (estimation)
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    // Taille du fichier, y compris les boîtes déjà vidées pas encore recompactées
+    public synchronized long getFileBytes() {
+        return fileSize;
+    }
+
+    public synchronized long getSpilledMessages() {
+        return spilledMessages;
+    }
+
+    // Écrire les messages encore en mémoire pour qu'ils survivent au redémarrage
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (Map.Entry<String, Box> entry : inMemory.entrySet()) {
+                spill(entry.getKey(), entry.getValue(), entry.getValue().tail.size());
+            }
+            inMemory.clear();
+            file.force(false);
+        } finally {
+            file.close();
+        }
+    }
+}
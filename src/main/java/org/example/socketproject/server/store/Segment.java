@@ -0,0 +1,313 @@
+package org.example.socketproject.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Un fichier segment du stockage, en ajout seul. Format d'un enregistrement :
+ * longueur (int) | séquence (long) | horodatage (long) | longueur auteur (short)
+ * | auteur UTF-8 | texte UTF-8 | CRC32 (int). Un index clairsemé (.idx) associe
+ * environ tous les 4 Ko une séquence et un horodatage à leur position.
+ * Les lectures passent par une projection mémoire jamais plus grande que le
+ * fichier ; la fin du segment actif écrite depuis est lue directement, et la
+ * projection n'est refaite qu'au-delà de TAIL_READ_BYTES non projetés.
+ */
+class Segment implements Closeable {
+    static final String DATA_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+    private static final int LENGTH_SIZE = 4;
+    // séquence + horodatage + longueur auteur + CRC
+    private static final int FIXED_BODY_SIZE = 8 + 8 + 2 + 4;
+    // Fin non projetée lue par FileChannel plutôt que de refaire la projection
+    private static final int TAIL_READ_BYTES = 256 * 1024;
+
+    private final long baseSequence;
+    private final Path dataFile;
+    private final Path indexFile;
+    private final FileChannel data;
+    private final FileChannel index;
+
+    // Octets valides du segment, publiés après chaque ajout pour les lecteurs
+    private volatile long size;
+    private volatile long lastSequence;
+    private long lastIndexedPosition = -INDEX_INTERVAL;
+
+    // Index en mémoire (protégé par indexLock)
+    private final Object indexLock = new Object();
+    private long[] indexSequences = new long[64];
+    private long[] indexTimestamps = new long[64];
+    private int[] indexPositions = new int[64];
+    private int indexCount = 0;
+
+    // Projection mémoire en lecture seule des mappedSize premiers octets, refaite quand la fin non projetée est trop grande
+    private MappedByteBuffer mapped;
+    private long mappedSize;
+
+    private Segment(long baseSequence, Path dataFile, Path indexFile) throws IOException {
+        this.baseSequence = baseSequence;
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lastSequence = baseSequence - 1;
+    }
+
+    static String fileName(long baseSequence) {
+        return String.format("%020d", baseSequence);
+    }
+
+    // Nouveau segment vide commençant à la séquence donnée
+    static Segment create(Path directory, long baseSequence) throws IOException {
+        String name = fileName(baseSequence);
+        return new Segment(baseSequence, directory.resolve(name + DATA_SUFFIX), directory.resolve(name + INDEX_SUFFIX));
+    }
+
+    // Réouvrir un segment existant ; le dernier (actif) est revérifié et tronqué après le dernier enregistrement valide
+    static Segment open(Path dataFile, boolean active) throws IOException {
+        String name = dataFile.getFileName().toString();
+        String base = name.substring(0, name.length() - DATA_SUFFIX.length());
+        Segment segment = new Segment(Long.parseLong(base), dataFile, dataFile.resolveSibling(base + INDEX_SUFFIX));
+        if (active || segment.index.size() == 0) {
+            segment.recover();
+        } else {
+            segment.loadIndex();
+        }
+        return segment;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    long size() {
+        return size;
+    }
+
+    // Ajouter un enregistrement (appelé uniquement par l'écrivain du MessageStore)
+    void append(long sequence, long timestamp, String sender, String text) throws IOException {
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        if (senderBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Nom d'auteur trop long");
+        }
+        int bodyLength = FIXED_BODY_SIZE + senderBytes.length + textBytes.length;
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_SIZE + bodyLength);
+        record.putInt(bodyLength)
+                .putLong(sequence)
+                .putLong(timestamp)
+                .putShort((short) senderBytes.length)
+                .put(senderBytes)
+                .put(textBytes);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), LENGTH_SIZE, bodyLength - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long position = size;
+        while (record.hasRemaining()) {
+            data.write(record, position + record.position());
+        }
+        if (position - lastIndexedPosition >= INDEX_INTERVAL) {
+            addIndexEntry(sequence, timestamp, (int) position, true);
+        }
+        lastSequence = sequence;
+        size = position + LENGTH_SIZE + bodyLength;
+    }
+
+    // Lire jusqu'à max messages de séquence >= fromSequence : la partie projetée, puis la fin écrite depuis
+    void read(long fromSequence, int max, List<StoredMessage> out) throws IOException {
+        long committed = size;
+        int position = scan(view(committed), 0, floorPosition(fromSequence), fromSequence, max, out);
+        if (position >= 0 && position < committed && out.size() < max) {
+            ByteBuffer tail = ByteBuffer.allocate((int) (committed - position));
+            while (tail.hasRemaining()) {
+                if (data.read(tail, position + tail.position()) < 0) {
+                    break;
+                }
+            }
+            tail.flip();
+            scan(tail, position, position, fromSequence, max, out);
+        }
+    }
+
+    // Décoder les enregistrements de buffer (dont l'indice 0 est la position base du fichier) à partir de
+    // position ; retourne la position du premier enregistrement incomplet, ou -1 sur un enregistrement invalide
+    private int scan(ByteBuffer buffer, int base, int position, long fromSequence, int max, List<StoredMessage> out) {
+        int limit = base + buffer.limit();
+        while (out.size() < max && position + LENGTH_SIZE <= limit) {
+            int bodyLength = buffer.getInt(position - base);
+            if (bodyLength < FIXED_BODY_SIZE) {
+                return -1;
+            }
+            if (position + LENGTH_SIZE + bodyLength > limit) {
+                break;
+            }
+            if (buffer.getLong(position - base + LENGTH_SIZE) >= fromSequence) {
+                out.add(decode(buffer, position - base, bodyLength));
+            }
+            position += LENGTH_SIZE + bodyLength;
+        }
+        return out.size() < max ? position : -1;
+    }
+
+    // Projection jusqu'à committed au plus (jamais au-delà : le fichier n'est pas agrandi), refaite
+    // seulement si la fin non projetée dépasse TAIL_READ_BYTES
+    private ByteBuffer view(long committed) throws IOException {
+        synchronized (this) {
+            if (committed - mappedSize > TAIL_READ_BYTES) {
+                mapped = data.map(FileChannel.MapMode.READ_ONLY, 0, committed);
+                mappedSize = committed;
+            }
+            if (mapped == null) {
+                return ByteBuffer.allocate(0);
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.limit((int) Math.min(mappedSize, committed));
+            return view;
+        }
+    }
+
+    private static StoredMessage decode(ByteBuffer buffer, int position, int bodyLength) {
+        int offset = position + LENGTH_SIZE;
+        long sequence = buffer.getLong(offset);
+        long timestamp = buffer.getLong(offset + 8);
+        int senderLength = buffer.getShort(offset + 16) & 0xFFFF;
+        int textLength = bodyLength - FIXED_BODY_SIZE - senderLength;
+
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset + 18);
+        byte[] senderBytes = new byte[senderLength];
+        byte[] textBytes = new byte[textLength];
+        slice.get(senderBytes).get(textBytes);
+        return new StoredMessage(sequence, timestamp,
+                new String(senderBytes, StandardCharsets.UTF_8), new String(textBytes, StandardCharsets.UTF_8));
+    }
+
+    // Position du dernier point d'index dont la séquence est <= à celle demandée
+    private int floorPosition(long sequence) {
+        synchronized (indexLock) {
+            int low = 0;
+            int high = indexCount - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (indexSequences[mid] <= sequence) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found < 0 ? 0 : indexPositions[found];
+        }
+    }
+
+    private void addIndexEntry(long sequence, long timestamp, int position, boolean persist) throws IOException {
+        synchronized (indexLock) {
+            if (indexCount == indexSequences.length) {
+                int capacity = indexCount * 2;
+                indexSequences = Arrays.copyOf(indexSequences, capacity);
+                indexTimestamps = Arrays.copyOf(indexTimestamps, capacity);
+                indexPositions = Arrays.copyOf(indexPositions, capacity);
+            }
+            indexSequences[indexCount] = sequence;
+            indexTimestamps[indexCount] = timestamp;
+            indexPositions[indexCount] = position;
+            indexCount++;
+        }
+        lastIndexedPosition = position;
+        if (persist) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(sequence).putLong(timestamp).putInt(position).flip();
+            while (entry.hasRemaining()) {
+                index.write(entry, index.size());
+            }
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate((int) index.size());
+        while (entries.hasRemaining() && index.read(entries, entries.position()) > 0) {
+            // lecture complète
+        }
+        entries.flip();
+        while (entries.remaining() >= INDEX_ENTRY_SIZE) {
+            addIndexEntry(entries.getLong(), entries.getLong(), entries.getInt(), false);
+        }
+        size = data.size();
+    }
+
+    // Parcourir tout le segment, garder les enregistrements valides et reconstruire l'index
+    private void recover() throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) data.size());
+        while (content.hasRemaining() && data.read(content, content.position()) > 0) {
+            // lecture complète
+        }
+        content.flip();
+        index.truncate(0);
+
+        int position = 0;
+        int limit = content.limit();
+        CRC32 crc = new CRC32();
+        while (position + LENGTH_SIZE <= limit) {
+            int bodyLength = content.getInt(position);
+            if (bodyLength < FIXED_BODY_SIZE || position + LENGTH_SIZE + bodyLength > limit) {
+                break;
+            }
+            crc.reset();
+            crc.update(content.array(), position + LENGTH_SIZE, bodyLength - 4);
+            if ((int) crc.getValue() != content.getInt(position + LENGTH_SIZE + bodyLength - 4)) {
+                break;
+            }
+            long sequence = content.getLong(position + LENGTH_SIZE);
+            long timestamp = content.getLong(position + LENGTH_SIZE + 8);
+            if (position - lastIndexedPosition >= INDEX_INTERVAL) {
+                addIndexEntry(sequence, timestamp, position, true);
+            }
+            lastSequence = sequence;
+            position += LENGTH_SIZE + bodyLength;
+        }
+        // Fin de fichier incomplète (arrêt brutal pendant une écriture) : on la coupe
+        if (position < limit) {
+            data.truncate(position);
+        }
+        size = position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.force(false);
+        data.close();
+        index.close();
+    }
+
+    // Supprimer le segment (rétention) ; si le système refuse (fichier projeté sous Windows), à la sortie
+    void delete() {
+        try {
+            data.close();
+            index.close();
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(indexFile);
+        } catch (IOException e) {
+            dataFile.toFile().deleteOnExit();
+            indexFile.toFile().deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.socketproject.server.store;
+
+// Message relu depuis le stockage : numéro de séquence, horodatage, auteur et ligne diffusée
+public class StoredMessage {
+    private final long sequence;
+    private final long timestamp;
+    private final String sender;
+    private final String text;
+
+    public StoredMessage(long sequence, long timestamp, String sender, String text) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.text = text;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.socketproject.server.tls;
+
+import org.example.socketproject.server.ChatLogger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contexte TLS du serveur, chargé une fois depuis un keystore PKCS12 : un
+ * SSLEngine par connexion NIO, une SSLSocket par connexion bloquante. Les
+ * deux partagent le cache de sessions du contexte, si bien qu'un client qui
+ * se reconnecte reprend sa session (ticket TLS 1.3) au lieu de refaire
+ * l'échange de clés et la signature. Les calculs de la poignée de main
+ * (tâches déléguées du SSLEngine) tournent sur un pool à part, jamais sur les
+ * boucles NIO.
+ */
+public class ServerTls {
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+
+    private final SSLContext context;
+    private final ExecutorService handshakes;
+
+    private ServerTls(SSLContext context) {
+        this.context = context;
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.handshakes = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "chat-tls");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Charger le certificat et la clé du serveur ; sessionCacheSize et sessionTimeoutSeconds règlent la reprise de session
+    public static ServerTls load(Path keyStore, char[] password, int sessionCacheSize, int sessionTimeoutSeconds)
+            throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            store.load(in, password);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        ChatLogger.getInstance().logServerEvent("TLS activé (" + keyStore + ", cache de " + sessionCacheSize
+                + " sessions pendant " + sessionTimeoutSeconds + " s)");
+        return new ServerTls(context);
+    }
+
+    // Moteur côté serveur pour une connexion NIO
+    public SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(PROTOCOLS);
+        return engine;
+    }
+
+    // Socket TLS au-dessus d'une socket acceptée (mode bloquant) ; la poignée de main se fait à la première lecture
+    public SSLSocket wrap(Socket socket) throws IOException {
+        SSLSocket tls = (SSLSocket) context.getSocketFactory().createSocket(socket, null, socket.getPort(), true);
+        tls.setUseClientMode(false);
+        tls.setEnabledProtocols(PROTOCOLS);
+        return tls;
+    }
+
+    // Pool des tâches déléguées des SSLEngine
+    public ExecutorService getHandshakeExecutor() {
+        return handshakes;
+    }
+
+    // Session reprise d'une connexion précédente : créée avant le début de cette poignée de main
+    public static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+        return session.getCreationTime() < handshakeStartMillis;
+    }
+
+    public void shutdown() {
+        handshakes.shutdownNow();
+    }
+}
@@ -0,0 +1,266 @@
+package org.example.socketproject.server.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Canal non bloquant chiffré par un SSLEngine, utilisé par une seule boucle
+ * NIO : read() et write() ont la même sémantique que sur le SocketChannel
+ * (0 si rien n'est prêt), la poignée de main avance au fil des appels. Ses
+ * tâches déléguées partent sur un autre pool ; pendant ce temps le canal ne
+ * lit plus rien et la boucle est prévenue par Listener.tasksDone() pour
+ * reprendre.
+ */
+public final class TlsChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    public interface Listener {
+        // Les tâches déléguées sont terminées (appelé depuis leur pool) : reprendre read() et flush() sur la boucle
+        void tasksDone();
+
+        // Poignée de main terminée, appelé depuis read(), write() ou flush() ; startMillis (son début)
+        // permet de savoir si la session a été reprise
+        void handshakeFinished(SSLSession session, long startMillis, long nanos);
+    }
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final Executor tasks;
+    private final Listener listener;
+    // Octets chiffrés reçus pas encore déchiffrés, et à envoyer pas encore écrits (mode écriture)
+    private ByteBuffer netIn;
+    private final ByteBuffer netOut;
+    // Octets déchiffrés pas encore rendus par read() (mode écriture)
+    private ByteBuffer appIn;
+    // Un enregistrement déchiffrable attend que appIn soit vidé
+    private boolean moreInput = false;
+    private boolean inputClosed = false;
+    private volatile boolean tasksRunning = false;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private boolean handshakeDone = false;
+
+    public TlsChannel(SocketChannel channel, SSLEngine engine, Executor tasks, Listener listener) {
+        this.channel = channel;
+        this.engine = engine;
+        this.tasks = tasks;
+        this.listener = listener;
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    // Octets en clair reçus, copiés dans dst ; -1 en fin de flux, 0 si rien n'est disponible pour l'instant
+    public int read(ByteBuffer dst) throws IOException {
+        if (!tasksRunning && !inputClosed && netIn.hasRemaining()) {
+            if (channel.read(netIn) < 0) {
+                inputClosed = true;
+            }
+        }
+        unwrapAll();
+        if (appIn.position() > 0) {
+            appIn.flip();
+            int n = Math.min(appIn.remaining(), dst.remaining());
+            ByteBuffer slice = appIn.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            appIn.position(appIn.position() + n);
+            appIn.compact();
+            return n;
+        }
+        return inputClosed && !moreInput ? -1 : 0;
+    }
+
+    // Déchiffrer tout ce qui peut l'être, en répondant aux étapes de la poignée de main
+    private void unwrapAll() throws IOException {
+        moreInput = false;
+        while (!tasksRunning) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+                return;
+            }
+            if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                if (!wrapHandshake()) {
+                    // Sortie pleine : reprise par flush() quand le canal redeviendra inscriptible
+                    return;
+                }
+                continue;
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            finished(result);
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    // Enregistrement incomplet : attendre la suite, en agrandissant le tampon s'il ne peut pas le contenir
+                    if (!netIn.hasRemaining()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                        continue;
+                    }
+                    if (inputClosed) {
+                        closeInbound();
+                    }
+                    return;
+                case BUFFER_OVERFLOW:
+                    if (appIn.position() == 0) {
+                        appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    }
+                    // La suite sera déchiffrée quand read() aura vidé appIn
+                    moreInput = true;
+                    return;
+                case CLOSED:
+                    inputClosed = true;
+                    return;
+                default:
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                            && engine.getHandshakeStatus() == status) {
+                        return;
+                    }
+            }
+        }
+    }
+
+    // Message de poignée de main à envoyer ; false si la sortie précédente n'est pas encore partie
+    private boolean wrapHandshake() throws IOException {
+        if (!flushNet()) {
+            return false;
+        }
+        SSLEngineResult result = engine.wrap(EMPTY, netOut);
+        finished(result);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED && result.bytesProduced() == 0) {
+            throw new SSLException("Session TLS fermée");
+        }
+        flushNet();
+        return true;
+    }
+
+    // Chiffrer et écrire les octets de srcs ; retourne le nombre d'octets en clair pris en charge
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long consumed = 0;
+        while (!tasksRunning && flushNet()) {
+            SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+            finished(result);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Session TLS fermée");
+            }
+            consumed += result.bytesConsumed();
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                flushNet();
+                runTasks();
+                break;
+            }
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                break;
+            }
+        }
+        return consumed;
+    }
+
+    // Écrire la sortie en attente puis faire avancer la poignée de main ; false s'il reste des octets à écrire
+    public boolean flush() throws IOException {
+        if (!flushNet()) {
+            return false;
+        }
+        if (!handshakeDone && !tasksRunning) {
+            unwrapAll();
+        }
+        return flushNet();
+    }
+
+    private boolean flushNet() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    private void runTasks() {
+        List<Runnable> pending = new ArrayList<>();
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            pending.add(task);
+        }
+        tasksRunning = true;
+        tasks.execute(() -> {
+            for (Runnable delegated : pending) {
+                delegated.run();
+            }
+            tasksRunning = false;
+            listener.tasksDone();
+        });
+    }
+
+    private void finished(SSLEngineResult result) {
+        if (!handshakeDone && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+            handshakeDone = true;
+            listener.handshakeFinished(engine.getSession(), startMillis, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void closeInbound() {
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // Fin de flux sans close_notify : la connexion se ferme de toute façon
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int size) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    // Tâches déléguées en cours : ne plus attendre de lecture d'ici tasksDone()
+    public boolean isWaitingForTasks() {
+        return tasksRunning;
+    }
+
+    // Octets déjà reçus et déchiffrables sans nouvelle lecture du canal
+    public boolean hasBufferedInput() {
+        return appIn.position() > 0 || moreInput;
+    }
+
+    // Octets chiffrés pas encore écrits sur le canal
+    public boolean hasPendingOutput() {
+        return netOut.position() > 0;
+    }
+
+    // Envoyer close_notify si possible, sans attendre la réponse
+    public void close() throws IOException {
+        if (!tasksRunning) {
+            engine.closeOutbound();
+            try {
+                if (flushNet()) {
+                    engine.wrap(EMPTY, netOut);
+                    flushNet();
+                }
+            } catch (IOException e) {
+                // Le pair est déjà parti
+            }
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,368 @@
+package org.example.socketproject.server.transfer;
+
+import org.example.socketproject.server.ChatLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chemin de données des fichiers, à part des connexions de chat : un transfert
+ * annoncé par /send sur la connexion de chat se fait ensuite sur une connexion
+ * dédiée à ce port, servie par son propre thread. L'expéditeur y envoie
+ * "PUT id jeton\n" puis les octets du fichier, écrits dans un fichier d'attente
+ * (FileChannel.transferFrom) ; le destinataire envoie "GET id jeton\n" et reçoit
+ * le fichier par FileChannel.transferTo (sendfile, sans copie en espace
+ * utilisateur). Le serveur répond "OK\n" une fois le fichier reçu, ou avant de
+ * l'envoyer, et "ERR raison\n" en cas de refus. La taille et le débit de chaque transfert sont limités.
+ */
+public class FileTransferServer {
+    // Connexions de données servies en même temps, les suivantes sont refusées
+    private static final int MAX_CONCURRENT = 16;
+    private static final int MAX_HEADER = 256;
+    // Délai pour recevoir l'en-tête d'une connexion de données (les lectures bloquantes n'ont pas de délai)
+    private static final long HEADER_TIMEOUT_MILLIS = 10_000;
+    // Morceau transféré entre deux vérifications du débit
+    private static final long CHUNK = 64 * 1024;
+    // Délai pour envoyer le fichier, puis pour le récupérer, avant qu'il soit abandonné
+    private static final long EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final String SPOOL_SUFFIX = ".spool";
+
+    private final int port;
+    private final Path spoolDir;
+    private final long maxBytes;
+    private final long bytesPerSecond;
+    private final TransferListener listener;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private final SecureRandom tokens = new SecureRandom();
+    private final AtomicLong nextId = new AtomicLong();
+    private final ThreadPoolExecutor workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    public FileTransferServer(int port, Path spoolDir, long maxBytes, long bytesPerSecond,
+                              TransferListener listener, ScheduledExecutorService scheduler) {
+        this.port = port;
+        this.spoolDir = spoolDir;
+        this.maxBytes = maxBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.workers = new ThreadPoolExecutor(0, MAX_CONCURRENT, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "chat-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() throws IOException {
+        Files.createDirectories(spoolDir);
+        // Fichiers d'une exécution précédente : leurs transferts n'existent plus
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDir, "*" + SPOOL_SUFFIX + "*")) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "chat-transfer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ChatLogger.getInstance().logServerEvent("Transferts de fichiers sur le port " + port + " (max "
+                + maxBytes / (1024 * 1024) + " Mo" + (bytesPerSecond > 0 ? ", " + bytesPerSecond / 1024 + " Ko/s" : "") + ")");
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Déjà fermé
+        }
+        for (Transfer transfer : transfers.values()) {
+            fail(transfer, "arrêt du serveur");
+        }
+        workers.shutdownNow();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Annoncer un transfert ; l'expéditeur a EXPIRY_MILLIS pour envoyer le fichier
+    public Transfer offer(String from, String to, String name, long size) {
+        String id = Long.toString(nextId.incrementAndGet());
+        Transfer transfer = new Transfer(id, randomToken(), randomToken(), from, to, name, size,
+                spoolDir.resolve(id + SPOOL_SUFFIX));
+        transfers.put(id, transfer);
+        expireLater(transfer, Transfer.State.OFFERED, Transfer.State.UPLOADING);
+        return transfer;
+    }
+
+    // Abandonner un transfert (destinataire parti avant la fin de l'envoi)
+    public void cancel(Transfer transfer, String reason) {
+        fail(transfer, reason);
+    }
+
+    // Abandonner le transfert s'il est encore à l'étape waiting (ou en train de la franchir) après le délai
+    private void expireLater(Transfer transfer, Transfer.State waiting, Transfer.State inProgress) {
+        scheduler.schedule(() -> {
+            synchronized (transfer) {
+                if (transfer.state != waiting && transfer.state != inProgress) {
+                    return;
+                }
+            }
+            fail(transfer, "délai dépassé");
+        }, EXPIRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (running) {
+                    ChatLogger.getInstance().logError("Erreur d'acceptation d'un transfert : " + e.getMessage());
+                }
+                continue;
+            }
+            try {
+                workers.execute(() -> serve(channel));
+            } catch (RejectedExecutionException e) {
+                reply(channel, "ERR trop de transferts en cours");
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    // Une connexion de données : en-tête "PUT|GET id jeton\n" puis le fichier dans un sens ou dans l'autre
+    private void serve(SocketChannel channel) {
+        Transfer transfer = null;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+            ScheduledFuture<?> timeout = scheduler.schedule(() -> closeQuietly(channel),
+                    HEADER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            int end = readHeader(channel, header);
+            timeout.cancel(false);
+            if (end < 0) {
+                reply(channel, "ERR en-tête invalide");
+                return;
+            }
+            String[] parts = new String(header.array(), 0, end, StandardCharsets.US_ASCII).trim().split(" ");
+            transfer = parts.length == 3 ? transfers.get(parts[1]) : null;
+            // Octets du fichier déjà lus avec l'en-tête
+            header.limit(header.position()).position(end + 1);
+            if (transfer != null && parts[0].equals("PUT") && parts[2].equals(transfer.getUploadToken())
+                    && begin(transfer, Transfer.State.OFFERED, Transfer.State.UPLOADING, channel)) {
+                receive(transfer, channel, header);
+            } else if (transfer != null && parts[0].equals("GET") && parts[2].equals(transfer.getDownloadToken())
+                    && begin(transfer, Transfer.State.UPLOADED, Transfer.State.DOWNLOADING, channel)) {
+                send(transfer, channel);
+            } else {
+                transfer = null;
+                reply(channel, "ERR transfert inconnu");
+            }
+        } catch (IOException e) {
+            if (transfer != null) {
+                fail(transfer, "connexion interrompue");
+            }
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    // Position du \n de fin d'en-tête dans buffer, -1 si la connexion se ferme ou l'en-tête est trop long
+    private static int readHeader(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        int scanned = 0;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return -1;
+            }
+            for (; scanned < buffer.position(); scanned++) {
+                if (buffer.get(scanned) == '\n') {
+                    return scanned;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean begin(Transfer transfer, Transfer.State expected, Transfer.State next, SocketChannel channel) {
+        synchronized (transfer) {
+            if (transfer.state != expected) {
+                return false;
+            }
+            transfer.state = next;
+            transfer.channel = channel;
+            return true;
+        }
+    }
+
+    // Écrire le fichier de l'expéditeur dans le fichier d'attente, à débit limité
+    private void receive(Transfer transfer, SocketChannel channel, ByteBuffer alreadyRead) throws IOException {
+        long size = transfer.getSize();
+        if (alreadyRead.remaining() > size) {
+            throw new IOException("Plus d'octets que la taille annoncée");
+        }
+        Path part = transfer.getSpool().resolveSibling(transfer.getSpool().getFileName() + ".part");
+        long start = System.nanoTime();
+        try (FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (alreadyRead.hasRemaining()) {
+                position += file.write(alreadyRead, position);
+            }
+            while (position < size) {
+                long n = file.transferFrom(channel, position, Math.min(CHUNK, size - position));
+                if (n <= 0) {
+                    // Rien à lire alors que le fichier n'est pas complet : fin de flux
+                    throw new IOException("Fichier incomplet");
+                }
+                position += n;
+                throttle(start, position);
+            }
+            file.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        Files.move(part, transfer.getSpool(), StandardCopyOption.ATOMIC_MOVE);
+        synchronized (transfer) {
+            if (transfer.state != Transfer.State.UPLOADING) {
+                // Abandonné entre-temps
+                Files.deleteIfExists(transfer.getSpool());
+                return;
+            }
+            transfer.state = Transfer.State.UPLOADED;
+            transfer.uploaded = true;
+            transfer.channel = null;
+        }
+        reply(channel, "OK");
+        expireLater(transfer, Transfer.State.UPLOADED, Transfer.State.DOWNLOADING);
+        listener.uploaded(transfer);
+    }
+
+    // Envoyer le fichier d'attente au destinataire sans le recopier en mémoire, à débit limité
+    private void send(Transfer transfer, SocketChannel channel) throws IOException {
+        try (FileChannel file = FileChannel.open(transfer.getSpool(), StandardOpenOption.READ)) {
+            reply(channel, "OK");
+            long start = System.nanoTime();
+            long size = file.size();
+            long position = 0;
+            while (position < size) {
+                long n = file.transferTo(position, Math.min(CHUNK, size - position), channel);
+                if (n <= 0) {
+                    throw new IOException("Envoi interrompu");
+                }
+                position += n;
+                throttle(start, position);
+            }
+        }
+        synchronized (transfer) {
+            if (transfer.state != Transfer.State.DOWNLOADING) {
+                return;
+            }
+            transfer.state = Transfer.State.DONE;
+            transfer.channel = null;
+        }
+        transfers.remove(transfer.getId());
+        Files.deleteIfExists(transfer.getSpool());
+        listener.downloaded(transfer);
+    }
+
+    // Attendre si le transfert va plus vite que le débit autorisé
+    private void throttle(long start, long transferred) throws IOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        // En double : transferred * 1e9 dépasse un long au-delà de 9,2 Go
+        long ahead = (long) ((double) transferred / bytesPerSecond * 1e9) - (System.nanoTime() - start);
+        if (ahead > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Transfert interrompu");
+            }
+        }
+    }
+
+    private void fail(Transfer transfer, String reason) {
+        SocketChannel channel;
+        synchronized (transfer) {
+            if (transfer.state == Transfer.State.DONE || transfer.state == Transfer.State.FAILED) {
+                return;
+            }
+            transfer.state = Transfer.State.FAILED;
+            channel = transfer.channel;
+            transfer.channel = null;
+        }
+        transfers.remove(transfer.getId());
+        // Débloque le thread du transfert s'il attend encore des octets
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+        try {
+            Files.deleteIfExists(transfer.getSpool());
+        } catch (IOException e) {
+            ChatLogger.getInstance().logError("Fichier d'attente non supprimé : " + e.getMessage());
+        }
+        listener.failed(transfer, reason);
+    }
+
+    private static void reply(SocketChannel channel, String line) {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            // Le client est déjà parti
+        }
+    }
+
+    private String randomToken() {
+        byte[] bytes = new byte[16];
+        tokens.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.socketproject.server.transfer;
+
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+// Un fichier en route d'un utilisateur vers un autre, mis en attente sur le disque du serveur
+public final class Transfer {
+    enum State { OFFERED, UPLOADING, UPLOADED, DOWNLOADING, DONE, FAILED }
+
+    private final String id;
+    private final String uploadToken;
+    private final String downloadToken;
+    private final String from;
+    private final String to;
+    private final String name;
+    private final long size;
+    private final Path spool;
+    State state = State.OFFERED;
+    // Fichier entièrement reçu : le destinataire en a été prévenu
+    volatile boolean uploaded = false;
+    // Connexion de données en cours, fermée pour débloquer son thread si le transfert expire
+    volatile SocketChannel channel;
+
+    Transfer(String id, String uploadToken, String downloadToken, String from, String to, String name, long size, Path spool) {
+        this.id = id;
+        this.uploadToken = uploadToken;
+        this.downloadToken = downloadToken;
+        this.from = from;
+        this.to = to;
+        this.name = name;
+        this.size = size;
+        this.spool = spool;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    // Jeton présenté par l'expéditeur pour envoyer le fichier
+    public String getUploadToken() {
+        return uploadToken;
+    }
+
+    // Jeton présenté par le destinataire pour le récupérer
+    public String getDownloadToken() {
+        return downloadToken;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    Path getSpool() {
+        return spool;
+    }
+}
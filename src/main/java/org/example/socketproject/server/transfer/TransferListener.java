@@ -0,0 +1,13 @@
+package org.example.socketproject.server.transfer;
+
+// Étapes d'un transfert de fichier, à annoncer aux clients concernés (appelé depuis les threads de transfert)
+public interface TransferListener {
+    // Fichier entièrement reçu de l'expéditeur : le destinataire peut venir le chercher
+    void uploaded(Transfer transfer);
+
+    // Fichier entièrement remis au destinataire
+    void downloaded(Transfer transfer);
+
+    // Transfert abandonné (connexion coupée, délai dépassé, arrêt du serveur)
+    void failed(Transfer transfer, String reason);
+}